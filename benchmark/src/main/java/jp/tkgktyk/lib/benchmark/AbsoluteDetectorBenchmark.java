@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.tkgktyk.lib.core.AbsoluteDetectorCore;
+import jp.tkgktyk.lib.core.ForceTouchListener;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AbsoluteDetectorBenchmark extends DetectorState {
+    private static final float THRESHOLD = 0.2f;
+
+    private AbsoluteDetectorCore mDetector;
+
+    @Override
+    void setUpDetector() {
+        mDetector = new AbsoluteDetectorCore(new ForceTouchListener() {
+            @Override
+            public boolean onAbsoluteTouch(float x, float y, float parameter) {
+                return parameter >= THRESHOLD;
+            }
+
+            @Override
+            public boolean onRelativeTouch(float x, float y, float startX, float startY) {
+                return false;
+            }
+
+            @Override
+            public boolean onForceTap(float x, float y) {
+                return true;
+            }
+
+            @Override
+            public boolean onForceLongPress(float x, float y) {
+                return true;
+            }
+        }, NO_HOST, mScheduler);
+        mDetector.setTouchSlop(TOUCH_SLOP);
+    }
+
+    @Benchmark
+    public boolean onTouchEvent() {
+        return mDetector.onTouchEvent(nextFrame());
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.tkgktyk.lib.core.AbsoluteDetectorCore;
+import jp.tkgktyk.lib.core.ForceTouchListener;
+import jp.tkgktyk.lib.core.GestureAutomaton;
+import jp.tkgktyk.lib.core.GestureTable;
+import jp.tkgktyk.lib.core.ManualScheduler;
+import jp.tkgktyk.lib.core.RelativeDetectorCore;
+import jp.tkgktyk.lib.core.TapFlickRecognizer;
+
+/**
+ * Time and heap of building the platform independent cores of a detector set, a proxy only.
+ * The per-window setup in ModForceTouch (detector views, animators, receivers and the
+ * Android wrappers) needs a device and is not measured, and neither is the saving of lazy
+ * over eager creation. Run with -prof gc, gc.alloc.rate.norm is bytes per set of cores.
+ * <ul>
+ * <li>wiggle: the default, Wiggle Touch only</li>
+ * <li>large: Large Touch and Knuckle Touch</li>
+ * <li>all: every detector including a custom gesture</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AttachBenchmark {
+    private static final String CUSTOM_GESTURES = ""
+            + "gesture double_squeeze action BACK\n"
+            + "idle above 1.5 -> pressed\n"
+            + "pressed below 1.2 -> released\n"
+            + "pressed timeout 800 -> fail\n"
+            + "released above 1.5 -> accept\n"
+            + "released timeout 400 -> fail\n";
+
+    private static final ForceTouchListener LISTENER = new ForceTouchListener() {
+        @Override
+        public boolean onAbsoluteTouch(float x, float y, float parameter) {
+            return false;
+        }
+
+        @Override
+        public boolean onRelativeTouch(float x, float y, float startX, float startY) {
+            return false;
+        }
+
+        @Override
+        public boolean onForceTap(float x, float y) {
+            return false;
+        }
+
+        @Override
+        public boolean onForceLongPress(float x, float y) {
+            return false;
+        }
+    };
+
+    private static final TapFlickRecognizer.Listener TAP_FLICK_LISTENER =
+            new TapFlickRecognizer.Listener() {
+                @Override
+                public void onTap(float x, float y) {
+                }
+
+                @Override
+                public void onDoubleTap(float x, float y) {
+                }
+
+                @Override
+                public void onLongPress(float x, float y) {
+                }
+
+                @Override
+                public void onFlick(int direction, float x, float y) {
+                }
+            };
+
+    private static final GestureAutomaton.Listener GESTURE_LISTENER =
+            new GestureAutomaton.Listener() {
+                @Override
+                public boolean onGesture(int gesture, float x, float y) {
+                    return false;
+                }
+            };
+
+    @Param({"wiggle", "large", "all"})
+    public String detectors;
+
+    private boolean mForceGesture;
+    private boolean mLargeTouch;
+    private boolean mWiggleTouch;
+    private boolean mScratchTouch;
+    private boolean mCustomGesture;
+
+    @Setup
+    public void setUp() {
+        final boolean all = detectors.equals("all");
+        mForceGesture = all;
+        mLargeTouch = all || detectors.equals("large");
+        mWiggleTouch = all || detectors.equals("wiggle");
+        mScratchTouch = all;
+        mCustomGesture = all;
+    }
+
+    private static AbsoluteDetectorCore newAbsolute(ManualScheduler scheduler) {
+        AbsoluteDetectorCore detector = new AbsoluteDetectorCore(LISTENER,
+                DetectorState.NO_HOST, scheduler);
+        detector.setTouchSlop(DetectorState.TOUCH_SLOP);
+        detector.setExtraLongPressTimeout(0);
+        return detector;
+    }
+
+    private static RelativeDetectorCore newRelative(ManualScheduler scheduler, int type,
+                                                    float magnification) {
+        RelativeDetectorCore detector = new RelativeDetectorCore(LISTENER,
+                DetectorState.NO_HOST, scheduler);
+        detector.setType(type);
+        detector.setMagnification(magnification);
+        detector.setTouchSlop(DetectorState.TOUCH_SLOP);
+        detector.setWindowDelayInMillis(100);
+        detector.setWindowTimeInMillis(400);
+        detector.setExtraLongPressTimeout(300);
+        return detector;
+    }
+
+    /**
+     * @return the set, so it is not eliminated
+     */
+    @Benchmark
+    public Object[] attach() {
+        final ManualScheduler scheduler = new ManualScheduler();
+        final Object[] set = new Object[6];
+        if (mForceGesture) {
+            TapFlickRecognizer recognizer = new TapFlickRecognizer(TAP_FLICK_LISTENER,
+                    scheduler);
+            recognizer.setTouchSlop(DetectorState.TOUCH_SLOP);
+            recognizer.setDoubleTapSlop(DetectorState.TOUCH_SLOP);
+            recognizer.setMinimumFlingVelocity(400.0f);
+            recognizer.setLongPressTimeout(RelativeDetectorCore.DEFAULT_LONG_PRESS_TIMEOUT);
+            recognizer.setDoubleTapTimeout(300);
+            set[0] = recognizer;
+        }
+        if (mLargeTouch) {
+            set[1] = newAbsolute(scheduler);
+            set[2] = newAbsolute(scheduler);
+        }
+        if (mWiggleTouch) {
+            set[3] = newRelative(scheduler, RelativeDetectorCore.TYPE_WIGGLE, 1.4f);
+        }
+        if (mScratchTouch) {
+            set[4] = newRelative(scheduler, RelativeDetectorCore.TYPE_SCRATCH, 0.6f);
+        }
+        if (mCustomGesture) {
+            set[5] = new GestureAutomaton(GestureTable.compile(CUSTOM_GESTURES),
+                    GESTURE_LISTENER, DetectorState.NO_HOST, scheduler);
+        }
+        return set;
+    }
+}
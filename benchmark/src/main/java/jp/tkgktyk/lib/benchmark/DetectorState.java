@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import jp.tkgktyk.lib.core.EventHost;
+import jp.tkgktyk.lib.core.ManualScheduler;
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * A synthetic stream which is fed one event per benchmark operation, so scores are per event.
+ */
+@State(Scope.Thread)
+public abstract class DetectorState {
+    static final int STROKES = 8;
+    static final int TOUCH_SLOP = 8 * 9;
+
+    static final EventHost NO_HOST = new EventHost() {
+        @Override
+        public void saveCancelEvent() {
+        }
+
+        @Override
+        public void sendCancelEvent() {
+        }
+
+        @Override
+        public void releaseCancelEvent() {
+        }
+
+        @Override
+        public void recordMotion() {
+        }
+
+        @Override
+        public void rewindMotions() {
+        }
+
+        @Override
+        public void clearMotions() {
+        }
+    };
+
+    @Param({"1", "2", "5"})
+    public int fingers;
+
+    @Param({"120", "240"})
+    public int rate;
+
+    final ManualScheduler mScheduler = new ManualScheduler();
+    private TouchFrame[] mFrames;
+    private int mNext;
+
+    @Setup
+    public void setUpStream() {
+        mFrames = TouchStreams.create(fingers, rate, STROKES);
+        mNext = 0;
+        setUpDetector();
+    }
+
+    abstract void setUpDetector();
+
+    /**
+     * The stream wraps after the last stroke is released, when no timeout is pending.
+     */
+    TouchFrame nextFrame() {
+        final TouchFrame frame = mFrames[mNext];
+        if (++mNext == mFrames.length) {
+            mNext = 0;
+        }
+        // timeouts are scheduled at event times, so they are due by the time of the event
+        mScheduler.advanceTo(frame.getEventTime());
+        return frame;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import jp.tkgktyk.lib.core.RootClassFilter;
+import jp.tkgktyk.lib.core.WeakIdentityRegistry;
+
+/**
+ * Per-event cost of the dispatchTouchEvent hook against the depth of the view hierarchy.
+ * One event enters the hook once per nested container when ViewGroup#dispatchTouchEvent is
+ * hooked, the cost of the Xposed trampoline itself is not included.
+ * <ul>
+ * <li>additionalField: every container looks up additional instance fields like
+ * XposedHelpers#getAdditionalInstanceField, a synchronized WeakHashMap</li>
+ * <li>rootClassFilter: every container is checked by identity of the class first</li>
+ * <li>rootClassHook: only the root enters the hook, the root class declares the method</li>
+ * <li>rootClassHookRegistry: same as rootClassHook with {@link WeakIdentityRegistry}</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchHookBenchmark {
+    private static final String FIELD_DETECTORS = "forceTouchDetectors";
+
+    // stand-ins of View classes, the root declares its own dispatch method
+    static class ViewGroup {
+        public boolean dispatch(Object event) {
+            return false;
+        }
+    }
+
+    static class FrameLayout extends ViewGroup {
+    }
+
+    static class LinearLayout extends ViewGroup {
+    }
+
+    static class RelativeLayout extends ViewGroup {
+    }
+
+    static class DecorView extends FrameLayout {
+        @Override
+        public boolean dispatch(Object event) {
+            return false;
+        }
+    }
+
+    static class PopupBackgroundView extends FrameLayout {
+    }
+
+    @Param({"1", "4", "8", "16", "32"})
+    public int depth;
+
+    private final Map<Object, HashMap<String, Object>> mAdditionalFields = new WeakHashMap<>();
+    private final WeakIdentityRegistry<Object> mRegistry = new WeakIdentityRegistry<>();
+    private final RootClassFilter mFilter = new RootClassFilter();
+    private Method mViewGroupMethod;
+    private Method mDecorViewMethod;
+    private Object[] mHierarchy;
+    // keeps weak keys of other windows alive
+    private final Object[] mOtherWindows = new Object[16];
+    private final Object mDetectors = new Object();
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        mViewGroupMethod = ViewGroup.class.getDeclaredMethod("dispatch", Object.class);
+        mDecorViewMethod = DecorView.class.getDeclaredMethod("dispatch", Object.class);
+        // a popup in the process makes ViewGroup's method hooked
+        mFilter.add(mViewGroupMethod, PopupBackgroundView.class);
+
+        mHierarchy = new Object[depth];
+        mHierarchy[0] = new DecorView();
+        final Object[] nested = {new FrameLayout(), new LinearLayout(), new RelativeLayout()};
+        for (int i = 1; i < depth; ++i) {
+            mHierarchy[i] = nested[i % nested.length];
+        }
+        HashMap<String, Object> fields = new HashMap<>();
+        fields.put(FIELD_DETECTORS, mDetectors);
+        mAdditionalFields.put(mHierarchy[0], fields);
+        // other windows and popups of the process
+        for (int i = 0; i < mOtherWindows.length; ++i) {
+            HashMap<String, Object> others = new HashMap<>();
+            others.put(FIELD_DETECTORS, new Object());
+            final DecorView other = new DecorView();
+            mOtherWindows[i] = other;
+            mAdditionalFields.put(other, others);
+            mRegistry.put(other, others);
+        }
+        mRegistry.put(mHierarchy[0], mDetectors);
+    }
+
+    private Object getAdditionalInstanceField(Object obj, String key) {
+        HashMap<String, Object> objectFields;
+        synchronized (mAdditionalFields) {
+            objectFields = mAdditionalFields.get(obj);
+            if (objectFields == null) {
+                return null;
+            }
+        }
+        synchronized (objectFields) {
+            return objectFields.get(key);
+        }
+    }
+
+    @Benchmark
+    public int additionalField() {
+        int found = 0;
+        for (Object container : mHierarchy) {
+            if (getAdditionalInstanceField(container, FIELD_DETECTORS) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int rootClassFilter() {
+        int found = 0;
+        for (Object container : mHierarchy) {
+            // the root is hooked on its own method, nested ones enter ViewGroup's
+            final Method method = container == mHierarchy[0] ? mDecorViewMethod : mViewGroupMethod;
+            final Class<?> receiverClass = container.getClass();
+            if (method.getDeclaringClass() != receiverClass &&
+                    !mFilter.contains(method, receiverClass)) {
+                continue;
+            }
+            if (getAdditionalInstanceField(container, FIELD_DETECTORS) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int rootClassHook() {
+        return getAdditionalInstanceField(mHierarchy[0], FIELD_DETECTORS) != null ? 1 : 0;
+    }
+
+    @Benchmark
+    public int rootClassHookRegistry() {
+        return mRegistry.get(mHierarchy[0]) != null ? 1 : 0;
+    }
+}
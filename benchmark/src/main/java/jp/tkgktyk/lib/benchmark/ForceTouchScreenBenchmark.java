@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.tkgktyk.lib.core.ForceTouchScreenCore;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForceTouchScreenBenchmark extends DetectorState {
+    private ForceTouchScreenCore mHelper;
+
+    @Override
+    void setUpDetector() {
+        mHelper = new ForceTouchScreenCore(new ForceTouchScreenCore.Listener() {
+            @Override
+            public boolean onForceTouchBegin(float x, float y, float startX, float startY) {
+                return true;
+            }
+
+            @Override
+            public void onForceTouchDown(float x, float y, int count) {
+            }
+
+            @Override
+            public void onForceTouchUp(float x, float y, int count) {
+            }
+
+            @Override
+            public void onForceTouchEnd(float x, float y, int count) {
+            }
+
+            @Override
+            public void onForceTouchCancel(float x, float y, int count) {
+            }
+        }, NO_HOST);
+        mHelper.setWindowDelayInMillis(100);
+        mHelper.setWindowTimeInMillis(400);
+        mHelper.setMagnification(1.4f);
+        mHelper.setType(ForceTouchScreenCore.TYPE_WIGGLE);
+    }
+
+    @Benchmark
+    public boolean onTouchEvent() {
+        return mHelper.onTouchEvent(nextFrame());
+    }
+}
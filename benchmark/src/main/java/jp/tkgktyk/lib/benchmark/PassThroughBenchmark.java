@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import jp.tkgktyk.lib.core.WeakIdentityRegistry;
+
+/**
+ * Per-event cost of an event which no detector claims, after the root is found in the
+ * registry. The cost of the Xposed trampoline itself is not included.
+ * <ul>
+ * <li>replacement: the hook replaces the method and calls the original one through
+ * reflection with a new argument array, like XposedBridge#invokeOriginalMethod</li>
+ * <li>beforeHook: the hook returns without a result and the original method runs as
+ * an ordinary call</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PassThroughBenchmark {
+    // stand-in of DecorView, the original method does a little work like a real one
+    static class DecorView {
+        private int mDispatched;
+
+        public boolean dispatch(Object event) {
+            ++mDispatched;
+            return event != null;
+        }
+    }
+
+    private final WeakIdentityRegistry<Object> mRegistry = new WeakIdentityRegistry<>();
+    private final DecorView mRoot = new DecorView();
+    private final Object mEvent = new Object();
+    private final Object mDetectors = new Object();
+    private Method mOriginal;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        mOriginal = DecorView.class.getDeclaredMethod("dispatch", Object.class);
+        mOriginal.setAccessible(true);
+        mRegistry.put(mRoot, mDetectors);
+    }
+
+    private boolean intercept(Object detectors) {
+        // no detector claims the event
+        return detectors == null;
+    }
+
+    @Benchmark
+    public boolean replacement() throws InvocationTargetException, IllegalAccessException {
+        final Object[] args = {mEvent};
+        if (intercept(mRegistry.get(mRoot))) {
+            return true;
+        }
+        return (Boolean) mOriginal.invoke(mRoot, args);
+    }
+
+    @Benchmark
+    public boolean beforeHook() {
+        if (intercept(mRegistry.get(mRoot))) {
+            return true;
+        }
+        return mRoot.dispatch(mEvent);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Synthetic strokes for benchmarks. Every stroke puts all fingers down one by one, holds
+ * them still with a little jitter for half a second while the first finger presses harder,
+ * then releases them.
+ */
+public class TouchStreams {
+    private static final float BASE_PARAMETER = 0.2f;
+    private static final float PEAK_PARAMETER = 0.4f;
+    private static final int STROKE_IN_MILLIS = 500;
+    private static final int STROKE_GAP_IN_MILLIS = 300;
+
+    private TouchStreams() {
+    }
+
+    /**
+     * @param strokes number of strokes in the stream
+     * @return frames in order, event times are continuous across strokes
+     */
+    public static TouchFrame[] create(int fingers, int rateHz, int strokes) {
+        final List<TouchFrame> frames = new ArrayList<>();
+        final float interval = 1000.0f / rateHz;
+        final int moves = STROKE_IN_MILLIS * rateHz / 1000;
+        float time = 0.0f;
+        for (int stroke = 0; stroke < strokes; ++stroke) {
+            for (int count = 1; count <= fingers; ++count) {
+                frames.add(frame(count == 1 ? TouchFrame.ACTION_DOWN :
+                        TouchFrame.ACTION_POINTER_DOWN, count - 1, count, time, 0, 0.0f));
+                time += interval;
+            }
+            for (int move = 0; move < moves; ++move) {
+                // rise and fall once in the middle of the stroke
+                final float phase = (float) move / moves;
+                final float press = phase < 0.3f || phase > 0.7f ? 0.0f :
+                        1.0f - Math.abs(phase - 0.5f) / 0.2f;
+                frames.add(frame(TouchFrame.ACTION_MOVE, 0, fingers, time, move, press));
+                time += interval;
+            }
+            for (int count = fingers; count >= 1; --count) {
+                frames.add(frame(count == 1 ? TouchFrame.ACTION_UP :
+                        TouchFrame.ACTION_POINTER_UP, count - 1, count, time, moves, 0.0f));
+                time += interval;
+            }
+            time += STROKE_GAP_IN_MILLIS;
+        }
+        return frames.toArray(new TouchFrame[frames.size()]);
+    }
+
+    private static TouchFrame frame(int action, int actionIndex, int count, float time,
+                                    int move, float press) {
+        TouchFrame frame = new TouchFrame();
+        frame.begin(action, actionIndex, (long) time, count, null);
+        for (int index = 0; index < count; ++index) {
+            final float jitter = (move % 3) * 0.5f;
+            final float parameter = BASE_PARAMETER +
+                    (index == 0 ? (PEAK_PARAMETER - BASE_PARAMETER) * press : 0.0f);
+            frame.setPointer(index, index, TouchFrame.TOOL_TYPE_FINGER,
+                    200.0f + index * 150.0f + jitter, 800.0f + jitter, parameter);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Platform independent state machine of absolute touch, which is judged by the parameter
+ * of the first sample of each pointer.
+ */
+public class AbsoluteDetectorCore {
+    private class TouchState extends PointerStateTable.Slot {
+        float x;
+        float y;
+        boolean inTapRegion;
+        boolean window;
+
+        @Override
+        protected void reset() {
+            x = 0.0f;
+            y = 0.0f;
+            inTapRegion = true;
+            window = false;
+        }
+    }
+
+    private class LongPressTimer extends PointerTimer {
+        LongPressTimer(Scheduler scheduler) {
+            super(scheduler);
+        }
+
+        @Override
+        protected void onTimeout(int pointerId) {
+            TouchState state = mTouchStates.get(pointerId);
+            if (state == null) {
+                return;
+            }
+            state.window = false;
+            if (mLongClickable && mListener.onForceLongPress(state.x, state.y)) {
+                onHandled();
+            }
+        }
+    }
+
+    public static final int DEFAULT_LONG_PRESS_TIMEOUT = 500;
+
+    private final ForceTouchListener mListener;
+    private final EventHost mHost;
+
+    private int mLongPressTimeout = DEFAULT_LONG_PRESS_TIMEOUT;
+    private int mTouchSlopeSquare;
+    private int mExtraLongPressTimeout;
+    private boolean mLongClickable = true;
+    private boolean mAllowUnknownType;
+    private ThresholdCalibrator mCalibrator;
+
+    private final PointerStateTable<TouchState> mTouchStates = new PointerStateTable<>(
+            new PointerStateTable.Factory<TouchState>() {
+                @Override
+                public TouchState newSlot() {
+                    return new TouchState();
+                }
+            });
+    private final LongPressTimer mLongPressTimer;
+
+    private boolean mHandled;
+    private int mActivePointerId;
+
+    public AbsoluteDetectorCore(ForceTouchListener listener, EventHost host,
+                                Scheduler scheduler) {
+        mListener = listener;
+        mHost = host;
+        mLongPressTimer = new LongPressTimer(scheduler);
+    }
+
+    public void setLongPressTimeout(int longPressTimeout) {
+        mLongPressTimeout = longPressTimeout;
+    }
+
+    public void setTouchSlop(int touchSlop) {
+        mTouchSlopeSquare = touchSlop * touchSlop;
+    }
+
+    public void setExtraLongPressTimeout(int extraLongPressTimeout) {
+        mExtraLongPressTimeout = extraLongPressTimeout;
+    }
+
+    public void setLongClickable(boolean longClickable) {
+        mLongClickable = longClickable;
+    }
+
+    public void allowUnknownType(boolean allow) {
+        mAllowUnknownType = allow;
+    }
+
+    /**
+     * @param calibrator receives the parameter of every touch down, including absolute
+     *                   touches so the percentiles are not cut off at the threshold, null
+     *                   stops it
+     */
+    public void setCalibrator(ThresholdCalibrator calibrator) {
+        mCalibrator = calibrator;
+    }
+
+    private void cleanUp() {
+        mActivePointerId = TouchFrame.INVALID_POINTER_ID;
+        mHandled = false;
+        mHost.releaseCancelEvent();
+        mLongPressTimer.cancel();
+        mTouchStates.clear();
+    }
+
+    void sendLongPressMessage(TouchState state, long eventTime) {
+        mLongPressTimer.schedule(state.getPointerId(),
+                eventTime + mLongPressTimeout + mExtraLongPressTimeout);
+    }
+
+    void removeMessages(TouchState state) {
+        mLongPressTimer.cancel(state.getPointerId());
+    }
+
+    private void addTouch(TouchFrame frame) {
+        final int index = frame.getActionIndex();
+        final int toolType = frame.getToolType(index);
+        if (!(toolType == TouchFrame.TOOL_TYPE_FINGER ||
+                (mAllowUnknownType && toolType == TouchFrame.TOOL_TYPE_UNKNOWN))) {
+            return;
+        }
+        TouchState state = mTouchStates.add(frame.getPointerId(index));
+        if (state == null) {
+            return;
+        }
+        final float x = frame.getX(index);
+        final float y = frame.getY(index);
+        state.x = x;
+        state.y = y;
+        final float parameter = frame.getParameter(index);
+        if (mListener.onAbsoluteTouch(x, y, parameter)) {
+            onAbsoluteTouchStarted(state, frame.getEventTime());
+        }
+        if (mCalibrator != null) {
+            mCalibrator.add(parameter);
+        }
+    }
+
+    private void removeTouchAndPerformTap(int pointerId) {
+        if (mActivePointerId == pointerId) {
+            TouchState state = mTouchStates.get(pointerId);
+            if (!mHandled && state.inTapRegion) {
+                if (mListener.onForceTap(state.x, state.y)) {
+                    onHandled();
+                }
+            }
+            removeMessages(state);
+            mActivePointerId = TouchFrame.INVALID_POINTER_ID;
+        }
+        mTouchStates.remove(pointerId);
+    }
+
+    private void onHandled() {
+        mHost.sendCancelEvent();
+        mHandled = true;
+    }
+
+    private void onAbsoluteTouchStarted(TouchState state, long eventTime) {
+        mActivePointerId = state.getPointerId();
+        sendLongPressMessage(state, eventTime);
+        mHost.saveCancelEvent();
+    }
+
+    public boolean onTouchEvent(TouchFrame frame) {
+        switch (frame.getActionMasked()) {
+            case TouchFrame.ACTION_DOWN: {
+                cleanUp();
+                addTouch(frame);
+                break;
+            }
+            case TouchFrame.ACTION_MOVE: {
+                if (!mHandled) {
+                    int count = frame.getPointerCount();
+                    for (int index = 0; index < count; ++index) {
+                        TouchState state = mTouchStates.get(frame.getPointerId(index));
+                        if (state == null) {
+                            continue;
+                        }
+                        if (!state.inTapRegion) {
+                            continue;
+                        }
+                        final float x = frame.getX(index);
+                        final float y = frame.getY(index);
+                        final float dx = x - state.x;
+                        final float dy = y - state.y;
+                        if ((dx * dx + dy * dy) > mTouchSlopeSquare) {
+                            state.inTapRegion = false;
+                            removeMessages(state);
+                        }
+                    }
+                }
+                break;
+            }
+            case TouchFrame.ACTION_CANCEL:
+                cleanUp();
+                break;
+            case TouchFrame.ACTION_UP:
+                removeTouchAndPerformTap(frame.getPointerId(frame.getActionIndex()));
+                cleanUp();
+                break;
+            case TouchFrame.ACTION_POINTER_DOWN:
+                addTouch(frame);
+                break;
+            case TouchFrame.ACTION_POINTER_UP: {
+                final int pointerId = frame.getPointerId(frame.getActionIndex());
+                removeTouchAndPerformTap(pointerId);
+                break;
+            }
+        }
+        return mHandled;
+    }
+}
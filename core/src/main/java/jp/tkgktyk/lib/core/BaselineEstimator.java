@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Exponentially weighted moving average of a touch parameter for one finger.
+ * Each sample is folded in O(1) without allocation, so the baseline follows the contact
+ * as it settles instead of depending on a single sample.
+ */
+public class BaselineEstimator {
+    private float mBaseline;
+    private int mCount;
+
+    /**
+     * @param samples number of samples the average roughly spans, must be positive
+     * @return smoothing factor to pass to {@link #add(float, float)}
+     */
+    public static float getSmoothing(int samples) {
+        return 2.0f / (samples + 1);
+    }
+
+    public void reset() {
+        mBaseline = 0.0f;
+        mCount = 0;
+    }
+
+    /**
+     * @param smoothing weight of the new sample, from 0 to 1
+     */
+    public void add(float sample, float smoothing) {
+        if (mCount == 0) {
+            mBaseline = sample;
+        } else {
+            mBaseline += smoothing * (sample - mBaseline);
+        }
+        ++mCount;
+    }
+
+    public float getBaseline() {
+        return mBaseline;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+}
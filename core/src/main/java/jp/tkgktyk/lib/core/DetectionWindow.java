@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Detection window of a touch stroke.
+ * Open and close are deadlines on the event time base (MotionEvent#getEventTime), so the
+ * window only depends on the event stream and not on when messages are handled.
+ */
+public class DetectionWindow {
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private long mOpenTime = NEVER;
+    private long mCloseTime = NEVER;
+
+    /**
+     * @param downTime         event time of the touch down
+     * @param delayInMillis    time until the window is opened
+     * @param durationInMillis time while the window is opened, negative means no limit and
+     *                         zero means the window is never opened
+     */
+    public void start(long downTime, int delayInMillis, int durationInMillis) {
+        mOpenTime = downTime + Math.max(delayInMillis, 0);
+        if (durationInMillis > 0) {
+            mCloseTime = mOpenTime + durationInMillis;
+        } else if (durationInMillis < 0) {
+            mCloseTime = NEVER;
+        } else {
+            mCloseTime = mOpenTime;
+        }
+    }
+
+    public boolean isOpened(long eventTime) {
+        return eventTime >= mOpenTime && eventTime < mCloseTime;
+    }
+
+    /**
+     * Keep the state at the given time forever.
+     */
+    public void freeze(long eventTime) {
+        if (isOpened(eventTime)) {
+            mCloseTime = NEVER;
+        } else {
+            close();
+        }
+    }
+
+    public void close() {
+        mOpenTime = NEVER;
+        mCloseTime = NEVER;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Access to the real events behind touch frames, implemented by the platform adapter.
+ * The current event is the one whose frame is being passed to a detector.
+ */
+public interface EventHost {
+    /**
+     * Keep the current event to cancel the original receiver later.
+     */
+    void saveCancelEvent();
+
+    /**
+     * Send the saved event as ACTION_CANCEL to the original receiver and release it.
+     * Nothing happens if no event is saved.
+     */
+    void sendCancelEvent();
+
+    void releaseCancelEvent();
+
+    /**
+     * Record the current ACTION_MOVE to rewind it later.
+     */
+    void recordMotion();
+
+    /**
+     * Send the recorded events to the original receiver in order.
+     */
+    void rewindMotions();
+
+    void clearMotions();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Results of {@link AbsoluteDetectorCore} and {@link RelativeDetectorCore}.
+ * Return true to take over the stroke.
+ */
+public interface ForceTouchListener {
+    boolean onAbsoluteTouch(float x, float y, float parameter);
+
+    boolean onRelativeTouch(float x, float y, float startX, float startY);
+
+    boolean onForceTap(float x, float y);
+
+    boolean onForceLongPress(float x, float y);
+}
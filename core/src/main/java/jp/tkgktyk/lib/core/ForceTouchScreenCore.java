@@ -0,0 +1,360 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Platform independent state machine of force touch on the screen, which can be pressed
+ * several times during one stroke.
+ */
+public class ForceTouchScreenCore {
+    public interface Listener {
+        boolean onForceTouchBegin(float x, float y, float startX, float startY);
+
+        void onForceTouchDown(float x, float y, int count);
+
+        void onForceTouchUp(float x, float y, int count);
+
+        void onForceTouchEnd(float x, float y, int count);
+
+        void onForceTouchCancel(float x, float y, int count);
+    }
+
+    private class TouchState extends PointerStateTable.Slot {
+        private static final float INVALID_PARAMETER = -1.0f;
+
+        float threshold;
+        float hysteresis;
+        float startX;
+        float startY;
+        boolean forceTouch;
+        float base;
+        final DetectionWindow window = new DetectionWindow();
+        final SlopeTracker slope = new SlopeTracker();
+
+        @Override
+        protected void reset() {
+            threshold = INVALID_PARAMETER;
+            hysteresis = INVALID_PARAMETER;
+            startX = 0.0f;
+            startY = 0.0f;
+            forceTouch = false;
+            base = INVALID_PARAMETER;
+            window.close();
+            slope.reset();
+        }
+    }
+
+    private float mMagnification;
+    private int mWindowTimeInMillis;
+    private int mWindowDelayInMillis;
+    private boolean mRewind;
+    private boolean mProcessHistory;
+    private boolean mAllowUnknownType;
+    private boolean mCancelByMultiTouch;
+
+    public static final int TYPE_WIGGLE = 1;
+    public static final int TYPE_SCRATCH = 2;
+    /**
+     * Fire when the parameter keeps changing faster than {@link #setSlope(float, int)}.
+     */
+    public static final int TYPE_SLOPE = 3;
+    private int mType = TYPE_WIGGLE;
+
+    public static final float DEFAULT_SLOPE = 4.0f;
+    public static final int DEFAULT_SLOPE_DURATION_IN_MILLIS = 30;
+    private float mSlope = DEFAULT_SLOPE;
+    private int mSlopeDurationInMillis = DEFAULT_SLOPE_DURATION_IN_MILLIS;
+
+    private final Listener mListener;
+    private final EventHost mHost;
+
+    private final PointerStateTable<TouchState> mTouchStates = new PointerStateTable<>(
+            new PointerStateTable.Factory<TouchState>() {
+                @Override
+                public TouchState newSlot() {
+                    return new TouchState();
+                }
+            });
+
+    private boolean mCanceled;
+    private int mCount;
+    private int mActivePointerId;
+
+    public ForceTouchScreenCore(Listener listener, EventHost host) {
+        mListener = listener;
+        mHost = host;
+    }
+
+    public void setMagnification(float magnification) {
+        mMagnification = magnification;
+    }
+
+    public void setWindowDelayInMillis(int windowDelayInMillis) {
+        mWindowDelayInMillis = windowDelayInMillis;
+    }
+
+    public void setWindowTimeInMillis(int windowTimeInMillis) {
+        mWindowTimeInMillis = windowTimeInMillis;
+    }
+
+    /**
+     * Send recorded movements to the original receiver when a force touch begins.
+     * The host must be able to record motions.
+     */
+    public void setRewind(boolean rewind) {
+        mRewind = rewind;
+    }
+
+    /**
+     * Evaluate every batched sample of ACTION_MOVE in order instead of only one,
+     * so a force touch is fired at the first sample that crosses the threshold.
+     */
+    public void setProcessHistory(boolean processHistory) {
+        mProcessHistory = processHistory;
+    }
+
+    public void allowUnknownType(boolean allow) {
+        mAllowUnknownType = allow;
+    }
+
+    public void setType(int type) {
+        mType = type;
+    }
+
+    /**
+     * For {@link #TYPE_SLOPE}. The magnification is still used to detect reset.
+     *
+     * @param slope            change of the parameter per second relative to the base,
+     *                         negative value detects falling like {@link #TYPE_SCRATCH}
+     * @param durationInMillis how long the slope must be kept
+     */
+    public void setSlope(float slope, int durationInMillis) {
+        mSlope = slope;
+        mSlopeDurationInMillis = durationInMillis;
+    }
+
+    public void setCancelByMultiTouch(boolean cancel) {
+        mCancelByMultiTouch = cancel;
+    }
+
+    private void cleanUp() {
+        mActivePointerId = TouchFrame.INVALID_POINTER_ID;
+        mCount = 0;
+        mCanceled = true;
+        mHost.releaseCancelEvent();
+        mTouchStates.clear();
+        mHost.clearMotions();
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    private void addTouch(TouchFrame frame) {
+        final int index = frame.getActionIndex();
+        final int toolType = frame.getToolType(index);
+        if (!(toolType == TouchFrame.TOOL_TYPE_FINGER ||
+                (mAllowUnknownType && toolType == TouchFrame.TOOL_TYPE_UNKNOWN))) {
+            return;
+        }
+        TouchState state = mTouchStates.add(frame.getPointerId(index));
+        if (state == null) {
+            return;
+        }
+        state.startX = frame.getX(index);
+        state.startY = frame.getY(index);
+        final float parameter = frame.getParameter(index);
+        final long eventTime = frame.getEventTime();
+        state.window.start(eventTime, mWindowDelayInMillis, mWindowTimeInMillis);
+        if (state.window.isOpened(eventTime)) {
+            setParameter(state, parameter);
+            trackSlope(state, parameter, eventTime);
+        }
+    }
+
+    protected void setParameter(TouchState state, float parameter) {
+        state.base = parameter;
+        state.threshold = parameter * mMagnification;
+        state.hysteresis = parameter * (1.0f + (mMagnification - 1.0f) / 2.0f);
+    }
+
+    protected boolean isReset(TouchState state, float parameter) {
+        switch (mType) {
+            case TYPE_WIGGLE:
+                return parameter < state.hysteresis;
+            case TYPE_SCRATCH:
+                return parameter > state.hysteresis;
+            case TYPE_SLOPE:
+                return mSlope > 0.0f ?
+                        parameter < state.hysteresis : parameter > state.hysteresis;
+        }
+        return false;
+    }
+
+    /**
+     * {@link #trackSlope(TouchState, float, long)} must be called with the sample before.
+     */
+    protected boolean isForceTouch(TouchState state, float parameter) {
+        switch (mType) {
+            case TYPE_WIGGLE:
+                return parameter > state.threshold;
+            case TYPE_SCRATCH:
+                return parameter < state.threshold;
+            case TYPE_SLOPE:
+                return state.slope.isSustained(mSlopeDurationInMillis);
+        }
+        return false;
+    }
+
+    private void trackSlope(TouchState state, float parameter, long eventTime) {
+        if (mType == TYPE_SLOPE) {
+            state.slope.add(parameter, eventTime, state.base, mSlope);
+        }
+    }
+
+    private void removeTouchAndPerformTap(int pointerId, float x, float y) {
+        if (mActivePointerId == pointerId) {
+            mListener.onForceTouchEnd(x, y, mCount);
+            mActivePointerId = TouchFrame.INVALID_POINTER_ID;
+        }
+        mTouchStates.remove(pointerId);
+    }
+
+    private void onForceTouchStarted(TouchState state) {
+        mActivePointerId = state.getPointerId();
+        mHost.saveCancelEvent();
+        if (mRewind) {
+            // rewind movements
+            mHost.rewindMotions();
+            mHost.clearMotions();
+        }
+        mHost.sendCancelEvent();
+    }
+
+    private void onMove(TouchState state,
+                        float x, float y, float parameter, long eventTime) {
+        trackSlope(state, parameter, eventTime);
+        if (state.threshold == TouchState.INVALID_PARAMETER) {
+            setParameter(state, parameter);
+        } else if (state.forceTouch) {
+            if (isReset(state, parameter)) {
+                state.forceTouch = false;
+                mHost.clearMotions();
+                mListener.onForceTouchUp(x, y, mCount);
+            }
+        } else if (isForceTouch(state, parameter)) {
+            // keep the window opened to detect reset and next force touch
+            state.window.freeze(eventTime);
+            state.forceTouch = true;
+            ++mCount;
+            if (mCount == 1) {
+                onForceTouchStarted(state);
+                if (!mListener.onForceTouchBegin(x, y, state.startX, state.startY)) {
+                    mCount = 0;
+                }
+            } else {
+                mListener.onForceTouchDown(x, y, mCount);
+            }
+        }
+    }
+
+    /**
+     * @return true while force touch continues
+     */
+    public boolean onTouchEvent(TouchFrame frame) {
+        final int action = frame.getActionMasked();
+        if (mCanceled && action != TouchFrame.ACTION_DOWN) {
+            return false;
+        }
+        switch (action) {
+            case TouchFrame.ACTION_DOWN: {
+                cleanUp();
+                mCanceled = false;
+                addTouch(frame);
+                break;
+            }
+            case TouchFrame.ACTION_MOVE: {
+                if (mRewind && mCount == 0) {
+                    mHost.recordMotion();
+                }
+                int count = frame.getPointerCount();
+                for (int index = 0; index < count; ++index) {
+                    TouchState state = mTouchStates.get(frame.getPointerId(index));
+                    if (state == null) {
+                        continue;
+                    }
+                    if (mProcessHistory) {
+                        // walk the batched samples in order, the last one is the current
+                        final int historySize = frame.getHistorySize();
+                        for (int pos = 0; pos <= historySize; ++pos) {
+                            final long eventTime = frame.getHistoricalEventTime(pos);
+                            if (state.window.isOpened(eventTime)) {
+                                onMove(state,
+                                        frame.getHistoricalX(index, pos),
+                                        frame.getHistoricalY(index, pos),
+                                        frame.getHistoricalParameter(index, pos),
+                                        eventTime);
+                            }
+                        }
+                    } else {
+                        final long eventTime = frame.getEventTime();
+                        if (state.window.isOpened(eventTime)) {
+                            onMove(state, frame.getX(index), frame.getY(index),
+                                    frame.getParameter(index), eventTime);
+                        }
+                    }
+                }
+                break;
+            }
+            case TouchFrame.ACTION_CANCEL: {
+                cleanUp();
+                final int index = frame.getActionIndex();
+                final float x = frame.getX(index);
+                final float y = frame.getY(index);
+                mListener.onForceTouchCancel(x, y, mCount);
+                break;
+            }
+            case TouchFrame.ACTION_UP: {
+                final int index = frame.getActionIndex();
+                final float x = frame.getX(index);
+                final float y = frame.getY(index);
+                removeTouchAndPerformTap(frame.getPointerId(index), x, y);
+                cleanUp();
+                break;
+            }
+            case TouchFrame.ACTION_POINTER_DOWN:
+                if (mCancelByMultiTouch) {
+                    cleanUp();
+                    final int index = frame.getActionIndex();
+                    final float x = frame.getX(index);
+                    final float y = frame.getY(index);
+                    mListener.onForceTouchCancel(x, y, mCount);
+                } else if (mActivePointerId == TouchFrame.INVALID_POINTER_ID) {
+                    addTouch(frame);
+                }
+                break;
+            case TouchFrame.ACTION_POINTER_UP: {
+                final int index = frame.getActionIndex();
+                final float x = frame.getX(index);
+                final float y = frame.getY(index);
+                removeTouchAndPerformTap(frame.getPointerId(index), x, y);
+                break;
+            }
+        }
+        return mCount != 0;
+    }
+}
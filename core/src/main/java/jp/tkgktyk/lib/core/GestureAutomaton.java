@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Interpreter of a {@link GestureTable} for the first finger of a stroke.
+ * All gestures of the table run side by side, each sample advances every running gesture by
+ * its first matching transition. The parameter is normalized by the one at ACTION_DOWN and
+ * the slope is computed once per sample, so a sample costs O(gestures) and doesn't allocate.
+ * A second finger fails all gestures.
+ * <p>
+ * When a gesture is accepted and the listener takes it, the original receiver gets
+ * ACTION_CANCEL and the rest of the stroke is consumed.
+ */
+public class GestureAutomaton {
+    public interface Listener {
+        /**
+         * @return true to take over the stroke, other gestures stop
+         */
+        boolean onGesture(int gesture, float x, float y);
+    }
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final Listener mListener;
+    private final EventHost mHost;
+    private final Scheduler mScheduler;
+    private GestureTable mTable;
+
+    private int[] mStates;
+    private long[] mEnteredTimes;
+    private int mRunning;
+
+    private int mPointerId = TouchFrame.INVALID_POINTER_ID;
+    private float mBase;
+    private float mLastRatio;
+    private long mLastTime;
+    private float mX;
+    private float mY;
+    private boolean mHandled;
+
+    private long mScheduledTime = NO_DEADLINE;
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            final long now = mScheduledTime;
+            mScheduledTime = NO_DEADLINE;
+            step(now, 0.0f, 0.0f, false, true, false);
+            updateTimer();
+        }
+    };
+
+    public GestureAutomaton(GestureTable table, Listener listener, EventHost host,
+                            Scheduler scheduler) {
+        mListener = listener;
+        mHost = host;
+        mScheduler = scheduler;
+        setTable(table);
+    }
+
+    /**
+     * The current stroke is abandoned.
+     */
+    public void setTable(GestureTable table) {
+        finish();
+        mTable = table;
+        mStates = new int[table.getGestureCount()];
+        mEnteredTimes = new long[table.getGestureCount()];
+        failAll();
+    }
+
+    public GestureTable getTable() {
+        return mTable;
+    }
+
+    public boolean onTouchEvent(TouchFrame frame) {
+        switch (frame.getActionMasked()) {
+            case TouchFrame.ACTION_DOWN:
+                start(frame);
+                break;
+            case TouchFrame.ACTION_MOVE:
+                move(frame);
+                break;
+            case TouchFrame.ACTION_POINTER_DOWN:
+                if (!mHandled) {
+                    failAll();
+                }
+                break;
+            case TouchFrame.ACTION_UP: {
+                final int index = findPointerIndex(frame);
+                if (index != -1 && mRunning > 0) {
+                    mX = frame.getX(index);
+                    mY = frame.getY(index);
+                    step(frame.getEventTime(), 0.0f, 0.0f, false, false, true);
+                }
+                final boolean handled = mHandled;
+                finish();
+                return handled;
+            }
+            case TouchFrame.ACTION_CANCEL: {
+                final boolean handled = mHandled;
+                finish();
+                return handled;
+            }
+        }
+        return mHandled;
+    }
+
+    private void start(TouchFrame frame) {
+        finish();
+        final int count = mStates.length;
+        final float base = frame.getParameter(0);
+        if (count == 0 || !(base > 0.0f) || !frame.isInDetectionArea(0)) {
+            return;
+        }
+        final long eventTime = frame.getEventTime();
+        for (int g = 0; g < count; ++g) {
+            mStates[g] = mTable.mStartStates[g];
+            mEnteredTimes[g] = eventTime;
+        }
+        mRunning = count;
+        mPointerId = frame.getPointerId(0);
+        mBase = base;
+        mLastRatio = 1.0f;
+        mLastTime = eventTime;
+        mX = frame.getX(0);
+        mY = frame.getY(0);
+        mHost.saveCancelEvent();
+        updateTimer();
+    }
+
+    private void move(TouchFrame frame) {
+        if (mRunning == 0) {
+            return;
+        }
+        final int index = findPointerIndex(frame);
+        if (index == -1) {
+            return;
+        }
+        final int historySize = frame.getHistorySize();
+        for (int pos = 0; pos <= historySize && mRunning > 0; ++pos) {
+            final long eventTime = frame.getHistoricalEventTime(pos);
+            final float ratio = frame.getHistoricalParameter(index, pos) / mBase;
+            final long dt = eventTime - mLastTime;
+            final boolean hasSlope = dt > 0;
+            final float slope = hasSlope ? (ratio - mLastRatio) * 1000.0f / dt : 0.0f;
+            if (hasSlope) {
+                mLastRatio = ratio;
+                mLastTime = eventTime;
+            }
+            mX = frame.getHistoricalX(index, pos);
+            mY = frame.getHistoricalY(index, pos);
+            step(eventTime, ratio, slope, hasSlope, false, false);
+        }
+        updateTimer();
+    }
+
+    private int findPointerIndex(TouchFrame frame) {
+        if (mPointerId == TouchFrame.INVALID_POINTER_ID) {
+            return -1;
+        }
+        final int count = frame.getPointerCount();
+        for (int i = 0; i < count; ++i) {
+            if (frame.getPointerId(i) == mPointerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param timeoutOnly only timeouts are checked, for the timer
+     * @param up          the finger is released, value predicates are skipped because
+     *                    the parameter of ACTION_UP is not reliable
+     */
+    private void step(long eventTime, float ratio, float slope, boolean hasSlope,
+                      boolean timeoutOnly, boolean up) {
+        final GestureTable table = mTable;
+        final int[] first = table.mFirst;
+        final int[] kinds = table.mKinds;
+        final float[] args = table.mArgs;
+        final int[] targets = table.mTargets;
+        final int count = mStates.length;
+        for (int g = 0; g < count && mRunning > 0; ++g) {
+            final int state = mStates[g];
+            if (state < 0) {
+                continue;
+            }
+            final int timeout = table.mTimeouts[state];
+            if (timeout != GestureTable.NO_TIMEOUT && eventTime - mEnteredTimes[g] >= timeout) {
+                enter(g, table.mTimeoutTargets[state], eventTime);
+                continue;
+            }
+            if (timeoutOnly && !up) {
+                continue;
+            }
+            final int end = first[state + 1];
+            for (int t = first[state]; t < end; ++t) {
+                final boolean matched;
+                switch (kinds[t]) {
+                    case GestureTable.KIND_ABOVE:
+                        matched = !up && ratio > args[t];
+                        break;
+                    case GestureTable.KIND_BELOW:
+                        matched = !up && ratio < args[t];
+                        break;
+                    case GestureTable.KIND_RISE:
+                        matched = !up && hasSlope && slope >= args[t];
+                        break;
+                    case GestureTable.KIND_FALL:
+                        matched = !up && hasSlope && slope <= -args[t];
+                        break;
+                    case GestureTable.KIND_UP:
+                        matched = up;
+                        break;
+                    default:
+                        matched = false;
+                        break;
+                }
+                if (matched) {
+                    enter(g, targets[t], eventTime);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void enter(int gesture, int state, long eventTime) {
+        mStates[gesture] = state;
+        mEnteredTimes[gesture] = eventTime;
+        if (state >= 0) {
+            return;
+        }
+        --mRunning;
+        if (state == GestureTable.STATE_ACCEPT && mListener.onGesture(gesture, mX, mY)) {
+            mHandled = true;
+            mHost.sendCancelEvent();
+            failAll();
+        }
+    }
+
+    private void failAll() {
+        for (int g = 0; g < mStates.length; ++g) {
+            mStates[g] = GestureTable.STATE_FAIL;
+        }
+        mRunning = 0;
+        updateTimer();
+    }
+
+    private void updateTimer() {
+        long deadline = NO_DEADLINE;
+        if (mRunning > 0) {
+            final int[] timeouts = mTable.mTimeouts;
+            for (int g = 0; g < mStates.length; ++g) {
+                final int state = mStates[g];
+                if (state >= 0 && timeouts[state] != GestureTable.NO_TIMEOUT) {
+                    deadline = Math.min(deadline, mEnteredTimes[g] + timeouts[state]);
+                }
+            }
+        }
+        if (deadline == mScheduledTime) {
+            return;
+        }
+        mScheduler.cancel(mTimeout);
+        mScheduledTime = deadline;
+        if (deadline != NO_DEADLINE) {
+            mScheduler.scheduleAt(mTimeout, deadline);
+        }
+    }
+
+    private void finish() {
+        if (mStates != null) {
+            failAll();
+        }
+        mPointerId = TouchFrame.INVALID_POINTER_ID;
+        mHandled = false;
+        mHost.releaseCancelEvent();
+    }
+}
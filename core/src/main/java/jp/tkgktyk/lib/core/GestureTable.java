@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * User-defined pressure gestures compiled into flat transition tables.
+ * <p>
+ * A spec is line based, '#' starts a comment:
+ * <pre>
+ * gesture double_squeeze action BACK
+ * idle above 1.5 -> pressed
+ * pressed below 1.2 -> released
+ * pressed timeout 800 -> fail
+ * released above 1.5 -> accept
+ * released timeout 400 -> fail
+ * </pre>
+ * "gesture" starts a gesture with an optional action name. The state of its first transition
+ * is the start state. A transition is "&lt;state&gt; &lt;predicate&gt; -&gt; &lt;state&gt;" and
+ * the first matching one of a state is taken. Predicates are
+ * <ul>
+ * <li>above / below R: the parameter is over / under R times the one at ACTION_DOWN</li>
+ * <li>rise / fall S: the parameter changes faster than S times the one at ACTION_DOWN per
+ * second</li>
+ * <li>up: the finger is released</li>
+ * <li>timeout MS: MS milliseconds passed since the state is entered, at most one per
+ * state</li>
+ * </ul>
+ * "accept" and "fail" are reserved states which end the gesture.
+ */
+public class GestureTable {
+    public static final int KIND_ABOVE = 0;
+    public static final int KIND_BELOW = 1;
+    public static final int KIND_RISE = 2;
+    public static final int KIND_FALL = 3;
+    public static final int KIND_UP = 4;
+
+    public static final int STATE_ACCEPT = -1;
+    public static final int STATE_FAIL = -2;
+    public static final int NO_TIMEOUT = -1;
+
+    private static final String ACCEPT = "accept";
+    private static final String FAIL = "fail";
+    private static final String[] KIND_NAMES = {"above", "below", "rise", "fall", "up"};
+
+    // per gesture
+    final String[] mNames;
+    final String[] mActions;
+    final int[] mStartStates;
+    // per state, transitions of a state are [mFirst[s], mFirst[s + 1])
+    final int[] mFirst;
+    final int[] mTimeouts;
+    final int[] mTimeoutTargets;
+    // per transition
+    final int[] mKinds;
+    final float[] mArgs;
+    final int[] mTargets;
+
+    private GestureTable(Builder builder) {
+        final int gestureCount = builder.mNames.size();
+        mNames = builder.mNames.toArray(new String[gestureCount]);
+        mActions = builder.mActions.toArray(new String[gestureCount]);
+        mStartStates = toIntArray(builder.mStartStates);
+
+        final int stateCount = builder.mStateTransitions.size();
+        mFirst = new int[stateCount + 1];
+        mTimeouts = toIntArray(builder.mTimeouts);
+        mTimeoutTargets = toIntArray(builder.mTimeoutTargets);
+        int transitionCount = 0;
+        for (ArrayList<int[]> transitions : builder.mStateTransitions) {
+            transitionCount += transitions.size();
+        }
+        mKinds = new int[transitionCount];
+        mArgs = new float[transitionCount];
+        mTargets = new int[transitionCount];
+        int t = 0;
+        for (int s = 0; s < stateCount; ++s) {
+            mFirst[s] = t;
+            for (int[] transition : builder.mStateTransitions.get(s)) {
+                mKinds[t] = transition[0];
+                mArgs[t] = Float.intBitsToFloat(transition[1]);
+                mTargets[t] = transition[2];
+                ++t;
+            }
+        }
+        mFirst[stateCount] = t;
+    }
+
+    private static int[] toIntArray(ArrayList<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    public int getGestureCount() {
+        return mNames.length;
+    }
+
+    public String getName(int gesture) {
+        return mNames[gesture];
+    }
+
+    /**
+     * @return null if the gesture has no action
+     */
+    public String getAction(int gesture) {
+        return mActions[gesture];
+    }
+
+    public int getStateCount() {
+        return mTimeouts.length;
+    }
+
+    /**
+     * @throws IllegalArgumentException with the line number if the spec is malformed
+     */
+    public static GestureTable compile(String spec) {
+        final Builder builder = new Builder();
+        final String[] lines = spec.split("\n");
+        for (int i = 0; i < lines.length; ++i) {
+            try {
+                builder.parseLine(lines[i]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        builder.checkGesture();
+        return new GestureTable(builder);
+    }
+
+    private static class Builder {
+        final ArrayList<String> mNames = new ArrayList<>();
+        final ArrayList<String> mActions = new ArrayList<>();
+        final ArrayList<Integer> mStartStates = new ArrayList<>();
+        final ArrayList<ArrayList<int[]>> mStateTransitions = new ArrayList<>();
+        final ArrayList<Integer> mTimeouts = new ArrayList<>();
+        final ArrayList<Integer> mTimeoutTargets = new ArrayList<>();
+        // state names of the current gesture
+        final HashMap<String, Integer> mStates = new HashMap<>();
+        // states of the current gesture which are only referred as targets so far
+        final ArrayList<String> mPending = new ArrayList<>();
+
+        void parseLine(String line) {
+            final int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                return;
+            }
+            final String[] tokens = line.split("\\s+");
+            if (tokens[0].equals("gesture")) {
+                parseGesture(tokens);
+            } else {
+                parseTransition(tokens);
+            }
+        }
+
+        void parseGesture(String[] tokens) {
+            if (tokens.length != 2 && !(tokens.length == 4 && tokens[2].equals("action"))) {
+                throw new IllegalArgumentException("expected: gesture <name> [action <name>]");
+            }
+            checkGesture();
+            mNames.add(tokens[1]);
+            mActions.add(tokens.length == 4 ? tokens[3] : null);
+            mStartStates.add(STATE_FAIL);
+            mStates.clear();
+            mPending.clear();
+        }
+
+        void parseTransition(String[] tokens) {
+            if (mNames.isEmpty()) {
+                throw new IllegalArgumentException("transition before gesture");
+            }
+            final int arrow = tokens.length - 2;
+            if (tokens.length < 4 || !tokens[arrow].equals("->")) {
+                throw new IllegalArgumentException("expected: <state> <predicate> -> <state>");
+            }
+            final String from = tokens[0];
+            if (from.equals(ACCEPT) || from.equals(FAIL)) {
+                throw new IllegalArgumentException("no transition from " + from);
+            }
+            final boolean first = mStates.isEmpty();
+            final int source = getState(from);
+            mPending.remove(from);
+            if (first) {
+                mStartStates.set(mStartStates.size() - 1, source);
+            }
+            final int target = getTarget(tokens[tokens.length - 1]);
+
+            final String predicate = tokens[1];
+            if (predicate.equals("timeout")) {
+                final int timeout = parseInt(tokens, arrow);
+                if (mTimeouts.get(source) != NO_TIMEOUT) {
+                    throw new IllegalArgumentException("second timeout of " + from);
+                }
+                mTimeouts.set(source, timeout);
+                mTimeoutTargets.set(source, target);
+                return;
+            }
+            int kind = -1;
+            for (int i = 0; i < KIND_NAMES.length; ++i) {
+                if (KIND_NAMES[i].equals(predicate)) {
+                    kind = i;
+                    break;
+                }
+            }
+            if (kind == -1) {
+                throw new IllegalArgumentException("unknown predicate: " + predicate);
+            }
+            float arg = 0.0f;
+            if (kind == KIND_UP) {
+                if (arrow != 2) {
+                    throw new IllegalArgumentException("up takes no argument");
+                }
+            } else {
+                arg = parseFloat(tokens, arrow);
+            }
+            mStateTransitions.get(source).add(
+                    new int[]{kind, Float.floatToIntBits(arg), target});
+        }
+
+        int getState(String name) {
+            Integer state = mStates.get(name);
+            if (state == null) {
+                state = mTimeouts.size();
+                mStates.put(name, state);
+                mStateTransitions.add(new ArrayList<int[]>());
+                mTimeouts.add(NO_TIMEOUT);
+                mTimeoutTargets.add(STATE_FAIL);
+            }
+            return state;
+        }
+
+        int getTarget(String name) {
+            if (name.equals(ACCEPT)) {
+                return STATE_ACCEPT;
+            }
+            if (name.equals(FAIL)) {
+                return STATE_FAIL;
+            }
+            if (!mStates.containsKey(name)) {
+                mPending.add(name);
+            }
+            return getState(name);
+        }
+
+        static int parseInt(String[] tokens, int arrow) {
+            if (arrow != 3) {
+                throw new IllegalArgumentException(tokens[1] + " takes one argument");
+            }
+            try {
+                final int value = Integer.parseInt(tokens[2]);
+                if (value < 0) {
+                    throw new IllegalArgumentException("negative " + tokens[1]);
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not an integer: " + tokens[2]);
+            }
+        }
+
+        static float parseFloat(String[] tokens, int arrow) {
+            if (arrow != 3) {
+                throw new IllegalArgumentException(tokens[1] + " takes one argument");
+            }
+            try {
+                final float value = Float.parseFloat(tokens[2]);
+                if (!(value >= 0.0f) || Float.isInfinite(value)) {
+                    throw new IllegalArgumentException("invalid " + tokens[1] + ": " + tokens[2]);
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + tokens[2]);
+            }
+        }
+
+        void checkGesture() {
+            if (mNames.isEmpty()) {
+                return;
+            }
+            final String name = mNames.get(mNames.size() - 1);
+            if (mStates.isEmpty()) {
+                throw new IllegalArgumentException("gesture " + name + " has no transition");
+            }
+            if (!mPending.isEmpty()) {
+                throw new IllegalArgumentException("state " + mPending.get(0) + " of gesture "
+                        + name + " has no transition");
+            }
+        }
+    }
+}
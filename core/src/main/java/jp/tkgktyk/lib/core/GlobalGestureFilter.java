@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Relative touch detection over the global input stream in front of all windows.
+ * Events pass through as they come, nothing is held or rewound. Only when a gesture fires
+ * the windows receive ACTION_CANCEL and the rest of the stroke is dropped.
+ * Platform events are opaque to the filter, so it runs against any {@link InputSource}.
+ * Entry points are synchronized because the input thread and the scheduler may differ.
+ *
+ * @param <E> event type of the input source
+ */
+public class GlobalGestureFilter<E> implements EventHost {
+    public interface InputSource<E> {
+        /**
+         * @return a copy which stays valid after the input source recycles the event
+         */
+        E retain(E event);
+
+        void release(E event);
+
+        /**
+         * Dispatch the event as ACTION_CANCEL to the windows behind the filter.
+         */
+        void sendCancel(E event);
+    }
+
+    private final InputSource<E> mSource;
+    private final RelativeDetectorCore mCore;
+    private E mCurrentEvent;
+    private E mCancelEvent;
+    private boolean mTakenOver;
+
+    /**
+     * @param scheduler tasks must run with the lock of this filter, see
+     *                  {@link #runLocked(Runnable)}
+     */
+    public GlobalGestureFilter(ForceTouchListener listener, InputSource<E> source,
+                               Scheduler scheduler) {
+        mSource = source;
+        mCore = new RelativeDetectorCore(listener, this, scheduler);
+        mCore.setRewind(false);
+    }
+
+    /**
+     * For settings. Rewind is always disabled because events are never held.
+     */
+    public RelativeDetectorCore getCore() {
+        return mCore;
+    }
+
+    /**
+     * @return true to pass the event to windows, false to drop it
+     */
+    public synchronized boolean filter(E event, TouchFrame frame) {
+        if (frame.getActionMasked() == TouchFrame.ACTION_DOWN) {
+            mTakenOver = false;
+        }
+        if (mTakenOver) {
+            // windows are already canceled
+            return false;
+        }
+        mCurrentEvent = event;
+        try {
+            mCore.onTouchEvent(frame);
+        } finally {
+            mCurrentEvent = null;
+        }
+        return !mTakenOver;
+    }
+
+    /**
+     * Run a scheduled task of the detector exclusively with {@link #filter}.
+     */
+    public synchronized void runLocked(Runnable task) {
+        task.run();
+    }
+
+    /**
+     * @return true if the current stroke is taken over by a gesture
+     */
+    public synchronized boolean isTakenOver() {
+        return mTakenOver;
+    }
+
+    @Override
+    public void saveCancelEvent() {
+        releaseCancelEvent();
+        if (mCurrentEvent != null) {
+            mCancelEvent = mSource.retain(mCurrentEvent);
+        }
+    }
+
+    @Override
+    public void sendCancelEvent() {
+        mTakenOver = true;
+        if (mCancelEvent == null && mCurrentEvent != null) {
+            // fired without a relative touch, cancel at the current position
+            mCancelEvent = mSource.retain(mCurrentEvent);
+        }
+        if (mCancelEvent != null) {
+            mSource.sendCancel(mCancelEvent);
+            releaseCancelEvent();
+        }
+    }
+
+    @Override
+    public void releaseCancelEvent() {
+        if (mCancelEvent != null) {
+            mSource.release(mCancelEvent);
+            mCancelEvent = null;
+        }
+    }
+
+    @Override
+    public void recordMotion() {
+        // events are passed at once, nothing to rewind
+    }
+
+    @Override
+    public void rewindMotions() {
+    }
+
+    @Override
+    public void clearMotions() {
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import java.util.Arrays;
+
+/**
+ * Counts of non-negative values in log-linear buckets, like HdrHistogram with a fixed
+ * precision. Each power of two is split into {@link #SUB_BUCKETS} linear buckets, so
+ * quantiles are within 1/8 of the value for any magnitude. Recording is a few integer
+ * operations on a primitive array and never allocates.
+ */
+public class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Values up to Long.MAX_VALUE.
+     */
+    public static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] mCounts;
+    private long mTotal;
+
+    public LogLinearHistogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    /**
+     * @param counts bucket counts from {@link #getCounts()}
+     */
+    public LogLinearHistogram(long[] counts) {
+        if (counts.length != BUCKET_COUNT) {
+            throw new IllegalArgumentException("bucket count: " + counts.length);
+        }
+        mCounts = counts.clone();
+        for (long count : counts) {
+            mTotal += count;
+        }
+    }
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long getBucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        final long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        ++mCounts[getBucket(value)];
+        ++mTotal;
+    }
+
+    public long getTotalCount() {
+        return mTotal;
+    }
+
+    /**
+     * @param quantile 0 to 1
+     * @return upper bound of the bucket which has the quantile, 0 if nothing is recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (mTotal == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * mTotal));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return getBucketMax(i);
+            }
+        }
+        return getBucketMax(BUCKET_COUNT - 1);
+    }
+
+    public void add(LogLinearHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mTotal += other.mTotal;
+    }
+
+    public long[] getCounts() {
+        return mCounts.clone();
+    }
+
+    public void clear() {
+        Arrays.fill(mCounts, 0);
+        mTotal = 0;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Scheduler driven by the caller instead of a looper, for replaying events off-device.
+ * Time only moves by {@link #advanceTo(long)}, which runs due tasks in time order.
+ */
+public class ManualScheduler implements Scheduler, Clock {
+    private Runnable[] mTasks = new Runnable[4];
+    private long[] mTimes = new long[4];
+    private int mSize;
+    private long mNow;
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    @Override
+    public void scheduleAt(Runnable task, long uptimeMillis) {
+        if (mSize == mTasks.length) {
+            Runnable[] tasks = new Runnable[mSize * 2];
+            long[] times = new long[mSize * 2];
+            System.arraycopy(mTasks, 0, tasks, 0, mSize);
+            System.arraycopy(mTimes, 0, times, 0, mSize);
+            mTasks = tasks;
+            mTimes = times;
+        }
+        mTasks[mSize] = task;
+        mTimes[mSize] = uptimeMillis;
+        ++mSize;
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        int j = 0;
+        for (int i = 0; i < mSize; ++i) {
+            if (mTasks[i] != task) {
+                mTasks[j] = mTasks[i];
+                mTimes[j] = mTimes[i];
+                ++j;
+            }
+        }
+        for (int i = j; i < mSize; ++i) {
+            mTasks[i] = null;
+        }
+        mSize = j;
+    }
+
+    /**
+     * Run every task due until the time, including ones scheduled by running tasks.
+     * Time never goes back.
+     */
+    public void advanceTo(long uptimeMillis) {
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < mSize; ++i) {
+                if (mTimes[i] <= uptimeMillis && (next == -1 || mTimes[i] < mTimes[next])) {
+                    next = i;
+                }
+            }
+            if (next == -1) {
+                break;
+            }
+            final Runnable task = mTasks[next];
+            mNow = Math.max(mNow, mTimes[next]);
+            --mSize;
+            mTasks[next] = mTasks[mSize];
+            mTimes[next] = mTimes[mSize];
+            mTasks[mSize] = null;
+            task.run();
+        }
+        mNow = Math.max(mNow, uptimeMillis);
+    }
+
+    public int getPendingCount() {
+        return mSize;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mSize; ++i) {
+            mTasks[i] = null;
+        }
+        mSize = 0;
+    }
+}
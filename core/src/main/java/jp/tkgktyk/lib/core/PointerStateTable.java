@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Per-pointer state table indexed by pointer id.
+ * A slot is created on the first use of its pointer id and reused by every following stroke,
+ * so the touch path doesn't allocate after warm-up.
+ */
+public class PointerStateTable<S extends PointerStateTable.Slot> {
+    /**
+     * MotionEvent guarantees pointer ids in [0, 31].
+     */
+    public static final int MAX_POINTER_ID = 31;
+
+    public static abstract class Slot {
+        int mPointerId = TouchFrame.INVALID_POINTER_ID;
+
+        public int getPointerId() {
+            return mPointerId;
+        }
+
+        /**
+         * Restore initial values. Called every time the slot is taken for a new pointer.
+         */
+        protected abstract void reset();
+    }
+
+    public interface Factory<S> {
+        S newSlot();
+    }
+
+    private final Factory<S> mFactory;
+    private final Object[] mSlots = new Object[MAX_POINTER_ID + 1];
+    private int mActiveBits;
+
+    public PointerStateTable(Factory<S> factory) {
+        mFactory = factory;
+    }
+
+    private static boolean isValidId(int pointerId) {
+        return pointerId >= 0 && pointerId <= MAX_POINTER_ID;
+    }
+
+    @SuppressWarnings("unchecked")
+    public S add(int pointerId) {
+        if (!isValidId(pointerId)) {
+            return null;
+        }
+        S slot = (S) mSlots[pointerId];
+        if (slot == null) {
+            slot = mFactory.newSlot();
+            mSlots[pointerId] = slot;
+        }
+        slot.reset();
+        slot.mPointerId = pointerId;
+        mActiveBits |= 1 << pointerId;
+        return slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    public S get(int pointerId) {
+        return contains(pointerId) ? (S) mSlots[pointerId] : null;
+    }
+
+    public boolean contains(int pointerId) {
+        return isValidId(pointerId) && (mActiveBits & (1 << pointerId)) != 0;
+    }
+
+    public void remove(int pointerId) {
+        if (isValidId(pointerId)) {
+            mActiveBits &= ~(1 << pointerId);
+        }
+    }
+
+    public void clear() {
+        mActiveBits = 0;
+    }
+
+    public boolean isEmpty() {
+        return mActiveBits == 0;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * One deadline shared by all pointers of a detector.
+ * Scheduling a new deadline replaces the pending one, so at most one wake-up is queued.
+ * Deadlines are absolute times on the event time base.
+ */
+abstract class PointerTimer implements Runnable {
+    private final Scheduler mScheduler;
+    private int mPointerId = TouchFrame.INVALID_POINTER_ID;
+
+    PointerTimer(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public void schedule(int pointerId, long uptimeMillis) {
+        mScheduler.cancel(this);
+        mPointerId = pointerId;
+        mScheduler.scheduleAt(this, uptimeMillis);
+    }
+
+    public void cancel(int pointerId) {
+        if (mPointerId == pointerId) {
+            cancel();
+        }
+    }
+
+    public void cancel() {
+        mScheduler.cancel(this);
+        mPointerId = TouchFrame.INVALID_POINTER_ID;
+    }
+
+    @Override
+    public final void run() {
+        final int pointerId = mPointerId;
+        mPointerId = TouchFrame.INVALID_POINTER_ID;
+        onTimeout(pointerId);
+    }
+
+    protected abstract void onTimeout(int pointerId);
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Streaming estimate of one quantile by the P-square algorithm (Jain and Chlamtac, 1985).
+ * It keeps five markers whatever the number of samples, and each sample moves them in O(1).
+ */
+public class QuantileEstimator {
+    private static final int MARKERS = 5;
+
+    private final double mQuantile;
+    private final double[] mHeights = new double[MARKERS];
+    private final int[] mPositions = new int[MARKERS];
+    private final double[] mDesired = new double[MARKERS];
+    private final double[] mIncrements = new double[MARKERS];
+    private int mCount;
+
+    /**
+     * @param quantile from 0 to 1, 0.5 is the median
+     */
+    public QuantileEstimator(double quantile) {
+        mQuantile = quantile;
+        reset();
+    }
+
+    public double getQuantileRank() {
+        return mQuantile;
+    }
+
+    public void reset() {
+        final double p = mQuantile;
+        mCount = 0;
+        for (int i = 0; i < MARKERS; ++i) {
+            mPositions[i] = i;
+        }
+        mDesired[0] = 0.0;
+        mDesired[1] = 2.0 * p;
+        mDesired[2] = 4.0 * p;
+        mDesired[3] = 2.0 + 2.0 * p;
+        mDesired[4] = 4.0;
+        mIncrements[0] = 0.0;
+        mIncrements[1] = p / 2.0;
+        mIncrements[2] = p;
+        mIncrements[3] = (1.0 + p) / 2.0;
+        mIncrements[4] = 1.0;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public void add(double sample) {
+        final double[] q = mHeights;
+        if (mCount < MARKERS) {
+            // insertion sort of the first samples
+            int i = mCount;
+            for (; i > 0 && q[i - 1] > sample; --i) {
+                q[i] = q[i - 1];
+            }
+            q[i] = sample;
+            ++mCount;
+            return;
+        }
+        ++mCount;
+
+        final int k;
+        if (sample < q[0]) {
+            q[0] = sample;
+            k = 0;
+        } else if (sample >= q[MARKERS - 1]) {
+            q[MARKERS - 1] = sample;
+            k = MARKERS - 2;
+        } else {
+            int i = 1;
+            while (sample >= q[i]) {
+                ++i;
+            }
+            k = i - 1;
+        }
+        final int[] n = mPositions;
+        for (int i = k + 1; i < MARKERS; ++i) {
+            ++n[i];
+        }
+        for (int i = 0; i < MARKERS; ++i) {
+            mDesired[i] += mIncrements[i];
+        }
+
+        for (int i = 1; i < MARKERS - 1; ++i) {
+            final double d = mDesired[i] - n[i];
+            if ((d >= 1.0 && n[i + 1] - n[i] > 1) || (d <= -1.0 && n[i - 1] - n[i] < -1)) {
+                final int sign = d > 0.0 ? 1 : -1;
+                final double height = parabolic(i, sign);
+                if (q[i - 1] < height && height < q[i + 1]) {
+                    q[i] = height;
+                } else {
+                    q[i] += sign * (q[i + sign] - q[i]) / (n[i + sign] - n[i]);
+                }
+                n[i] += sign;
+            }
+        }
+    }
+
+    private double parabolic(int i, int sign) {
+        final double[] q = mHeights;
+        final int[] n = mPositions;
+        return q[i] + (double) sign / (n[i + 1] - n[i - 1]) *
+                ((n[i] - n[i - 1] + sign) * (q[i + 1] - q[i]) / (n[i + 1] - n[i]) +
+                        (n[i + 1] - n[i] - sign) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    /**
+     * @return NaN if there is no sample yet
+     */
+    public double getQuantile() {
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+        if (mCount < MARKERS) {
+            // the first samples are kept sorted
+            return mHeights[(int) Math.round(mQuantile * (mCount - 1))];
+        }
+        return mHeights[2];
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Platform independent state machine of relative touch, which is judged by the change of
+ * the parameter from the beginning of each pointer.
+ */
+public class RelativeDetectorCore {
+    protected class TouchState extends PointerStateTable.Slot {
+        private static final float INVALID_PARAMETER = -1.0f;
+
+        float threshold;
+        float hysteresis;
+        float startX;
+        float startY;
+        float x;
+        float y;
+        boolean forceTouch;
+        boolean inTapRegion;
+        float base;
+        float settledBase;
+        float noiseBand;
+        boolean baselineFrozen;
+        final DetectionWindow window = new DetectionWindow();
+        final SlopeTracker slope = new SlopeTracker();
+        final BaselineEstimator baseline = new BaselineEstimator();
+
+        @Override
+        protected void reset() {
+            threshold = INVALID_PARAMETER;
+            hysteresis = INVALID_PARAMETER;
+            startX = 0.0f;
+            startY = 0.0f;
+            x = 0.0f;
+            y = 0.0f;
+            forceTouch = false;
+            inTapRegion = true;
+            base = INVALID_PARAMETER;
+            settledBase = INVALID_PARAMETER;
+            noiseBand = 0.0f;
+            baselineFrozen = false;
+            window.close();
+            slope.reset();
+            baseline.reset();
+        }
+    }
+
+    private class LongPressTimer extends PointerTimer {
+        LongPressTimer(Scheduler scheduler) {
+            super(scheduler);
+        }
+
+        @Override
+        protected void onTimeout(int pointerId) {
+            TouchState state = mTouchStates.get(pointerId);
+            if (state == null) {
+                return;
+            }
+            state.window.close();
+            if (mLongClickable && mListener.onForceLongPress(state.x, state.y)) {
+                onHandled();
+            }
+        }
+    }
+
+    public static final int DEFAULT_LONG_PRESS_TIMEOUT = 500;
+
+    private final ForceTouchListener mListener;
+    private final EventHost mHost;
+
+    private int mLongPressTimeout = DEFAULT_LONG_PRESS_TIMEOUT;
+    private int mTouchSlopeSquare;
+    private float mMagnification;
+    private int mExtraLongPressTimeout;
+    private int mWindowTimeInMillis;
+    private int mWindowDelayInMillis;
+    private boolean mBlockDragging;
+    private boolean mMultipleForceTouch;
+    private boolean mCancelByMultiTouch;
+    private boolean mRewind;
+    private boolean mProcessHistory;
+    private float mBaselineSmoothing;
+    private boolean mLongClickable = true;
+    private boolean mAllowUnknownType;
+
+    public static final int TYPE_WIGGLE = 1;
+    public static final int TYPE_SCRATCH = 2;
+    /**
+     * Fire when the parameter keeps changing faster than {@link #setSlope(float, int)}.
+     */
+    public static final int TYPE_SLOPE = 3;
+    private int mType = TYPE_WIGGLE;
+
+    public static final float DEFAULT_SLOPE = 4.0f;
+    public static final int DEFAULT_SLOPE_DURATION_IN_MILLIS = 30;
+    private float mSlope = DEFAULT_SLOPE;
+    private int mSlopeDurationInMillis = DEFAULT_SLOPE_DURATION_IN_MILLIS;
+
+    private final PointerStateTable<TouchState> mTouchStates = new PointerStateTable<>(
+            new PointerStateTable.Factory<TouchState>() {
+                @Override
+                public TouchState newSlot() {
+                    return new TouchState();
+                }
+            });
+    private final LongPressTimer mLongPressTimer;
+
+    private boolean mHandled;
+    private boolean mCanceled;
+    private int mActivePointerId;
+
+    public RelativeDetectorCore(ForceTouchListener listener, EventHost host,
+                                Scheduler scheduler) {
+        mListener = listener;
+        mHost = host;
+        mLongPressTimer = new LongPressTimer(scheduler);
+    }
+
+    public void setLongPressTimeout(int longPressTimeout) {
+        mLongPressTimeout = longPressTimeout;
+    }
+
+    public void setTouchSlop(int touchSlop) {
+        mTouchSlopeSquare = touchSlop * touchSlop;
+    }
+
+    public void setMagnification(float magnification) {
+        mMagnification = magnification;
+    }
+
+    public void setBlockDragging(boolean blockDragging) {
+        mBlockDragging = blockDragging;
+    }
+
+    public void setWindowDelayInMillis(int windowDelayInMillis) {
+        mWindowDelayInMillis = windowDelayInMillis;
+    }
+
+    public void setWindowTimeInMillis(int windowTimeInMillis) {
+        mWindowTimeInMillis = windowTimeInMillis;
+    }
+
+    public void setExtraLongPressTimeout(int extraLongPressTimeout) {
+        mExtraLongPressTimeout = extraLongPressTimeout;
+    }
+
+    public void setMultipleForceTouch(boolean multipleForceTouch) {
+        mMultipleForceTouch = multipleForceTouch;
+    }
+
+    public void setCancelByMultiTouch(boolean cancel) {
+        mCancelByMultiTouch = cancel;
+    }
+
+    /**
+     * Send recorded movements to the original receiver when a gesture is handled.
+     * The host must be able to record motions.
+     */
+    public void setRewind(boolean rewind) {
+        mRewind = rewind;
+    }
+
+    /**
+     * Evaluate every batched sample of ACTION_MOVE in order instead of only one,
+     * so a relative touch is fired at the first sample that crosses the threshold.
+     */
+    public void setProcessHistory(boolean processHistory) {
+        mProcessHistory = processHistory;
+    }
+
+    /**
+     * Base the threshold on a moving average of the parameter instead of the first sample
+     * in the detection window. After the window opens the average only follows samples
+     * within the noise band around the settled contact, and stops for the rest of the
+     * stroke once a sample leaves it, so a slowly rising press can't drag the threshold.
+     *
+     * @param samples number of samples the average roughly spans, 0 uses the first sample
+     */
+    public void setBaselineSamples(int samples) {
+        mBaselineSmoothing = samples > 0 ? BaselineEstimator.getSmoothing(samples) : 0.0f;
+    }
+
+    public void setLongClickable(boolean longClickable) {
+        mLongClickable = longClickable;
+    }
+
+    public void allowUnknownType(boolean allow) {
+        mAllowUnknownType = allow;
+    }
+
+    public void setType(int type) {
+        mType = type;
+    }
+
+    /**
+     * For {@link #TYPE_SLOPE}. The magnification is still used to detect reset.
+     *
+     * @param slope            change of the parameter per second relative to the base,
+     *                         negative value detects falling like {@link #TYPE_SCRATCH}
+     * @param durationInMillis how long the slope must be kept
+     */
+    public void setSlope(float slope, int durationInMillis) {
+        mSlope = slope;
+        mSlopeDurationInMillis = durationInMillis;
+    }
+
+    private void cleanUp() {
+        mActivePointerId = TouchFrame.INVALID_POINTER_ID;
+        mHandled = false;
+        mCanceled = true;
+        mHost.releaseCancelEvent();
+        mLongPressTimer.cancel();
+        mTouchStates.clear();
+        mHost.clearMotions();
+    }
+
+    void sendLongPressMessage(TouchState state, long eventTime) {
+        mLongPressTimer.schedule(state.getPointerId(),
+                eventTime + mLongPressTimeout + mExtraLongPressTimeout);
+    }
+
+    void removeMessages(TouchState state) {
+        mLongPressTimer.cancel(state.getPointerId());
+    }
+
+    /**
+     * Stop the long press and keep the detection window as it is at the event time.
+     */
+    void freezeDetector(TouchState state, long eventTime) {
+        state.window.freeze(eventTime);
+        removeMessages(state);
+    }
+
+    private void addTouch(TouchFrame frame) {
+        final int index = frame.getActionIndex();
+        final int toolType = frame.getToolType(index);
+        if (!(toolType == TouchFrame.TOOL_TYPE_FINGER ||
+                (mAllowUnknownType && toolType == TouchFrame.TOOL_TYPE_UNKNOWN))) {
+            return;
+        }
+        TouchState state = mTouchStates.add(frame.getPointerId(index));
+        if (state == null) {
+            return;
+        }
+        final float x = frame.getX(index);
+        final float y = frame.getY(index);
+        state.startX = x;
+        state.startY = y;
+        state.x = x;
+        state.y = y;
+        final float parameter = frame.getParameter(index);
+        final long eventTime = frame.getEventTime();
+        state.window.start(eventTime, mWindowDelayInMillis, mWindowTimeInMillis);
+        final float baseline = trackBaseline(state, parameter);
+        if (state.window.isOpened(eventTime)) {
+            settleBaseline(state, baseline);
+            trackSlope(state, parameter, eventTime);
+        }
+    }
+
+    /**
+     * Start the threshold from the baseline when the window opens. The noise band is the
+     * distance to the hysteresis, which is half way to the threshold.
+     */
+    private void settleBaseline(TouchState state, float baseline) {
+        setParameter(state, baseline);
+        state.settledBase = baseline;
+        state.noiseBand = Math.abs(state.hysteresis - baseline);
+    }
+
+    /**
+     * Update the baseline only while the contact stays stable, i.e. within the noise band
+     * around the baseline of the opening. The first sample outside freezes it.
+     */
+    private void updateBaseline(TouchState state, float parameter) {
+        if (state.baselineFrozen) {
+            return;
+        }
+        if (Math.abs(parameter - state.settledBase) > state.noiseBand) {
+            state.baselineFrozen = true;
+            return;
+        }
+        setParameter(state, trackBaseline(state, parameter));
+    }
+
+    /**
+     * @return the baseline including the parameter, or the parameter itself if the
+     * estimator is disabled
+     */
+    private float trackBaseline(TouchState state, float parameter) {
+        if (mBaselineSmoothing == 0.0f) {
+            return parameter;
+        }
+        state.baseline.add(parameter, mBaselineSmoothing);
+        return state.baseline.getBaseline();
+    }
+
+    protected void setParameter(TouchState state, float parameter) {
+        state.base = parameter;
+        state.threshold = parameter * mMagnification;
+        state.hysteresis = parameter * (1.0f + (mMagnification - 1.0f) / 2.0f);
+    }
+
+    protected boolean isReset(TouchState state, float parameter) {
+        switch (mType) {
+            case TYPE_WIGGLE:
+                return parameter < state.hysteresis;
+            case TYPE_SCRATCH:
+                return parameter > state.hysteresis;
+            case TYPE_SLOPE:
+                return mSlope > 0.0f ?
+                        parameter < state.hysteresis : parameter > state.hysteresis;
+        }
+        return false;
+    }
+
+    /**
+     * {@link #trackSlope(TouchState, float, long)} must be called with the sample before.
+     */
+    protected boolean isRelativeTouch(TouchState state, float parameter) {
+        switch (mType) {
+            case TYPE_WIGGLE:
+                return parameter > state.threshold;
+            case TYPE_SCRATCH:
+                return parameter < state.threshold;
+            case TYPE_SLOPE:
+                return state.slope.isSustained(mSlopeDurationInMillis);
+        }
+        return false;
+    }
+
+    private void trackSlope(TouchState state, float parameter, long eventTime) {
+        if (mType == TYPE_SLOPE) {
+            state.slope.add(parameter, eventTime, state.base, mSlope);
+        }
+    }
+
+    private void removeTouchAndPerformTap(int pointerId) {
+        if (mActivePointerId == pointerId) {
+            TouchState state = mTouchStates.get(pointerId);
+            if (!mHandled && state.inTapRegion) {
+                if (mListener.onForceTap(state.x, state.y)) {
+                    onHandled();
+                }
+            }
+            removeMessages(state);
+            mActivePointerId = TouchFrame.INVALID_POINTER_ID;
+        }
+        mTouchStates.remove(pointerId);
+    }
+
+    private void onHandled() {
+        if (mRewind) {
+            TouchState state = mTouchStates.get(mActivePointerId);
+            if (state != null) {
+                // rewind movements
+                mHost.rewindMotions();
+            }
+            mHost.clearMotions();
+        }
+        mHost.sendCancelEvent();
+        mHandled = true;
+    }
+
+    private void onRelativeTouchStarted(TouchState state, long eventTime) {
+        mActivePointerId = state.getPointerId();
+        sendLongPressMessage(state, eventTime);
+        mHost.saveCancelEvent();
+    }
+
+    private void onMove(TouchState state,
+                        float x, float y, float parameter, long eventTime) {
+        final float dx = x - state.x;
+        final float dy = y - state.y;
+        if ((dx * dx + dy * dy) > mTouchSlopeSquare) {
+            state.inTapRegion = false;
+            freezeDetector(state, eventTime);
+        }
+        if (state.window.isOpened(eventTime)) {
+            trackSlope(state, parameter, eventTime);
+            if (state.threshold == TouchState.INVALID_PARAMETER) {
+                settleBaseline(state, trackBaseline(state, parameter));
+            } else if (state.forceTouch) {
+                if (mMultipleForceTouch && isReset(state, parameter)) {
+                    state.forceTouch = false;
+                    mHost.clearMotions();
+                    freezeDetector(state, eventTime);
+                }
+            } else if (isRelativeTouch(state, parameter)) {
+                state.x = x;
+                state.y = y;
+                state.inTapRegion = true;
+                state.forceTouch = true;
+                if (mListener.onRelativeTouch(x, y, state.startX, state.startY)) {
+                    onRelativeTouchStarted(state, eventTime);
+                }
+            } else if (mBaselineSmoothing != 0.0f) {
+                updateBaseline(state, parameter);
+            }
+        } else if (state.threshold == TouchState.INVALID_PARAMETER) {
+            // let the baseline settle while the window is delayed
+            trackBaseline(state, parameter);
+        }
+    }
+
+    /**
+     * @return true if the stroke is taken over
+     */
+    public boolean onTouchEvent(TouchFrame frame) {
+        final int action = frame.getActionMasked();
+        if (mCanceled && action != TouchFrame.ACTION_DOWN) {
+            return false;
+        }
+        switch (action) {
+            case TouchFrame.ACTION_DOWN: {
+                cleanUp();
+                mCanceled = false;
+                addTouch(frame);
+                break;
+            }
+            case TouchFrame.ACTION_MOVE: {
+                if (!mHandled) {
+                    if (!mMultipleForceTouch && mRewind) {
+                        mHost.recordMotion();
+                    }
+                    int count = frame.getPointerCount();
+                    for (int index = 0; index < count; ++index) {
+                        TouchState state = mTouchStates.get(frame.getPointerId(index));
+                        if (state == null) {
+                            continue;
+                        }
+                        if (mProcessHistory) {
+                            // walk the batched samples in order, the last one is the current
+                            final int historySize = frame.getHistorySize();
+                            for (int pos = 0; pos <= historySize; ++pos) {
+                                if (mBlockDragging && !state.inTapRegion) {
+                                    break;
+                                }
+                                onMove(state,
+                                        frame.getHistoricalX(index, pos),
+                                        frame.getHistoricalY(index, pos),
+                                        frame.getHistoricalParameter(index, pos),
+                                        frame.getHistoricalEventTime(pos));
+                            }
+                        } else {
+                            if (mBlockDragging && !state.inTapRegion) {
+                                continue;
+                            }
+                            onMove(state, frame.getX(index), frame.getY(index),
+                                    frame.getParameter(index), frame.getEventTime());
+                        }
+                    }
+                }
+                break;
+            }
+            case TouchFrame.ACTION_CANCEL:
+                cleanUp();
+                break;
+            case TouchFrame.ACTION_UP:
+                removeTouchAndPerformTap(frame.getPointerId(frame.getActionIndex()));
+                cleanUp();
+                break;
+            case TouchFrame.ACTION_POINTER_DOWN:
+                if (mCancelByMultiTouch) {
+                    cleanUp();
+                } else {
+                    addTouch(frame);
+                }
+                break;
+            case TouchFrame.ACTION_POINTER_UP: {
+                final int pointerId = frame.getPointerId(frame.getActionIndex());
+                removeTouchAndPerformTap(pointerId);
+                break;
+            }
+        }
+
+        return mHandled;
+    }
+}
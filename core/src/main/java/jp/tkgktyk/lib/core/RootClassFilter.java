@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Pairs of a hooked method and a class whose instances the hook handles.
+ * A hook on a method shared by many classes, like ViewGroup#dispatchTouchEvent, checks the
+ * class of the receiver here first and sends the others back to the original method.
+ * Lookup compares references over a small array without locking or allocation, adding
+ * a pair copies the array.
+ */
+public class RootClassFilter {
+    private static final Object[] EMPTY = new Object[0];
+
+    // method, class, method, class, ...
+    private volatile Object[] mPairs = EMPTY;
+
+    /**
+     * @return false if the pair is already added
+     */
+    public synchronized boolean add(Object method, Class<?> clazz) {
+        if (contains(method, clazz)) {
+            return false;
+        }
+        final Object[] pairs = mPairs;
+        final Object[] newPairs = new Object[pairs.length + 2];
+        System.arraycopy(pairs, 0, newPairs, 0, pairs.length);
+        newPairs[pairs.length] = method;
+        newPairs[pairs.length + 1] = clazz;
+        mPairs = newPairs;
+        return true;
+    }
+
+    public boolean contains(Object method, Class<?> clazz) {
+        final Object[] pairs = mPairs;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i + 1] == clazz && pairs[i] == method) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return mPairs.length / 2;
+    }
+}
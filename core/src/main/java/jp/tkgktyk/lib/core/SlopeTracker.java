@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Rate of change of a touch parameter for one finger.
+ * Only the previous sample is kept, the slope between consecutive samples is compared with
+ * a limit and the time since it started to exceed the limit is tracked.
+ */
+public class SlopeTracker {
+    private static final long INVALID_TIME = -1;
+
+    private float mLastParameter;
+    private long mLastTime = INVALID_TIME;
+    private long mStartTime = INVALID_TIME;
+
+    public void reset() {
+        mLastParameter = 0.0f;
+        mLastTime = INVALID_TIME;
+        mStartTime = INVALID_TIME;
+    }
+
+    /**
+     * @param base  parameter which the slope is relative to, not positive value only records
+     *              the sample
+     * @param slope limit of the slope relative to base per second, negative value means
+     *              the parameter must fall faster than it
+     */
+    public void add(float parameter, long eventTime, float base, float slope) {
+        if (mLastTime != INVALID_TIME) {
+            final long dt = eventTime - mLastTime;
+            if (dt <= 0) {
+                return;
+            }
+            if (base > 0.0f) {
+                final float current = (parameter - mLastParameter) * 1000.0f / dt / base;
+                if (slope > 0.0f ? current >= slope : current <= slope) {
+                    if (mStartTime == INVALID_TIME) {
+                        mStartTime = mLastTime;
+                    }
+                } else {
+                    mStartTime = INVALID_TIME;
+                }
+            }
+        }
+        mLastParameter = parameter;
+        mLastTime = eventTime;
+    }
+
+    /**
+     * @return true if the slope has exceeded the limit for the duration until the last sample
+     */
+    public boolean isSustained(int durationInMillis) {
+        return mStartTime != INVALID_TIME && mLastTime - mStartTime >= durationInMillis;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Tap, double tap, long press and four-way flick of one finger.
+ * Positions are given as primitive samples, timeouts run on a {@link Scheduler} with event
+ * times. It follows the rules of GestureDetector for the gestures it supports:
+ * <ul>
+ * <li>a stroke within the touch slop is a tap, it is confirmed after the double tap
+ * timeout if double tap is enabled</li>
+ * <li>the second down of two taps within the double tap timeout and slop is a double tap</li>
+ * <li>a stroke within the touch slop for the long press timeout is a long press, it takes
+ * the rest of the stroke</li>
+ * <li>a stroke out of the touch slop which is released faster than the minimum velocity
+ * is a flick, its direction is the larger axis of the whole movement</li>
+ * </ul>
+ */
+public class TapFlickRecognizer {
+    public static final int FLICK_LEFT = 0;
+    public static final int FLICK_UP = 1;
+    public static final int FLICK_RIGHT = 2;
+    public static final int FLICK_DOWN = 3;
+
+    /**
+     * Second taps faster than this are ignored like GestureDetector.
+     */
+    private static final int DOUBLE_TAP_MIN_TIME = 40;
+
+    public interface Listener {
+        void onTap(float x, float y);
+
+        /**
+         * @param x position of the first down
+         */
+        void onDoubleTap(float x, float y);
+
+        void onLongPress(float x, float y);
+
+        /**
+         * @param x position of the up
+         */
+        void onFlick(int direction, float x, float y);
+    }
+
+    private final Listener mListener;
+    private final Scheduler mScheduler;
+    private final VelocityEstimator mVelocity = new VelocityEstimator();
+
+    private int mTouchSlopSquare;
+    private int mDoubleTapSlopSquare;
+    private float mMinimumFlingVelocity;
+    private int mLongPressTimeout;
+    private int mExtraLongPressTimeout;
+    private int mDoubleTapTimeout;
+    private boolean mDoubleTapEnabled;
+
+    private boolean mStillDown;
+    private boolean mInTapRegion;
+    private boolean mInLongPress;
+    private boolean mIsDoubleTap;
+    private float mDownX;
+    private float mDownY;
+
+    // the last tap waiting for confirmation or the second tap
+    private boolean mTapPending;
+    private boolean mDeferConfirm;
+    private float mTapX;
+    private float mTapY;
+    private long mTapUpTime;
+
+    private final Runnable mLongPress = new Runnable() {
+        @Override
+        public void run() {
+            mInLongPress = true;
+            cancelTap();
+            mListener.onLongPress(mDownX, mDownY);
+        }
+    };
+
+    private final Runnable mConfirmTap = new Runnable() {
+        @Override
+        public void run() {
+            if (mStillDown) {
+                // the first down is still held, confirm on up
+                mDeferConfirm = true;
+            } else if (mTapPending) {
+                mTapPending = false;
+                mListener.onTap(mTapX, mTapY);
+            }
+        }
+    };
+
+    public TapFlickRecognizer(Listener listener, Scheduler scheduler) {
+        mListener = listener;
+        mScheduler = scheduler;
+    }
+
+    public void setTouchSlop(int touchSlop) {
+        mTouchSlopSquare = touchSlop * touchSlop;
+    }
+
+    public void setDoubleTapSlop(int doubleTapSlop) {
+        mDoubleTapSlopSquare = doubleTapSlop * doubleTapSlop;
+    }
+
+    /**
+     * @param velocity pixels per second
+     */
+    public void setMinimumFlingVelocity(float velocity) {
+        mMinimumFlingVelocity = velocity;
+    }
+
+    public void setLongPressTimeout(int longPressTimeout) {
+        mLongPressTimeout = longPressTimeout;
+    }
+
+    /**
+     * Added to the long press timeout.
+     */
+    public void setExtraLongPressTimeout(int extraLongPressTimeout) {
+        mExtraLongPressTimeout = extraLongPressTimeout;
+    }
+
+    public void setDoubleTapTimeout(int doubleTapTimeout) {
+        mDoubleTapTimeout = doubleTapTimeout;
+    }
+
+    /**
+     * Taps are reported at once without waiting for a second tap if disabled.
+     */
+    public void setDoubleTapEnabled(boolean enabled) {
+        mDoubleTapEnabled = enabled;
+        if (!enabled) {
+            cancelTap();
+        }
+    }
+
+    public void onDown(float x, float y, long eventTime) {
+        mScheduler.cancel(mLongPress);
+        mVelocity.clear();
+        mVelocity.add(x, y, eventTime);
+        mStillDown = true;
+        mInTapRegion = true;
+        mInLongPress = false;
+        mIsDoubleTap = false;
+        mDownX = x;
+        mDownY = y;
+
+        if (mDoubleTapEnabled) {
+            if (mTapPending && isConsideredDoubleTap(x, y, eventTime)) {
+                mIsDoubleTap = true;
+                final float tapX = mTapX;
+                final float tapY = mTapY;
+                cancelTap();
+                mListener.onDoubleTap(tapX, tapY);
+                return;
+            }
+            cancelTap();
+            mScheduler.scheduleAt(mConfirmTap, eventTime + mDoubleTapTimeout);
+        }
+        mScheduler.scheduleAt(mLongPress,
+                eventTime + mLongPressTimeout + Math.max(mExtraLongPressTimeout, 0));
+    }
+
+    private boolean isConsideredDoubleTap(float x, float y, long eventTime) {
+        final long interval = eventTime - mTapUpTime;
+        if (interval > mDoubleTapTimeout || interval < DOUBLE_TAP_MIN_TIME) {
+            return false;
+        }
+        final float dx = x - mTapX;
+        final float dy = y - mTapY;
+        return dx * dx + dy * dy < mDoubleTapSlopSquare;
+    }
+
+    public void onMove(float x, float y, long eventTime) {
+        if (!mStillDown) {
+            return;
+        }
+        mVelocity.add(x, y, eventTime);
+        if (mInTapRegion) {
+            final float dx = x - mDownX;
+            final float dy = y - mDownY;
+            if (dx * dx + dy * dy > mTouchSlopSquare) {
+                mInTapRegion = false;
+                mScheduler.cancel(mLongPress);
+                cancelTap();
+            }
+        }
+    }
+
+    public void onUp(float x, float y, long eventTime) {
+        if (!mStillDown) {
+            return;
+        }
+        mVelocity.add(x, y, eventTime);
+        mStillDown = false;
+        mScheduler.cancel(mLongPress);
+        if (mInLongPress || mIsDoubleTap) {
+            // already reported
+        } else if (mInTapRegion) {
+            if (!mDoubleTapEnabled || mDeferConfirm) {
+                cancelTap();
+                mListener.onTap(mDownX, mDownY);
+            } else {
+                mTapPending = true;
+                mTapX = mDownX;
+                mTapY = mDownY;
+                mTapUpTime = eventTime;
+            }
+        } else {
+            mVelocity.compute();
+            final float vx = mVelocity.getVelocityX();
+            final float vy = mVelocity.getVelocityY();
+            if (Math.abs(vx) > mMinimumFlingVelocity || Math.abs(vy) > mMinimumFlingVelocity) {
+                mListener.onFlick(getDirection(x - mDownX, y - mDownY), x, y);
+            }
+        }
+        mInLongPress = false;
+        mIsDoubleTap = false;
+    }
+
+    private static int getDirection(float dx, float dy) {
+        if (Math.abs(dx) > Math.abs(dy)) {
+            return dx > 0 ? FLICK_RIGHT : FLICK_LEFT;
+        }
+        return dy > 0 ? FLICK_DOWN : FLICK_UP;
+    }
+
+    /**
+     * Forget the stroke and a pending tap.
+     */
+    public void cancel() {
+        mScheduler.cancel(mLongPress);
+        cancelTap();
+        mVelocity.clear();
+        mStillDown = false;
+        mInTapRegion = false;
+        mInLongPress = false;
+        mIsDoubleTap = false;
+    }
+
+    private void cancelTap() {
+        mScheduler.cancel(mConfirmTap);
+        mTapPending = false;
+        mDeferConfirm = false;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Percentiles of the parameter of ordinary touches, for thresholds which follow the finger,
+ * charger and screen protector. Memory is constant and each sample costs O(1).
+ * <p>
+ * To follow drift, estimation restarts every {@link #setGenerationSize(int)} samples. A new
+ * generation starts halfway through the current one and takes over when the current one is
+ * full, so estimates are always based on at least half a generation.
+ * <p>
+ * Percentiles saved by an earlier process can be given by
+ * {@link #setPrior(float, float, float)}, they are used until there are enough samples.
+ */
+public class ThresholdCalibrator {
+    public static final int DEFAULT_MIN_SAMPLES = 30;
+    public static final int DEFAULT_GENERATION_SIZE = 1000;
+
+    public static final double LOWER_QUANTILE = 0.05;
+    public static final double MEDIAN = 0.5;
+    public static final double UPPER_QUANTILE = 0.95;
+
+    private static class Generation {
+        final QuantileEstimator lower = new QuantileEstimator(LOWER_QUANTILE);
+        final QuantileEstimator median = new QuantileEstimator(MEDIAN);
+        final QuantileEstimator upper = new QuantileEstimator(UPPER_QUANTILE);
+
+        void add(double sample) {
+            lower.add(sample);
+            median.add(sample);
+            upper.add(sample);
+        }
+
+        void reset() {
+            lower.reset();
+            median.reset();
+            upper.reset();
+        }
+
+        int getCount() {
+            return median.getCount();
+        }
+    }
+
+    private Generation mCurrent = new Generation();
+    private Generation mNext = new Generation();
+    private int mMinSamples = DEFAULT_MIN_SAMPLES;
+    private int mGenerationSize = DEFAULT_GENERATION_SIZE;
+    private boolean mHasPrior;
+    private float mPriorLower;
+    private float mPriorMedian;
+    private float mPriorUpper;
+
+    public void setMinSamples(int minSamples) {
+        mMinSamples = minSamples;
+    }
+
+    public void setGenerationSize(int generationSize) {
+        mGenerationSize = generationSize;
+    }
+
+    /**
+     * Clears samples and the prior.
+     */
+    public void reset() {
+        mCurrent.reset();
+        mNext.reset();
+        mHasPrior = false;
+    }
+
+    /**
+     * @return false if the percentiles are not ordered finite values, they are ignored then
+     */
+    public boolean setPrior(float lower, float median, float upper) {
+        if (Float.isNaN(lower) || Float.isInfinite(lower) ||
+                Float.isNaN(upper) || Float.isInfinite(upper) ||
+                !(lower <= median && median <= upper)) {
+            mHasPrior = false;
+            return false;
+        }
+        mHasPrior = true;
+        mPriorLower = lower;
+        mPriorMedian = median;
+        mPriorUpper = upper;
+        return true;
+    }
+
+    public void add(float parameter) {
+        mCurrent.add(parameter);
+        final int count = mCurrent.getCount();
+        if (count > mGenerationSize / 2) {
+            mNext.add(parameter);
+        }
+        if (count >= mGenerationSize) {
+            Generation full = mCurrent;
+            mCurrent = mNext;
+            mNext = full;
+            mNext.reset();
+        }
+    }
+
+    public int getCount() {
+        return mCurrent.getCount();
+    }
+
+    /**
+     * @return true if percentiles are estimated from enough samples, not from the prior
+     */
+    public boolean isCalibrated() {
+        return mCurrent.getCount() >= mMinSamples;
+    }
+
+    /**
+     * @return true if thresholds are based on enough samples or the prior
+     */
+    public boolean isReady() {
+        return isCalibrated() || mHasPrior;
+    }
+
+    public float getLowerQuantile() {
+        return usePrior() ? mPriorLower : (float) mCurrent.lower.getQuantile();
+    }
+
+    public float getMedian() {
+        return usePrior() ? mPriorMedian : (float) mCurrent.median.getQuantile();
+    }
+
+    public float getUpperQuantile() {
+        return usePrior() ? mPriorUpper : (float) mCurrent.upper.getQuantile();
+    }
+
+    private boolean usePrior() {
+        return mHasPrior && !isCalibrated();
+    }
+
+    /**
+     * @return the upper percentile plus its distance from the median, for Large Touch
+     */
+    public float getUpperThreshold() {
+        final float upper = getUpperQuantile();
+        return upper + (upper - getMedian());
+    }
+
+    /**
+     * @return the lower percentile minus its distance from the median, for Knuckle Touch
+     */
+    public float getLowerThreshold() {
+        final float lower = getLowerQuantile();
+        return lower - (getMedian() - lower);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Per-pointer features of one touch event, extracted once and shared by all detectors.
+ * Arrays grow on demand and are reused, so filling a frame doesn't allocate after warm-up.
+ * Action and tool type values are the same as android.view.MotionEvent.
+ */
+public class TouchFrame {
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+    public static final int ACTION_POINTER_DOWN = 5;
+    public static final int ACTION_POINTER_UP = 6;
+
+    public static final int TOOL_TYPE_UNKNOWN = 0;
+    public static final int TOOL_TYPE_FINGER = 1;
+
+    public static final int INVALID_POINTER_ID = -1;
+
+    public interface AreaFilter {
+        boolean isInDetectionArea(float x, float y);
+    }
+
+    private static final AreaFilter NO_FILTER = new AreaFilter() {
+        @Override
+        public boolean isInDetectionArea(float x, float y) {
+            return true;
+        }
+    };
+
+    private static final byte AREA_UNKNOWN = 0;
+    private static final byte AREA_IN = 1;
+    private static final byte AREA_OUT = 2;
+
+    private AreaFilter mAreaFilter = NO_FILTER;
+    private int mAction;
+    private int mActionIndex;
+    private int mPointerCount;
+    private long mEventTime;
+
+    private int[] mPointerIds = new int[0];
+    private int[] mToolTypes = new int[0];
+    private float[] mX = new float[0];
+    private float[] mY = new float[0];
+    private float[] mParameters = new float[0];
+    private byte[] mAreas = new byte[0];
+
+    // batched samples, [pos * pointer count + index], the last position is the current sample
+    private int mHistorySize;
+    private long[] mHistoricalEventTimes = new long[0];
+    private float[] mHistoricalX = new float[0];
+    private float[] mHistoricalY = new float[0];
+    private float[] mHistoricalParameters = new float[0];
+
+    /**
+     * Start a new frame. Pointers must be set by {@link #setPointer} for every index after this.
+     *
+     * @param areaFilter null means everywhere is in the detection area
+     */
+    public void begin(int action, int actionIndex, long eventTime, int pointerCount,
+                      AreaFilter areaFilter) {
+        mAreaFilter = areaFilter != null ? areaFilter : NO_FILTER;
+        mAction = action;
+        mActionIndex = actionIndex;
+        mEventTime = eventTime;
+        mPointerCount = pointerCount;
+        mHistorySize = 0;
+        if (mPointerIds.length < pointerCount) {
+            mPointerIds = new int[pointerCount];
+            mToolTypes = new int[pointerCount];
+            mX = new float[pointerCount];
+            mY = new float[pointerCount];
+            mParameters = new float[pointerCount];
+            mAreas = new byte[pointerCount];
+        }
+    }
+
+    /**
+     * @param parameter size or pressure of the pointer for detectors which don't walk history
+     */
+    public void setPointer(int index, int pointerId, int toolType, float x, float y,
+                           float parameter) {
+        mPointerIds[index] = pointerId;
+        mToolTypes[index] = toolType;
+        mX[index] = x;
+        mY[index] = y;
+        mParameters[index] = parameter;
+        mAreas[index] = AREA_UNKNOWN;
+    }
+
+    /**
+     * Reserve batched samples of ACTION_MOVE. Every position from 0 to historySize, the last
+     * one is the current sample, must be set by {@link #setHistoricalSample} after this.
+     */
+    public void beginHistory(int historySize) {
+        final int samples = (historySize + 1) * mPointerCount;
+        if (mHistoricalX.length < samples) {
+            mHistoricalX = new float[samples];
+            mHistoricalY = new float[samples];
+            mHistoricalParameters = new float[samples];
+        }
+        if (mHistoricalEventTimes.length < historySize + 1) {
+            mHistoricalEventTimes = new long[historySize + 1];
+        }
+        mHistorySize = historySize;
+    }
+
+    public void setHistoricalEventTime(int pos, long eventTime) {
+        mHistoricalEventTimes[pos] = eventTime;
+    }
+
+    public void setHistoricalSample(int index, int pos, float x, float y, float parameter) {
+        final int sample = pos * mPointerCount + index;
+        mHistoricalX[sample] = x;
+        mHistoricalY[sample] = y;
+        mHistoricalParameters[sample] = parameter;
+    }
+
+    public int getActionMasked() {
+        return mAction;
+    }
+
+    public int getActionIndex() {
+        return mActionIndex;
+    }
+
+    public int getPointerCount() {
+        return mPointerCount;
+    }
+
+    public long getEventTime() {
+        return mEventTime;
+    }
+
+    public int getPointerId(int index) {
+        return mPointerIds[index];
+    }
+
+    public int getToolType(int index) {
+        return mToolTypes[index];
+    }
+
+    public float getX(int index) {
+        return mX[index];
+    }
+
+    public float getY(int index) {
+        return mY[index];
+    }
+
+    public float getParameter(int index) {
+        return mParameters[index];
+    }
+
+    /**
+     * Evaluated at most once per pointer and event, on the first call.
+     */
+    public boolean isInDetectionArea(int index) {
+        if (mAreas[index] == AREA_UNKNOWN) {
+            mAreas[index] = mAreaFilter.isInDetectionArea(mX[index], mY[index]) ?
+                    AREA_IN : AREA_OUT;
+        }
+        return mAreas[index] == AREA_IN;
+    }
+
+    /**
+     * @return 0 unless batched samples are set
+     */
+    public int getHistorySize() {
+        return mHistorySize;
+    }
+
+    private boolean isCurrent(int pos) {
+        return pos == mHistorySize;
+    }
+
+    public long getHistoricalEventTime(int pos) {
+        return isCurrent(pos) ? mEventTime : mHistoricalEventTimes[pos];
+    }
+
+    public float getHistoricalX(int index, int pos) {
+        return isCurrent(pos) ? mX[index] : mHistoricalX[pos * mPointerCount + index];
+    }
+
+    public float getHistoricalY(int index, int pos) {
+        return isCurrent(pos) ? mY[index] : mHistoricalY[pos * mPointerCount + index];
+    }
+
+    public float getHistoricalParameter(int index, int pos) {
+        // getParameter(index) may be read from a historical sample, so the current sample
+        // is taken from the history table as long as there is history
+        return mHistorySize == 0 ? mParameters[index] :
+                mHistoricalParameters[pos * mPointerCount + index];
+    }
+}
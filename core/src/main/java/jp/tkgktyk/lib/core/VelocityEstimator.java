@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Velocity of one finger from its recent positions.
+ * Samples are kept in a small ring and the velocity is the least squares slope of the
+ * samples in the last {@link #HORIZON} milliseconds, like the default strategy of
+ * VelocityTracker.
+ */
+public class VelocityEstimator {
+    public static final int HORIZON = 100;
+    private static final int CAPACITY = 20;
+
+    private final float[] mX = new float[CAPACITY];
+    private final float[] mY = new float[CAPACITY];
+    private final long[] mTimes = new long[CAPACITY];
+    private int mHead;
+    private int mSize;
+    private float mVelocityX;
+    private float mVelocityY;
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+        mVelocityX = 0.0f;
+        mVelocityY = 0.0f;
+    }
+
+    public void add(float x, float y, long eventTime) {
+        final int i = (mHead + mSize) % CAPACITY;
+        if (mSize == CAPACITY) {
+            mHead = (mHead + 1) % CAPACITY;
+        } else {
+            ++mSize;
+        }
+        mX[i] = x;
+        mY[i] = y;
+        mTimes[i] = eventTime;
+    }
+
+    /**
+     * Update velocities from the samples added so far.
+     */
+    public void compute() {
+        mVelocityX = 0.0f;
+        mVelocityY = 0.0f;
+        if (mSize < 2) {
+            return;
+        }
+        final int last = (mHead + mSize - 1) % CAPACITY;
+        final long lastTime = mTimes[last];
+        // times relative to the last sample in seconds
+        float sumT = 0.0f;
+        float sumTT = 0.0f;
+        float sumX = 0.0f;
+        float sumTX = 0.0f;
+        float sumY = 0.0f;
+        float sumTY = 0.0f;
+        int n = 0;
+        for (int k = mSize - 1; k >= 0; --k) {
+            final int i = (mHead + k) % CAPACITY;
+            final long age = lastTime - mTimes[i];
+            if (age > HORIZON) {
+                break;
+            }
+            final float t = -age / 1000.0f;
+            sumT += t;
+            sumTT += t * t;
+            sumX += mX[i];
+            sumTX += t * mX[i];
+            sumY += mY[i];
+            sumTY += t * mY[i];
+            ++n;
+        }
+        final float denominator = n * sumTT - sumT * sumT;
+        if (n < 2 || denominator <= 0.0f) {
+            // all samples at the same time
+            return;
+        }
+        mVelocityX = (n * sumTX - sumT * sumX) / denominator;
+        mVelocityY = (n * sumTY - sumT * sumY) / denominator;
+    }
+
+    /**
+     * @return pixels per second
+     */
+    public float getVelocityX() {
+        return mVelocityX;
+    }
+
+    /**
+     * @return pixels per second
+     */
+    public float getVelocityY() {
+        return mVelocityY;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Values attached to objects by identity, a replacement of additional instance fields for
+ * a lookup on every event.
+ * <p>
+ * Reads don't lock: the last hit is cached and otherwise a copy-on-write array of weak
+ * entries is scanned, so a steady-state lookup is a couple of field reads. Writes are
+ * synchronized and copy the array, they are expected only when a window is attached or
+ * detached.
+ * <p>
+ * Keys are held weakly like XposedHelpers' additional fields and cleared entries are purged
+ * on the next write. A value which refers to its key keeps it alive though, so entries
+ * should be removed explicitly.
+ */
+public class WeakIdentityRegistry<V> {
+    private static final class Entry<V> extends WeakReference<Object> {
+        final V value;
+
+        Entry(Object key, V value) {
+            super(key);
+            this.value = value;
+        }
+    }
+
+    private static final Entry<?>[] EMPTY = new Entry<?>[0];
+
+    private volatile Entry<?>[] mEntries = EMPTY;
+    private volatile Entry<?> mLastHit;
+
+    /**
+     * @return null if nothing is attached to the key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) {
+            // cleared entries return null
+            return null;
+        }
+        final Entry<?> lastHit = mLastHit;
+        if (lastHit != null && lastHit.get() == key) {
+            return (V) lastHit.value;
+        }
+        for (Entry<?> entry : mEntries) {
+            if (entry.get() == key) {
+                mLastHit = entry;
+                return (V) entry.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value which was attached to the key
+     */
+    public synchronized V put(Object key, V value) {
+        final V old = remove(key);
+        final Entry<?>[] entries = purge(mEntries);
+        final Entry<?>[] newEntries = new Entry<?>[entries.length + 1];
+        System.arraycopy(entries, 0, newEntries, 0, entries.length);
+        newEntries[entries.length] = new Entry<>(key, value);
+        mEntries = newEntries;
+        return old;
+    }
+
+    /**
+     * @return the value which was attached to the key
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(Object key) {
+        final Entry<?>[] entries = mEntries;
+        for (int i = 0; i < entries.length; ++i) {
+            final Entry<?> entry = entries[i];
+            if (entry.get() == key) {
+                final Entry<?>[] newEntries = new Entry<?>[entries.length - 1];
+                System.arraycopy(entries, 0, newEntries, 0, i);
+                System.arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+                mEntries = newEntries;
+                // a reader may still cache the entry, it never matches after clear
+                entry.clear();
+                if (mLastHit == entry) {
+                    mLastHit = null;
+                }
+                return (V) entry.value;
+            }
+        }
+        return null;
+    }
+
+    private static Entry<?>[] purge(Entry<?>[] entries) {
+        int alive = 0;
+        for (Entry<?> entry : entries) {
+            if (entry.get() != null) {
+                ++alive;
+            }
+        }
+        if (alive == entries.length) {
+            return entries;
+        }
+        final Entry<?>[] newEntries = new Entry<?>[alive];
+        int i = 0;
+        for (Entry<?> entry : entries) {
+            if (entry.get() != null) {
+                newEntries[i++] = entry;
+            }
+        }
+        return newEntries;
+    }
+
+    /**
+     * Number of entries including ones whose keys are already collected.
+     */
+    public int size() {
+        return mEntries.length;
+    }
+}
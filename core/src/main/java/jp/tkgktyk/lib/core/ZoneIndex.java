@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Rectangular zones given in fractions of a window, compiled into integer bounds for the
+ * current window size and a coarse grid of candidate zones. Lookup checks only the zones of
+ * one grid cell and doesn't allocate. Bounds are rebuilt when the size changes or after
+ * {@link #invalidate()}.
+ * <p>
+ * Rounding is the same as android.graphics.Rect#contains with rounded coordinates.
+ */
+public class ZoneIndex {
+    public static final int NO_ZONE = -1;
+    /**
+     * Rectangles over this count are ignored, candidates of a cell are kept in a long.
+     */
+    public static final int MAX_RECTS = 64;
+    private static final int GRID_SIZE = 8;
+
+    private int mCount;
+    private final float[] mFractions = new float[MAX_RECTS * 4];
+    private final int[] mTags = new int[MAX_RECTS];
+
+    private final int[] mLeft = new int[MAX_RECTS];
+    private final int[] mTop = new int[MAX_RECTS];
+    private final int[] mRight = new int[MAX_RECTS];
+    private final int[] mBottom = new int[MAX_RECTS];
+    private final long[] mCells = new long[GRID_SIZE * GRID_SIZE];
+    private int mCellWidth;
+    private int mCellHeight;
+    private int mWidth = -1;
+    private int mHeight = -1;
+
+    public void clear() {
+        mCount = 0;
+        invalidate();
+    }
+
+    /**
+     * Earlier rectangles take precedence. Several rectangles can share a tag, like an area
+     * and its mirror.
+     *
+     * @param tag returned by {@link #findZone(float, float)}, must not be {@link #NO_ZONE}
+     * @return false if there are too many rectangles
+     */
+    public boolean addZone(float left, float top, float right, float bottom, int tag) {
+        if (mCount == MAX_RECTS) {
+            return false;
+        }
+        final int offset = mCount * 4;
+        mFractions[offset] = left;
+        mFractions[offset + 1] = top;
+        mFractions[offset + 2] = right;
+        mFractions[offset + 3] = bottom;
+        mTags[mCount] = tag;
+        ++mCount;
+        invalidate();
+        return true;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Rebuild bounds on the next lookup.
+     */
+    public void invalidate() {
+        mWidth = -1;
+        mHeight = -1;
+    }
+
+    /**
+     * Make bounds for the window size, nothing is done if the size is the same as before.
+     */
+    public void layout(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mCellWidth = Math.max(1, (width + GRID_SIZE - 1) / GRID_SIZE);
+        mCellHeight = Math.max(1, (height + GRID_SIZE - 1) / GRID_SIZE);
+        for (int i = 0; i < mCells.length; ++i) {
+            mCells[i] = 0;
+        }
+        for (int i = 0; i < mCount; ++i) {
+            final int offset = i * 4;
+            mLeft[i] = Math.round(mFractions[offset] * width);
+            mTop[i] = Math.round(mFractions[offset + 1] * height);
+            mRight[i] = Math.round(mFractions[offset + 2] * width);
+            mBottom[i] = Math.round(mFractions[offset + 3] * height);
+            if (mLeft[i] >= mRight[i] || mTop[i] >= mBottom[i]) {
+                continue;
+            }
+            final int fromX = cellX(mLeft[i]);
+            final int toX = cellX(mRight[i] - 1);
+            final int fromY = cellY(mTop[i]);
+            final int toY = cellY(mBottom[i] - 1);
+            for (int y = fromY; y <= toY; ++y) {
+                for (int x = fromX; x <= toX; ++x) {
+                    mCells[y * GRID_SIZE + x] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    private int cellX(int x) {
+        return Math.max(0, Math.min(x / mCellWidth, GRID_SIZE - 1));
+    }
+
+    private int cellY(int y) {
+        return Math.max(0, Math.min(y / mCellHeight, GRID_SIZE - 1));
+    }
+
+    /**
+     * {@link #layout(int, int)} must be called before.
+     *
+     * @return the tag of the first rectangle which contains the point, or {@link #NO_ZONE}
+     */
+    public int findZone(float x, float y) {
+        final int ix = Math.round(x);
+        final int iy = Math.round(y);
+        if (ix < 0 || iy < 0 || ix >= mWidth || iy >= mHeight) {
+            // rectangles may stick out of the window, check them all
+            return findZone(ix, iy, mCount == MAX_RECTS ? -1L : (1L << mCount) - 1);
+        }
+        return findZone(ix, iy, mCells[cellY(iy) * GRID_SIZE + cellX(ix)]);
+    }
+
+    private int findZone(int x, int y, long candidates) {
+        while (candidates != 0) {
+            final int i = Long.numberOfTrailingZeros(candidates);
+            if (x >= mLeft[i] && x < mRight[i] && y >= mTop[i] && y < mBottom[i]) {
+                return mTags[i];
+            }
+            candidates &= candidates - 1;
+        }
+        return NO_ZONE;
+    }
+}
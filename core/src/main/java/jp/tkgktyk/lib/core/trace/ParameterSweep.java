@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import jp.tkgktyk.lib.core.AbsoluteDetectorCore;
+import jp.tkgktyk.lib.core.ForceTouchListener;
+import jp.tkgktyk.lib.core.ManualScheduler;
+import jp.tkgktyk.lib.core.RelativeDetectorCore;
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Evaluates detector configurations over a labeled corpus in parallel. The work of corpus
+ * times configurations is split into blocks with fork/join, and each block replays its
+ * strokes through one detector per configuration.
+ */
+public class ParameterSweep {
+    public static final int KIND_ABSOLUTE = 0;
+    public static final int KIND_RELATIVE = 1;
+
+    /**
+     * Blocks are split until they have about this many strokes times configurations.
+     */
+    private static final int LEAF_WORK = 2048;
+
+    public static class Config {
+        public final int kind;
+        /**
+         * For {@link #KIND_RELATIVE}, one of RelativeDetectorCore.TYPE_*.
+         */
+        public final int type;
+        public final float threshold;
+        public final float magnification;
+        public final int window;
+
+        private Config(int kind, int type, float threshold, float magnification, int window) {
+            this.kind = kind;
+            this.type = type;
+            this.threshold = threshold;
+            this.magnification = magnification;
+            this.window = window;
+        }
+
+        public static Config absolute(float threshold) {
+            return new Config(KIND_ABSOLUTE, 0, threshold, 0.0f, 0);
+        }
+
+        public static Config relative(int type, float magnification, int window) {
+            return new Config(KIND_RELATIVE, type, 0.0f, magnification, window);
+        }
+
+        @Override
+        public String toString() {
+            return kind == KIND_ABSOLUTE ?
+                    String.format(Locale.US, "threshold=%.3f", threshold) :
+                    String.format(Locale.US, "magnification=%.3f window=%d",
+                            magnification, window);
+        }
+    }
+
+    public static class Score {
+        public final Config config;
+        public int truePositives;
+        public int falsePositives;
+        public int falseNegatives;
+        public int trueNegatives;
+        /**
+         * Sum of milliseconds from ACTION_DOWN to the detection of true positives.
+         */
+        public long latencySum;
+
+        Score(Config config) {
+            this.config = config;
+        }
+
+        public float getPrecision() {
+            final int detected = truePositives + falsePositives;
+            return detected == 0 ? 0.0f : (float) truePositives / detected;
+        }
+
+        public float getRecall() {
+            final int positives = truePositives + falseNegatives;
+            return positives == 0 ? 0.0f : (float) truePositives / positives;
+        }
+
+        public float getF1() {
+            final float precision = getPrecision();
+            final float recall = getRecall();
+            return precision + recall == 0.0f ? 0.0f :
+                    2.0f * precision * recall / (precision + recall);
+        }
+
+        public float getMeanLatency() {
+            return truePositives == 0 ? 0.0f : (float) latencySum / truePositives;
+        }
+
+        synchronized void add(int tp, int fp, int fn, int tn, long latency) {
+            truePositives += tp;
+            falsePositives += fp;
+            falseNegatives += fn;
+            trueNegatives += tn;
+            latencySum += latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s precision=%.3f recall=%.3f f1=%.3f latency=%.1fms",
+                    config, getPrecision(), getRecall(), getF1(), getMeanLatency());
+        }
+    }
+
+    public static List<Config> absoluteGrid(float[] thresholds) {
+        List<Config> configs = new ArrayList<>();
+        for (float threshold : thresholds) {
+            configs.add(Config.absolute(threshold));
+        }
+        return configs;
+    }
+
+    public static List<Config> relativeGrid(int type, float[] magnifications, int[] windows) {
+        List<Config> configs = new ArrayList<>();
+        for (float magnification : magnifications) {
+            for (int window : windows) {
+                configs.add(Config.relative(type, magnification, window));
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * @return from, from + step, ... until to, inclusive
+     */
+    public static float[] range(float from, float to, float step) {
+        final int count = Math.max(0, (int) Math.floor((to - from) / step + 1e-3f) + 1);
+        float[] values = new float[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = from + step * i;
+        }
+        return values;
+    }
+
+    private int mSensitivity = 9;
+    private int mExtraLongPressTimeout = 300;
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param sensitivity multiplier of the touch slop of each trace
+     */
+    public void setSensitivity(int sensitivity) {
+        mSensitivity = sensitivity;
+    }
+
+    public void setExtraLongPressTimeout(int extraLongPressTimeout) {
+        mExtraLongPressTimeout = extraLongPressTimeout;
+    }
+
+    public void setParallelism(int parallelism) {
+        mParallelism = parallelism;
+    }
+
+    /**
+     * @return scores in the order of configurations
+     */
+    public Score[] run(StrokeCorpus corpus, List<Config> configs) {
+        final Score[] scores = new Score[configs.size()];
+        for (int i = 0; i < scores.length; ++i) {
+            scores[i] = new Score(configs.get(i));
+        }
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            pool.invoke(new Block(corpus, scores, mSensitivity, mExtraLongPressTimeout,
+                    0, scores.length, 0, corpus.size()));
+        } finally {
+            pool.shutdown();
+        }
+        return scores;
+    }
+
+    /**
+     * The best F1 score, a lower latency wins a tie.
+     *
+     * @return null if there is no score of the kind
+     */
+    public static Score recommend(Score[] scores, int kind) {
+        Score best = null;
+        for (Score score : scores) {
+            if (score.config.kind != kind) {
+                continue;
+            }
+            if (best == null || score.getF1() > best.getF1() ||
+                    (score.getF1() == best.getF1() &&
+                            score.getMeanLatency() < best.getMeanLatency())) {
+                best = score;
+            }
+        }
+        return best;
+    }
+
+    private static class Block extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final StrokeCorpus mCorpus;
+        private final Score[] mScores;
+        private final int mSensitivity;
+        private final int mExtraLongPressTimeout;
+        private final int mConfigFrom;
+        private final int mConfigTo;
+        private final int mStrokeFrom;
+        private final int mStrokeTo;
+
+        Block(StrokeCorpus corpus, Score[] scores, int sensitivity, int extraLongPressTimeout,
+              int configFrom, int configTo, int strokeFrom, int strokeTo) {
+            mCorpus = corpus;
+            mScores = scores;
+            mSensitivity = sensitivity;
+            mExtraLongPressTimeout = extraLongPressTimeout;
+            mConfigFrom = configFrom;
+            mConfigTo = configTo;
+            mStrokeFrom = strokeFrom;
+            mStrokeTo = strokeTo;
+        }
+
+        @Override
+        protected void compute() {
+            final int configs = mConfigTo - mConfigFrom;
+            final int strokes = mStrokeTo - mStrokeFrom;
+            if ((long) configs * strokes <= LEAF_WORK || (configs == 1 && strokes == 1)) {
+                Evaluator evaluator = new Evaluator(mSensitivity, mExtraLongPressTimeout);
+                for (int i = mConfigFrom; i < mConfigTo; ++i) {
+                    evaluator.evaluate(mCorpus, mScores[i], mStrokeFrom, mStrokeTo);
+                }
+                return;
+            }
+            // split configurations first, a detector is set up once per block
+            if (configs > 1) {
+                final int middle = mConfigFrom + configs / 2;
+                invokeAll(split(mConfigFrom, middle, mStrokeFrom, mStrokeTo),
+                        split(middle, mConfigTo, mStrokeFrom, mStrokeTo));
+            } else {
+                final int middle = mStrokeFrom + strokes / 2;
+                invokeAll(split(mConfigFrom, mConfigTo, mStrokeFrom, middle),
+                        split(mConfigFrom, mConfigTo, middle, mStrokeTo));
+            }
+        }
+
+        private Block split(int configFrom, int configTo, int strokeFrom, int strokeTo) {
+            return new Block(mCorpus, mScores, mSensitivity, mExtraLongPressTimeout,
+                    configFrom, configTo, strokeFrom, strokeTo);
+        }
+    }
+
+    /**
+     * Replays strokes on one thread. Only the first detection of a stroke counts.
+     */
+    private static class Evaluator implements ForceTouchListener {
+        private final int mSensitivity;
+        private final int mExtraLongPressTimeout;
+        private final ManualScheduler mScheduler = new ManualScheduler();
+        private final TouchFrame mFrame = new TouchFrame();
+        private final AbsoluteDetectorCore mAbsolute =
+                new AbsoluteDetectorCore(this, TraceReplay.NO_HOST, mScheduler);
+        private final RelativeDetectorCore mRelative =
+                new RelativeDetectorCore(this, TraceReplay.NO_HOST, mScheduler);
+        private float mThreshold;
+        private long mEventTime;
+        private long mDetectedTime;
+        private boolean mDetected;
+
+        Evaluator(int sensitivity, int extraLongPressTimeout) {
+            mSensitivity = sensitivity;
+            mExtraLongPressTimeout = extraLongPressTimeout;
+        }
+
+        void evaluate(StrokeCorpus corpus, Score score, int from, int to) {
+            final Config config = score.config;
+            final boolean absolute = config.kind == KIND_ABSOLUTE;
+            if (absolute) {
+                mThreshold = config.threshold;
+                mAbsolute.setExtraLongPressTimeout(0);
+            } else {
+                // same as the xposed module
+                final int delay = 100;
+                mRelative.setExtraLongPressTimeout(mExtraLongPressTimeout);
+                mRelative.setWindowTimeInMillis(Math.max(0, config.window - delay));
+                mRelative.setWindowDelayInMillis(delay);
+                mRelative.setBlockDragging(true);
+                mRelative.setMagnification(config.magnification);
+                mRelative.setType(config.type);
+                mRelative.setSlope((config.magnification - 1.0f) * 1000 / 100,
+                        RelativeDetectorCore.DEFAULT_SLOPE_DURATION_IN_MILLIS);
+            }
+
+            int tp = 0;
+            int fp = 0;
+            int fn = 0;
+            int tn = 0;
+            long latency = 0;
+            for (int i = from; i < to; ++i) {
+                final StrokeCorpus.Stroke stroke = corpus.get(i);
+                mDetected = false;
+                if (absolute) {
+                    mAbsolute.setTouchSlop(stroke.touchSlop * mSensitivity);
+                } else {
+                    mRelative.setTouchSlop(stroke.touchSlop * mSensitivity);
+                }
+                for (int event = 0; event < stroke.eventCount; ++event) {
+                    stroke.fill(event, mFrame);
+                    mEventTime = mFrame.getEventTime();
+                    mScheduler.advanceTo(mEventTime);
+                    if (absolute) {
+                        mAbsolute.onTouchEvent(mFrame);
+                    } else {
+                        mRelative.onTouchEvent(mFrame);
+                    }
+                }
+                mScheduler.clear();
+                if (mDetected) {
+                    if (stroke.positive) {
+                        ++tp;
+                        latency += mDetectedTime - stroke.getDownTime();
+                    } else {
+                        ++fp;
+                    }
+                } else if (stroke.positive) {
+                    ++fn;
+                } else {
+                    ++tn;
+                }
+            }
+            score.add(tp, fp, fn, tn, latency);
+        }
+
+        private boolean onDetected() {
+            if (!mDetected) {
+                mDetected = true;
+                mDetectedTime = mEventTime;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onAbsoluteTouch(float x, float y, float parameter) {
+            return parameter >= mThreshold && onDetected();
+        }
+
+        @Override
+        public boolean onRelativeTouch(float x, float y, float startX, float startY) {
+            return onDetected();
+        }
+
+        @Override
+        public boolean onForceTap(float x, float y) {
+            return true;
+        }
+
+        @Override
+        public boolean onForceLongPress(float x, float y) {
+            return true;
+        }
+    }
+}
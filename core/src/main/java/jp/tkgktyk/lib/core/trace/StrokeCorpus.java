@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Labeled strokes decoded into memory once, so that they can be replayed many times from
+ * several threads. A stroke is from ACTION_DOWN to ACTION_UP or ACTION_CANCEL.
+ * <p>
+ * {@link #load(File)} takes a directory which has traces of intended force touches under
+ * {@value #POSITIVE_DIRECTORY}/ and traces of normal touches under
+ * {@value #NEGATIVE_DIRECTORY}/.
+ */
+public class StrokeCorpus {
+    public static final String POSITIVE_DIRECTORY = "positive";
+    public static final String NEGATIVE_DIRECTORY = "negative";
+
+    static class Stroke {
+        final boolean positive;
+        final int touchSlop;
+        final int eventCount;
+        final long[] eventTimes;
+        // action | action index << 8 | pointer count << 16
+        final int[] events;
+        // offset of the first pointer of each event
+        final int[] offsets;
+        final int[] pointerIds;
+        final int[] toolTypes;
+        final float[] x;
+        final float[] y;
+        final float[] parameters;
+
+        Stroke(boolean positive, int touchSlop, List<TouchFrame> frames) {
+            this.positive = positive;
+            this.touchSlop = touchSlop;
+            eventCount = frames.size();
+            eventTimes = new long[eventCount];
+            events = new int[eventCount];
+            offsets = new int[eventCount + 1];
+            for (int i = 0; i < eventCount; ++i) {
+                offsets[i + 1] = offsets[i] + frames.get(i).getPointerCount();
+            }
+            final int pointers = offsets[eventCount];
+            pointerIds = new int[pointers];
+            toolTypes = new int[pointers];
+            x = new float[pointers];
+            y = new float[pointers];
+            parameters = new float[pointers];
+            for (int i = 0; i < eventCount; ++i) {
+                final TouchFrame frame = frames.get(i);
+                final int count = frame.getPointerCount();
+                eventTimes[i] = frame.getEventTime();
+                events[i] = frame.getActionMasked() | frame.getActionIndex() << 8 | count << 16;
+                for (int index = 0; index < count; ++index) {
+                    final int pointer = offsets[i] + index;
+                    pointerIds[pointer] = frame.getPointerId(index);
+                    toolTypes[pointer] = frame.getToolType(index);
+                    x[pointer] = frame.getX(index);
+                    y[pointer] = frame.getY(index);
+                    parameters[pointer] = frame.getParameter(index);
+                }
+            }
+        }
+
+        long getDownTime() {
+            return eventTimes[0];
+        }
+
+        void fill(int event, TouchFrame frame) {
+            final int packed = events[event];
+            final int count = packed >>> 16;
+            frame.begin(packed & 0xFF, (packed >>> 8) & 0xFF, eventTimes[event], count, null);
+            final int offset = offsets[event];
+            for (int index = 0; index < count; ++index) {
+                final int pointer = offset + index;
+                frame.setPointer(index, pointerIds[pointer], toolTypes[pointer],
+                        x[pointer], y[pointer], parameters[pointer]);
+            }
+        }
+    }
+
+    private final List<Stroke> mStrokes = new ArrayList<>();
+    private int mPositiveCount;
+
+    public static StrokeCorpus load(File directory) throws IOException {
+        StrokeCorpus corpus = new StrokeCorpus();
+        corpus.addAll(new File(directory, POSITIVE_DIRECTORY), true);
+        corpus.addAll(new File(directory, NEGATIVE_DIRECTORY), false);
+        return corpus;
+    }
+
+    private void addAll(File file, boolean positive) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isDirectory() || child.getName().endsWith(TouchTrace.EXTENSION)) {
+                    addAll(child, positive);
+                }
+            }
+        } else if (file.isFile()) {
+            TraceReader reader = new TraceReader(file);
+            try {
+                add(reader, positive);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Add every stroke of the trace with the same label. An unfinished stroke at the end is
+     * dropped.
+     */
+    public void add(TraceReader reader, boolean positive) throws IOException {
+        final int touchSlop = reader.getHeader().touchSlop;
+        List<TouchFrame> frames = new ArrayList<>();
+        reader.setProcessHistory(false);
+        reader.rewind();
+        TouchFrame frame = new TouchFrame();
+        while (reader.next(frame)) {
+            final int action = frame.getActionMasked();
+            if (action == TouchFrame.ACTION_DOWN) {
+                frames.clear();
+            } else if (frames.isEmpty()) {
+                continue;
+            }
+            frames.add(frame);
+            frame = new TouchFrame();
+            if (action == TouchFrame.ACTION_UP || action == TouchFrame.ACTION_CANCEL) {
+                mStrokes.add(new Stroke(positive, touchSlop, frames));
+                if (positive) {
+                    ++mPositiveCount;
+                }
+                frames.clear();
+            }
+        }
+    }
+
+    public int size() {
+        return mStrokes.size();
+    }
+
+    public int getPositiveCount() {
+        return mPositiveCount;
+    }
+
+    Stroke get(int i) {
+        return mStrokes.get(i);
+    }
+}
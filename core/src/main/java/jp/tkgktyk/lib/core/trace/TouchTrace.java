@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+/**
+ * Binary format of recorded touch events. All values are big-endian.
+ * <pre>
+ * header:
+ *   int     magic "FTTR"
+ *   short   version
+ *   short   parameter axis, AXIS_*
+ *   short   length of device name, then its UTF-8 bytes
+ *   int     screen width in pixels
+ *   int     screen height in pixels
+ *   int     scaled touch slop of the device in pixels
+ *   long    event time which the first sample is relative to
+ * event:
+ *   ubyte   action, same as MotionEvent#getActionMasked()
+ *   ubyte   action index
+ *   ubyte   pointer count
+ *   ubyte   history size, batched samples of ACTION_MOVE
+ *   (ubyte pointer id, ubyte tool type) * pointer count
+ *   (history size + 1) rows, the last one is the current sample:
+ *     int   milliseconds from the previous row
+ *     (short x, short y, ushort parameter) * pointer count
+ * </pre>
+ * x and y are deltas from the previous sample of the same pointer id in 1/{@link #COORD_SCALE}
+ * pixels, and the parameter is absolute in 1/{@link #PARAMETER_SCALE}. So every sample of
+ * a pointer takes {@link #SAMPLE_SIZE} bytes.
+ */
+public final class TouchTrace {
+    public static final int MAGIC = 0x46545452;
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".fttrace";
+
+    public static final int AXIS_PRESSURE = 0;
+    public static final int AXIS_SIZE = 1;
+
+    public static final int COORD_SCALE = 8;
+    public static final int PARAMETER_SCALE = 8192;
+    public static final int SAMPLE_SIZE = 6;
+    /**
+     * Same as the framework, pointer ids are from 0 to this.
+     */
+    public static final int MAX_POINTER_ID = 31;
+    public static final int MAX_POINTER_COUNT = 255;
+    public static final int MAX_HISTORY_SIZE = 255;
+
+    public static class Header {
+        public String deviceName = "";
+        public int parameterAxis = AXIS_PRESSURE;
+        public int screenWidth;
+        public int screenHeight;
+        public int touchSlop;
+        public long startTime;
+
+        @Override
+        public String toString() {
+            return deviceName + " " + screenWidth + "x" + screenHeight
+                    + (parameterAxis == AXIS_SIZE ? " size" : " pressure")
+                    + " slop=" + touchSlop;
+        }
+    }
+
+    private TouchTrace() {
+    }
+}
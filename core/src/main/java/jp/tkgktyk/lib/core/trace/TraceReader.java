@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Reads a {@link TouchTrace} mapped in memory. Events are decoded directly into a reused
+ * TouchFrame, so reading doesn't allocate.
+ */
+public class TraceReader implements Closeable {
+    private final RandomAccessFile mFile;
+    private final ByteBuffer mBuffer;
+    private final TouchTrace.Header mHeader = new TouchTrace.Header();
+    private final int mEventsOffset;
+    private boolean mProcessHistory;
+
+    private long mLastTime;
+    private final int[] mX = new int[TouchTrace.MAX_POINTER_ID + 1];
+    private final int[] mY = new int[TouchTrace.MAX_POINTER_ID + 1];
+    private float[] mParameters = new float[0];
+
+    public TraceReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mFile.length());
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+        mEventsOffset = mBuffer.position();
+        rewind();
+    }
+
+    /**
+     * Decode events from memory which is already read, mainly for traces built on the fly.
+     */
+    public TraceReader(ByteBuffer buffer) throws IOException {
+        mFile = null;
+        mBuffer = buffer.duplicate();
+        readHeader();
+        mEventsOffset = mBuffer.position();
+        rewind();
+    }
+
+    private void readHeader() throws IOException {
+        try {
+            if (mBuffer.getInt() != TouchTrace.MAGIC) {
+                throw new IOException("not a touch trace");
+            }
+            final int version = mBuffer.getShort();
+            if (version != TouchTrace.VERSION) {
+                throw new IOException("unsupported version: " + version);
+            }
+            mHeader.parameterAxis = mBuffer.getShort();
+            final byte[] name = new byte[mBuffer.getShort() & 0xFFFF];
+            mBuffer.get(name);
+            mHeader.deviceName = new String(name, Charset.forName("UTF-8"));
+            mHeader.screenWidth = mBuffer.getInt();
+            mHeader.screenHeight = mBuffer.getInt();
+            mHeader.touchSlop = mBuffer.getInt();
+            mHeader.startTime = mBuffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated header");
+        }
+    }
+
+    public TouchTrace.Header getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * Fill batched samples of ACTION_MOVE into frames, otherwise they are decoded and skipped.
+     */
+    public void setProcessHistory(boolean processHistory) {
+        mProcessHistory = processHistory;
+    }
+
+    /**
+     * Go back to the first event.
+     */
+    public void rewind() {
+        mBuffer.position(mEventsOffset);
+        mLastTime = mHeader.startTime;
+        for (int i = 0; i <= TouchTrace.MAX_POINTER_ID; ++i) {
+            mX[i] = 0;
+            mY[i] = 0;
+        }
+    }
+
+    public boolean hasNext() {
+        return mBuffer.hasRemaining();
+    }
+
+    /**
+     * Decode the next event into the frame. The frame has no detection area.
+     *
+     * @return false at the end of the trace
+     * @throws IOException if the trace is truncated or broken
+     */
+    public boolean next(TouchFrame frame) throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            return false;
+        }
+        try {
+            readEvent(frame);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated event at " + mBuffer.position());
+        }
+        return true;
+    }
+
+    private void readEvent(TouchFrame frame) throws IOException {
+        final ByteBuffer buffer = mBuffer;
+        final int action = buffer.get() & 0xFF;
+        final int actionIndex = buffer.get() & 0xFF;
+        final int count = buffer.get() & 0xFF;
+        final int historySize = buffer.get() & 0xFF;
+        final int idsOffset = buffer.position();
+        final int rowsOffset = idsOffset + count * 2;
+        final int rowSize = 4 + count * TouchTrace.SAMPLE_SIZE;
+        if (buffer.limit() - rowsOffset < (historySize + 1) * rowSize) {
+            throw new IOException("truncated event at " + (idsOffset - 4));
+        }
+        if (mParameters.length < count) {
+            mParameters = new float[count];
+        }
+
+        // rows are relative to each other, so the current time is summed up first
+        long eventTime = mLastTime;
+        for (int pos = 0; pos <= historySize; ++pos) {
+            eventTime += buffer.getInt(rowsOffset + pos * rowSize);
+        }
+        frame.begin(action, actionIndex, eventTime, count, null);
+        final boolean withHistory = mProcessHistory && action == TouchFrame.ACTION_MOVE;
+        if (withHistory) {
+            frame.beginHistory(historySize);
+        }
+
+        buffer.position(rowsOffset);
+        for (int pos = 0; pos <= historySize; ++pos) {
+            mLastTime += buffer.getInt();
+            if (withHistory) {
+                frame.setHistoricalEventTime(pos, mLastTime);
+            }
+            for (int index = 0; index < count; ++index) {
+                final int id = buffer.get(idsOffset + index * 2) & 0xFF;
+                if (id > TouchTrace.MAX_POINTER_ID) {
+                    throw new IOException("invalid pointer id: " + id);
+                }
+                mX[id] += buffer.getShort();
+                mY[id] += buffer.getShort();
+                final float x = (float) mX[id] / TouchTrace.COORD_SCALE;
+                final float y = (float) mY[id] / TouchTrace.COORD_SCALE;
+                final float parameter = (float) (buffer.getShort() & 0xFFFF)
+                        / TouchTrace.PARAMETER_SCALE;
+                if (withHistory) {
+                    frame.setHistoricalSample(index, pos, x, y, parameter);
+                }
+                if (pos == historySize) {
+                    // detectors which don't walk history read the last batched sample
+                    frame.setPointer(index, id, buffer.get(idsOffset + index * 2 + 1) & 0xFF,
+                            x, y, historySize == 0 ? parameter : mParameters[index]);
+                }
+                mParameters[index] = parameter;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mFile != null) {
+            mFile.close();
+        }
+    }
+}
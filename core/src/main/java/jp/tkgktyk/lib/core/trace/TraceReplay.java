@@ -0,0 +1,349 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import jp.tkgktyk.lib.core.AbsoluteDetectorCore;
+import jp.tkgktyk.lib.core.EventHost;
+import jp.tkgktyk.lib.core.ForceTouchListener;
+import jp.tkgktyk.lib.core.ForceTouchScreenCore;
+import jp.tkgktyk.lib.core.ManualScheduler;
+import jp.tkgktyk.lib.core.RelativeDetectorCore;
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Feeds traces through the absolute, relative and screen detectors as fast as possible and
+ * counts their detections. Timeouts follow event times, not the wall clock.
+ * <p>
+ * Usage: TraceReplay [options] trace-or-directory...
+ */
+public class TraceReplay {
+    static final EventHost NO_HOST = new EventHost() {
+        @Override
+        public void saveCancelEvent() {
+        }
+
+        @Override
+        public void sendCancelEvent() {
+        }
+
+        @Override
+        public void releaseCancelEvent() {
+        }
+
+        @Override
+        public void recordMotion() {
+        }
+
+        @Override
+        public void rewindMotions() {
+        }
+
+        @Override
+        public void clearMotions() {
+        }
+    };
+
+    public static class Result {
+        public int traces;
+        public int strokes;
+        public long events;
+        public int absoluteTouches;
+        public int relativeTouches;
+        public int forceTaps;
+        public int forceLongPresses;
+        public int screenTouches;
+        public long elapsedNanos;
+
+        public double getEventsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : events * 1e9 / elapsedNanos;
+        }
+
+        public void add(Result result) {
+            traces += result.traces;
+            strokes += result.strokes;
+            events += result.events;
+            absoluteTouches += result.absoluteTouches;
+            relativeTouches += result.relativeTouches;
+            forceTaps += result.forceTaps;
+            forceLongPresses += result.forceLongPresses;
+            screenTouches += result.screenTouches;
+            elapsedNanos += result.elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "strokes=%d events=%d absolute=%d relative=%d tap=%d long_press=%d"
+                            + " screen=%d %.1fms %.0f events/s",
+                    strokes, events, absoluteTouches, relativeTouches, forceTaps,
+                    forceLongPresses, screenTouches, elapsedNanos / 1e6, getEventsPerSecond());
+        }
+    }
+
+    private float mThreshold = 1.0f;
+    private float mMagnification = 1.4f;
+    private int mType = RelativeDetectorCore.TYPE_WIGGLE;
+    private int mSensitivity = 9;
+    private int mDetectionWindow = 500;
+    private int mExtraLongPressTimeout = 300;
+    private boolean mProcessHistory;
+
+    /**
+     * Parameter which an absolute touch needs.
+     */
+    public void setThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    public void setMagnification(float magnification) {
+        mMagnification = magnification;
+    }
+
+    /**
+     * @param type one of RelativeDetectorCore.TYPE_*
+     */
+    public void setType(int type) {
+        mType = type;
+    }
+
+    /**
+     * @param sensitivity multiplier of the touch slop in the trace header
+     */
+    public void setSensitivity(int sensitivity) {
+        mSensitivity = sensitivity;
+    }
+
+    public void setDetectionWindow(int detectionWindow) {
+        mDetectionWindow = detectionWindow;
+    }
+
+    public void setExtraLongPressTimeout(int extraLongPressTimeout) {
+        mExtraLongPressTimeout = extraLongPressTimeout;
+    }
+
+    public void setProcessHistory(boolean processHistory) {
+        mProcessHistory = processHistory;
+    }
+
+    public Result replay(TraceReader reader) throws IOException {
+        final Result result = new Result();
+        final ManualScheduler scheduler = new ManualScheduler();
+        final ForceTouchListener listener = new ForceTouchListener() {
+            @Override
+            public boolean onAbsoluteTouch(float x, float y, float parameter) {
+                if (parameter < mThreshold) {
+                    return false;
+                }
+                ++result.absoluteTouches;
+                return true;
+            }
+
+            @Override
+            public boolean onRelativeTouch(float x, float y, float startX, float startY) {
+                ++result.relativeTouches;
+                return true;
+            }
+
+            @Override
+            public boolean onForceTap(float x, float y) {
+                ++result.forceTaps;
+                return true;
+            }
+
+            @Override
+            public boolean onForceLongPress(float x, float y) {
+                ++result.forceLongPresses;
+                return true;
+            }
+        };
+        final ForceTouchScreenCore.Listener screenListener = new ForceTouchScreenCore.Listener() {
+            @Override
+            public boolean onForceTouchBegin(float x, float y, float startX, float startY) {
+                ++result.screenTouches;
+                return true;
+            }
+
+            @Override
+            public void onForceTouchDown(float x, float y, int count) {
+            }
+
+            @Override
+            public void onForceTouchUp(float x, float y, int count) {
+            }
+
+            @Override
+            public void onForceTouchEnd(float x, float y, int count) {
+            }
+
+            @Override
+            public void onForceTouchCancel(float x, float y, int count) {
+            }
+        };
+
+        final int touchSlop = reader.getHeader().touchSlop * mSensitivity;
+        // same as the xposed module
+        final int delay = 100;
+        final int window = Math.max(0, mDetectionWindow - delay);
+        final float slope = (mMagnification - 1.0f) * 1000 / 100;
+
+        AbsoluteDetectorCore absolute = new AbsoluteDetectorCore(listener, NO_HOST, scheduler);
+        absolute.setTouchSlop(touchSlop);
+        absolute.setExtraLongPressTimeout(0);
+
+        RelativeDetectorCore relative = new RelativeDetectorCore(listener, NO_HOST, scheduler);
+        relative.setTouchSlop(touchSlop);
+        relative.setExtraLongPressTimeout(mExtraLongPressTimeout);
+        relative.setWindowTimeInMillis(window);
+        relative.setWindowDelayInMillis(delay);
+        relative.setBlockDragging(true);
+        relative.setMagnification(mMagnification);
+        relative.setType(mType);
+        relative.setSlope(slope, RelativeDetectorCore.DEFAULT_SLOPE_DURATION_IN_MILLIS);
+        relative.setProcessHistory(mProcessHistory);
+
+        ForceTouchScreenCore screen = new ForceTouchScreenCore(screenListener, NO_HOST);
+        screen.setWindowTimeInMillis(window);
+        screen.setWindowDelayInMillis(delay);
+        screen.setMagnification(mMagnification);
+        screen.setType(mType);
+        screen.setSlope(slope, ForceTouchScreenCore.DEFAULT_SLOPE_DURATION_IN_MILLIS);
+        screen.setProcessHistory(mProcessHistory);
+
+        reader.setProcessHistory(mProcessHistory);
+        reader.rewind();
+        final TouchFrame frame = new TouchFrame();
+        final long start = System.nanoTime();
+        while (reader.next(frame)) {
+            scheduler.advanceTo(frame.getEventTime());
+            if (frame.getActionMasked() == TouchFrame.ACTION_DOWN) {
+                ++result.strokes;
+            }
+            ++result.events;
+            absolute.onTouchEvent(frame);
+            relative.onTouchEvent(frame);
+            screen.onTouchEvent(frame);
+        }
+        // fire timeouts of a stroke left open at the end of the trace
+        scheduler.advanceTo(Long.MAX_VALUE);
+        result.elapsedNanos = System.nanoTime() - start;
+        result.traces = 1;
+        return result;
+    }
+
+    public Result replay(File file) throws IOException {
+        TraceReader reader = new TraceReader(file);
+        try {
+            return replay(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isDirectory() || child.getName().endsWith(TouchTrace.EXTENSION)) {
+                    collect(child, files);
+                }
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: TraceReplay [--threshold F] [--magnification F]"
+                + " [--type wiggle|scratch|slope] [--sensitivity N] [--window MS]"
+                + " [--history] [--verbose] trace-or-directory...");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) {
+        TraceReplay replay = new TraceReplay();
+        boolean verbose = false;
+        List<File> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                final String arg = args[i];
+                if (arg.equals("--threshold")) {
+                    replay.setThreshold(Float.parseFloat(args[++i]));
+                } else if (arg.equals("--magnification")) {
+                    replay.setMagnification(Float.parseFloat(args[++i]));
+                } else if (arg.equals("--type")) {
+                    final String type = args[++i];
+                    if (type.equals("wiggle")) {
+                        replay.setType(RelativeDetectorCore.TYPE_WIGGLE);
+                    } else if (type.equals("scratch")) {
+                        replay.setType(RelativeDetectorCore.TYPE_SCRATCH);
+                    } else if (type.equals("slope")) {
+                        replay.setType(RelativeDetectorCore.TYPE_SLOPE);
+                    } else {
+                        usage();
+                    }
+                } else if (arg.equals("--sensitivity")) {
+                    replay.setSensitivity(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--window")) {
+                    replay.setDetectionWindow(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--history")) {
+                    replay.setProcessHistory(true);
+                } else if (arg.equals("--verbose")) {
+                    verbose = true;
+                } else if (arg.startsWith("--")) {
+                    usage();
+                } else {
+                    collect(new File(arg), files);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (files.isEmpty()) {
+            usage();
+        }
+
+        Result total = new Result();
+        int errors = 0;
+        for (File file : files) {
+            try {
+                Result result = replay.replay(file);
+                if (verbose) {
+                    System.out.println(file + ": " + result);
+                }
+                total.add(result);
+            } catch (IOException e) {
+                System.err.println(file + ": " + e.getMessage());
+                ++errors;
+            }
+        }
+        System.out.println("traces=" + total.traces + " " + total);
+        if (errors != 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import jp.tkgktyk.lib.core.RelativeDetectorCore;
+
+/**
+ * Sweeps thresholds, magnifications and detection windows over a labeled corpus and
+ * prints precision, recall and latency of each configuration as CSV, followed by the
+ * recommended settings.
+ * <p>
+ * Usage: TraceTuner [options] corpus-directory, see {@link StrokeCorpus#load(File)}.
+ */
+public class TraceTuner {
+    private static void usage() {
+        System.err.println("usage: TraceTuner [--type wiggle|scratch|slope]"
+                + " [--thresholds FROM:TO:STEP] [--magnifications FROM:TO:STEP]"
+                + " [--windows FROM:TO:STEP] [--sensitivity N] [--threads N] corpus-directory");
+        System.exit(2);
+    }
+
+    private static float[] parseRange(String range) {
+        String[] values = range.split(":");
+        if (values.length != 3) {
+            throw new NumberFormatException(range);
+        }
+        return ParameterSweep.range(Float.parseFloat(values[0]), Float.parseFloat(values[1]),
+                Float.parseFloat(values[2]));
+    }
+
+    public static void main(String[] args) {
+        ParameterSweep sweep = new ParameterSweep();
+        int type = RelativeDetectorCore.TYPE_WIGGLE;
+        float[] thresholds = ParameterSweep.range(0.1f, 2.0f, 0.05f);
+        float[] magnifications = null;
+        float[] windows = ParameterSweep.range(200, 1000, 100);
+        File directory = null;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                final String arg = args[i];
+                if (arg.equals("--type")) {
+                    final String name = args[++i];
+                    if (name.equals("wiggle")) {
+                        type = RelativeDetectorCore.TYPE_WIGGLE;
+                    } else if (name.equals("scratch")) {
+                        type = RelativeDetectorCore.TYPE_SCRATCH;
+                    } else if (name.equals("slope")) {
+                        type = RelativeDetectorCore.TYPE_SLOPE;
+                    } else {
+                        usage();
+                    }
+                } else if (arg.equals("--thresholds")) {
+                    thresholds = parseRange(args[++i]);
+                } else if (arg.equals("--magnifications")) {
+                    magnifications = parseRange(args[++i]);
+                } else if (arg.equals("--windows")) {
+                    windows = parseRange(args[++i]);
+                } else if (arg.equals("--sensitivity")) {
+                    sweep.setSensitivity(Integer.parseInt(args[++i]));
+                } else if (arg.equals("--threads")) {
+                    sweep.setParallelism(Integer.parseInt(args[++i]));
+                } else if (arg.startsWith("--") || directory != null) {
+                    usage();
+                } else {
+                    directory = new File(arg);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (directory == null) {
+            usage();
+        }
+        if (magnifications == null) {
+            // scratch touch detects falling
+            magnifications = type == RelativeDetectorCore.TYPE_SCRATCH ?
+                    ParameterSweep.range(0.3f, 0.95f, 0.05f) :
+                    ParameterSweep.range(1.1f, 2.5f, 0.05f);
+        }
+        int[] windowValues = new int[windows.length];
+        for (int i = 0; i < windows.length; ++i) {
+            windowValues[i] = Math.round(windows[i]);
+        }
+
+        StrokeCorpus corpus;
+        try {
+            corpus = StrokeCorpus.load(directory);
+        } catch (IOException e) {
+            System.err.println(directory + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (corpus.size() == 0) {
+            System.err.println(directory + ": no strokes");
+            System.exit(1);
+        }
+
+        List<ParameterSweep.Config> configs = new ArrayList<>();
+        configs.addAll(ParameterSweep.absoluteGrid(thresholds));
+        configs.addAll(ParameterSweep.relativeGrid(type, magnifications, windowValues));
+        final long start = System.nanoTime();
+        ParameterSweep.Score[] scores = sweep.run(corpus, configs);
+        final long elapsed = System.nanoTime() - start;
+
+        System.out.println("kind,threshold,magnification,window,precision,recall,f1,latency_ms");
+        for (ParameterSweep.Score score : scores) {
+            final ParameterSweep.Config config = score.config;
+            System.out.println(String.format(Locale.US, "%s,%.3f,%.3f,%d,%.4f,%.4f,%.4f,%.1f",
+                    config.kind == ParameterSweep.KIND_ABSOLUTE ? "absolute" : "relative",
+                    config.threshold, config.magnification, config.window,
+                    score.getPrecision(), score.getRecall(), score.getF1(),
+                    score.getMeanLatency()));
+        }
+        System.out.println(String.format(Locale.US,
+                "# %d strokes (%d positive) x %d configurations in %.1fms",
+                corpus.size(), corpus.getPositiveCount(), configs.size(), elapsed / 1e6));
+
+        ParameterSweep.Score absolute = ParameterSweep.recommend(scores,
+                ParameterSweep.KIND_ABSOLUTE);
+        if (absolute != null) {
+            System.out.println("# absolute: " + absolute);
+            System.out.println(String.format(Locale.US, "# key_force_touch_threshold=%.3f",
+                    absolute.config.threshold));
+        }
+        ParameterSweep.Score relative = ParameterSweep.recommend(scores,
+                ParameterSweep.KIND_RELATIVE);
+        if (relative != null) {
+            System.out.println("# relative: " + relative);
+            System.out.println(String.format(Locale.US, "# %s=%.3f",
+                    type == RelativeDetectorCore.TYPE_SCRATCH ?
+                            "key_scratch_touch_magnification" : "key_wiggle_touch_magnification",
+                    relative.config.magnification));
+            System.out.println("# key_detection_window=" + relative.config.window);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib.core.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Writes frames to a {@link TouchTrace}. Frames should be extracted with history so that
+ * the trace can be replayed in both modes.
+ * The header is written with the first frame, whose time becomes the start time.
+ */
+public class TraceWriter implements Closeable {
+    private final DataOutputStream mOut;
+    private final TouchTrace.Header mHeader;
+    private boolean mHeaderWritten;
+    private long mLastTime;
+    // last written values of each pointer id, in the scale of the trace
+    private final int[] mX = new int[TouchTrace.MAX_POINTER_ID + 1];
+    private final int[] mY = new int[TouchTrace.MAX_POINTER_ID + 1];
+
+    public TraceWriter(OutputStream out, TouchTrace.Header header) {
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        mHeader = header;
+    }
+
+    private void writeHeader(long startTime) throws IOException {
+        mHeader.startTime = startTime;
+        mOut.writeInt(TouchTrace.MAGIC);
+        mOut.writeShort(TouchTrace.VERSION);
+        mOut.writeShort(mHeader.parameterAxis);
+        final byte[] name = mHeader.deviceName.getBytes(Charset.forName("UTF-8"));
+        mOut.writeShort(name.length);
+        mOut.write(name);
+        mOut.writeInt(mHeader.screenWidth);
+        mOut.writeInt(mHeader.screenHeight);
+        mOut.writeInt(mHeader.touchSlop);
+        mOut.writeLong(startTime);
+        mHeaderWritten = true;
+        mLastTime = startTime;
+    }
+
+    /**
+     * Batched samples over {@link TouchTrace#MAX_HISTORY_SIZE} are dropped from the oldest.
+     *
+     * @throws IllegalArgumentException if pointers can't be represented in the trace
+     */
+    public void write(TouchFrame frame) throws IOException {
+        final int count = frame.getPointerCount();
+        if (count > TouchTrace.MAX_POINTER_COUNT) {
+            throw new IllegalArgumentException("too many pointers: " + count);
+        }
+        final int historySize = frame.getHistorySize();
+        final int first = Math.max(0, historySize - TouchTrace.MAX_HISTORY_SIZE);
+        if (!mHeaderWritten) {
+            writeHeader(frame.getHistoricalEventTime(first));
+        }
+
+        mOut.writeByte(frame.getActionMasked());
+        mOut.writeByte(frame.getActionIndex());
+        mOut.writeByte(count);
+        mOut.writeByte(historySize - first);
+        for (int index = 0; index < count; ++index) {
+            final int id = frame.getPointerId(index);
+            if (id < 0 || id > TouchTrace.MAX_POINTER_ID) {
+                throw new IllegalArgumentException("invalid pointer id: " + id);
+            }
+            mOut.writeByte(id);
+            mOut.writeByte(frame.getToolType(index));
+        }
+        for (int pos = first; pos <= historySize; ++pos) {
+            final long time = frame.getHistoricalEventTime(pos);
+            mOut.writeInt((int) (time - mLastTime));
+            mLastTime = time;
+            for (int index = 0; index < count; ++index) {
+                final int id = frame.getPointerId(index);
+                mX[id] += writeDelta(frame.getHistoricalX(index, pos), mX[id]);
+                mY[id] += writeDelta(frame.getHistoricalY(index, pos), mY[id]);
+                final int parameter = Math.round(frame.getHistoricalParameter(index, pos)
+                        * TouchTrace.PARAMETER_SCALE);
+                mOut.writeShort(Math.max(0, Math.min(parameter, 0xFFFF)));
+            }
+        }
+    }
+
+    /**
+     * A delta over the range is clamped and the rest is carried by the next sample.
+     *
+     * @return the written delta
+     */
+    private int writeDelta(float value, int last) throws IOException {
+        int delta = Math.round(value * TouchTrace.COORD_SCALE) - last;
+        delta = Math.max(Short.MIN_VALUE, Math.min(delta, Short.MAX_VALUE));
+        mOut.writeShort(delta);
+        return delta;
+    }
+
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!mHeaderWritten) {
+            writeHeader(mHeader.startTime);
+        }
+        mOut.close();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Drives {@link AbsoluteDetectorCore} through {@link ManualScheduler}.
+ * It has no detection window, the long press timeout is its only deadline.
+ */
+public class AbsoluteDetectorCoreTest {
+    private static final float PRESSED = 0.2f;
+    private static final int LONG_PRESS_TIMEOUT = 500;
+    private static final int EXTRA_LONG_PRESS_TIMEOUT = 100;
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private final RecordingHost mHost = new RecordingHost();
+    private final RecordingListener mListener = new RecordingListener();
+    private AbsoluteDetectorCore mDetector;
+
+    @Before
+    public void setUp() {
+        mListener.absolute = true;
+        mDetector = new AbsoluteDetectorCore(mListener, mHost, mScheduler);
+        mDetector.setTouchSlop(10);
+        mDetector.setLongPressTimeout(LONG_PRESS_TIMEOUT);
+        mDetector.setExtraLongPressTimeout(EXTRA_LONG_PRESS_TIMEOUT);
+    }
+
+    private boolean send(TouchFrame frame) {
+        mScheduler.advanceTo(frame.getEventTime());
+        return mDetector.onTouchEvent(frame);
+    }
+
+    private boolean send(int action, long eventTime, float x) {
+        return send(Frames.one(action, eventTime, x, 100, PRESSED));
+    }
+
+    @Test
+    public void tap() {
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        assertEquals(1, mListener.absoluteTouches);
+        assertEquals(1, mHost.saved);
+        send(TouchFrame.ACTION_MOVE, 10, 105);
+        send(TouchFrame.ACTION_UP, 100, 105);
+        assertEquals(1, mListener.taps);
+        assertEquals(1, mHost.canceled);
+    }
+
+    @Test
+    public void noTapWithoutAbsoluteTouch() {
+        mListener.absolute = false;
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        assertFalse(send(TouchFrame.ACTION_UP, 100, 100));
+        assertEquals(0, mListener.taps);
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void noTapAfterDragging() {
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        send(TouchFrame.ACTION_MOVE, 10, 150);
+        assertEquals(0, mScheduler.getPendingCount());
+        send(TouchFrame.ACTION_UP, 100, 150);
+        assertEquals(0, mListener.taps);
+    }
+
+    @Test
+    public void longPressAtDeadline() {
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        final long deadline = LONG_PRESS_TIMEOUT + EXTRA_LONG_PRESS_TIMEOUT;
+        mScheduler.advanceTo(deadline - 1);
+        assertEquals(0, mListener.longPresses);
+        mScheduler.advanceTo(deadline);
+        assertEquals(1, mListener.longPresses);
+        assertEquals(1, mHost.canceled);
+        send(TouchFrame.ACTION_UP, deadline + 100, 100);
+        assertEquals(0, mListener.taps);
+    }
+
+    @Test
+    public void longPressNotClickable() {
+        mDetector.setLongClickable(false);
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        mScheduler.advanceTo(10000);
+        assertEquals(0, mListener.longPresses);
+        // the timeout still ends the chance of a tap
+        send(TouchFrame.ACTION_UP, 10100, 100);
+        assertEquals(1, mListener.taps);
+    }
+
+    @Test
+    public void secondPointerDoesNotTap() {
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        mListener.absolute = false;
+        send(Frames.two(TouchFrame.ACTION_POINTER_DOWN, 10, PRESSED, 0.1f));
+        send(Frames.two(TouchFrame.ACTION_POINTER_UP, 20, PRESSED, 0.1f));
+        assertEquals(0, mListener.taps);
+        send(TouchFrame.ACTION_UP, 30, 100);
+        assertEquals(1, mListener.taps);
+    }
+
+    @Test
+    public void cancel() {
+        send(TouchFrame.ACTION_DOWN, 0, 100);
+        send(TouchFrame.ACTION_CANCEL, 10, 100);
+        assertEquals(0, mScheduler.getPendingCount());
+        mScheduler.advanceTo(10000);
+        assertEquals(0, mListener.longPresses);
+        assertEquals(0, mListener.taps);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The touch path of the cores must not allocate once pointer slots and timers are warmed up.
+ * Heap allocation of the test thread is read from HotSpot, the test is skipped elsewhere.
+ */
+public class AllocationTest {
+    private static final int WARM_UP_STROKES = 2000;
+    private static final int STROKES = 1000;
+    private static final int MOVES = 20;
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+    private final TouchFrame mFrame = new TouchFrame();
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private final RecordingHost mHost = new RecordingHost();
+    private final RecordingListener mListener = new RecordingListener();
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private long allocatedBytes() {
+        return mThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return bytes allocated by the strokes beyond the cost of measuring
+     */
+    private long measure(Runnable stroke) {
+        for (int i = 0; i < WARM_UP_STROKES; ++i) {
+            stroke.run();
+        }
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+        final long start = allocatedBytes();
+        for (int i = 0; i < STROKES; ++i) {
+            stroke.run();
+        }
+        return allocatedBytes() - start - overhead;
+    }
+
+    /**
+     * A force touch followed by two finger moves and a tap, parameters rise at the middle.
+     */
+    private void stroke(Core core) {
+        mTime += 1000;
+        mScheduler.advanceTo(mTime);
+        core.onTouchEvent(Frames.one(mFrame, TouchFrame.ACTION_DOWN, mTime, 100, 100, 0.1f));
+        for (int i = 1; i <= MOVES; ++i) {
+            final float parameter = i < MOVES / 2 ? 0.1f : 0.3f;
+            mScheduler.advanceTo(mTime + i * 10);
+            core.onTouchEvent(Frames.one(mFrame, TouchFrame.ACTION_MOVE, mTime + i * 10,
+                    100, 100, parameter));
+        }
+        core.onTouchEvent(Frames.one(mFrame, TouchFrame.ACTION_UP, mTime + MOVES * 10 + 10,
+                100, 100, 0.1f));
+    }
+
+    private interface Core {
+        void onTouchEvent(TouchFrame frame);
+    }
+
+    @Test
+    public void relativeDetectorCore() {
+        final RelativeDetectorCore detector = new RelativeDetectorCore(mListener, mHost,
+                mScheduler);
+        detector.setType(RelativeDetectorCore.TYPE_WIGGLE);
+        detector.setMagnification(1.4f);
+        detector.setTouchSlop(10);
+        detector.setWindowTimeInMillis(-1);
+        final Core core = new Core() {
+            @Override
+            public void onTouchEvent(TouchFrame frame) {
+                detector.onTouchEvent(frame);
+            }
+        };
+        assertEquals(0, measure(new Runnable() {
+            @Override
+            public void run() {
+                stroke(core);
+            }
+        }));
+        assertEquals(WARM_UP_STROKES + STROKES, mListener.taps);
+    }
+
+    @Test
+    public void relativeDetectorCoreWithBaselineAndSlope() {
+        final RelativeDetectorCore detector = new RelativeDetectorCore(mListener, mHost,
+                mScheduler);
+        detector.setType(RelativeDetectorCore.TYPE_SLOPE);
+        detector.setBaselineSamples(4);
+        detector.setTouchSlop(10);
+        detector.setWindowTimeInMillis(-1);
+        final Core core = new Core() {
+            @Override
+            public void onTouchEvent(TouchFrame frame) {
+                detector.onTouchEvent(frame);
+            }
+        };
+        assertEquals(0, measure(new Runnable() {
+            @Override
+            public void run() {
+                stroke(core);
+            }
+        }));
+    }
+
+    @Test
+    public void absoluteDetectorCore() {
+        mListener.absolute = true;
+        final AbsoluteDetectorCore detector = new AbsoluteDetectorCore(mListener, mHost,
+                mScheduler);
+        detector.setTouchSlop(10);
+        final Core core = new Core() {
+            @Override
+            public void onTouchEvent(TouchFrame frame) {
+                detector.onTouchEvent(frame);
+            }
+        };
+        assertEquals(0, measure(new Runnable() {
+            @Override
+            public void run() {
+                stroke(core);
+            }
+        }));
+        assertEquals(WARM_UP_STROKES + STROKES, mListener.taps);
+    }
+
+    @Test
+    public void forceTouchScreenCore() {
+        final ForceTouchScreenCore detector = new ForceTouchScreenCore(
+                new ForceTouchScreenCore.Listener() {
+                    @Override
+                    public boolean onForceTouchBegin(float x, float y, float startX,
+                                                     float startY) {
+                        return true;
+                    }
+
+                    @Override
+                    public void onForceTouchDown(float x, float y, int count) {
+                    }
+
+                    @Override
+                    public void onForceTouchUp(float x, float y, int count) {
+                    }
+
+                    @Override
+                    public void onForceTouchEnd(float x, float y, int count) {
+                    }
+
+                    @Override
+                    public void onForceTouchCancel(float x, float y, int count) {
+                    }
+                }, mHost);
+        detector.setType(ForceTouchScreenCore.TYPE_WIGGLE);
+        detector.setMagnification(1.4f);
+        detector.setWindowTimeInMillis(-1);
+        final Core core = new Core() {
+            @Override
+            public void onTouchEvent(TouchFrame frame) {
+                detector.onTouchEvent(frame);
+            }
+        };
+        assertEquals(0, measure(new Runnable() {
+            @Override
+            public void run() {
+                stroke(core);
+            }
+        }));
+    }
+}
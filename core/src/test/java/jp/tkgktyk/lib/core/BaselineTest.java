@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The baseline of {@link RelativeDetectorCore} follows a stable contact but not a press.
+ */
+public class BaselineTest {
+    private static final long INTERVAL = 10;
+
+    private final TouchFrame mFrame = new TouchFrame();
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private final RecordingListener mListener = new RecordingListener();
+    private RelativeDetectorCore mDetector;
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        mDetector = new RelativeDetectorCore(mListener, new RecordingHost(), mScheduler);
+        mDetector.setType(RelativeDetectorCore.TYPE_WIGGLE);
+        mDetector.setMagnification(1.4f);
+        mDetector.setTouchSlop(10);
+        mDetector.setWindowTimeInMillis(-1);
+        mDetector.setLongPressTimeout(100000);
+        mDetector.setBaselineSamples(8);
+    }
+
+    private void down(float parameter) {
+        mDetector.onTouchEvent(Frames.one(mFrame, TouchFrame.ACTION_DOWN, mTime,
+                100, 100, parameter));
+    }
+
+    private void move(float parameter) {
+        mTime += INTERVAL;
+        mScheduler.advanceTo(mTime);
+        mDetector.onTouchEvent(Frames.one(mFrame, TouchFrame.ACTION_MOVE, mTime,
+                100, 100, parameter));
+    }
+
+    @Test
+    public void slowPressFires() {
+        down(0.1f);
+        // rises far slower than the average can lag behind
+        for (int i = 1; i <= 400; ++i) {
+            move(0.1f + i * 0.0005f);
+        }
+        assertEquals(1, mListener.relativeTouches);
+    }
+
+    @Test
+    public void stableContactDoesNotFire() {
+        down(0.1f);
+        for (int i = 1; i <= 400; ++i) {
+            move(i % 2 == 0 ? 0.105f : 0.095f);
+        }
+        assertEquals(0, mListener.relativeTouches);
+    }
+
+    @Test
+    public void pressAfterStableContactFires() {
+        down(0.1f);
+        for (int i = 1; i <= 50; ++i) {
+            move(i % 2 == 0 ? 0.105f : 0.095f);
+        }
+        for (int i = 1; i <= 10; ++i) {
+            move(0.1f + i * 0.01f);
+        }
+        assertEquals(1, mListener.relativeTouches);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link ForceTouchScreenCore}. It has no timer, so the window deadline is the only
+ * time it depends on. Tap and long press are left to the listener, they are seen here as
+ * the end of a press.
+ */
+public class ForceTouchScreenCoreTest {
+    private static final float BASE = 0.1f;
+    private static final float PRESSED = 0.2f;
+    private static final int WINDOW_TIME = 200;
+
+    private final RecordingHost mHost = new RecordingHost();
+    private ForceTouchScreenCore mDetector;
+    private int mBegins;
+    private int mDowns;
+    private int mUps;
+    private int mEnds;
+    private int mCancels;
+    private int mLastCount;
+
+    @Before
+    public void setUp() {
+        mDetector = new ForceTouchScreenCore(new ForceTouchScreenCore.Listener() {
+            @Override
+            public boolean onForceTouchBegin(float x, float y, float startX, float startY) {
+                ++mBegins;
+                return true;
+            }
+
+            @Override
+            public void onForceTouchDown(float x, float y, int count) {
+                ++mDowns;
+                mLastCount = count;
+            }
+
+            @Override
+            public void onForceTouchUp(float x, float y, int count) {
+                ++mUps;
+                mLastCount = count;
+            }
+
+            @Override
+            public void onForceTouchEnd(float x, float y, int count) {
+                ++mEnds;
+                mLastCount = count;
+            }
+
+            @Override
+            public void onForceTouchCancel(float x, float y, int count) {
+                ++mCancels;
+                mLastCount = count;
+            }
+        }, mHost);
+        mDetector.setType(ForceTouchScreenCore.TYPE_WIGGLE);
+        mDetector.setMagnification(1.4f);
+        mDetector.setWindowTimeInMillis(WINDOW_TIME);
+    }
+
+    private boolean send(int action, long eventTime, float parameter) {
+        return mDetector.onTouchEvent(Frames.one(action, eventTime, 100, 100, parameter));
+    }
+
+    @Test
+    public void singlePress() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        assertTrue(send(TouchFrame.ACTION_MOVE, 20, PRESSED));
+        assertEquals(1, mBegins);
+        assertEquals(1, mHost.canceled);
+        send(TouchFrame.ACTION_UP, 100, BASE);
+        assertEquals(1, mEnds);
+        assertEquals(1, mLastCount);
+    }
+
+    @Test
+    public void repeatedPress() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, PRESSED);
+        send(TouchFrame.ACTION_MOVE, 40, BASE);
+        assertEquals(1, mUps);
+        // the window is kept open after the first press
+        send(TouchFrame.ACTION_MOVE, WINDOW_TIME + 100, PRESSED);
+        assertEquals(1, mDowns);
+        assertEquals(2, mLastCount);
+        send(TouchFrame.ACTION_UP, WINDOW_TIME + 200, BASE);
+        assertEquals(1, mEnds);
+        assertEquals(2, mLastCount);
+        assertEquals(1, mBegins);
+    }
+
+    @Test
+    public void noPress() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        assertFalse(send(TouchFrame.ACTION_MOVE, 20, BASE));
+        send(TouchFrame.ACTION_UP, 100, BASE);
+        assertEquals(0, mBegins);
+        assertEquals(0, mEnds);
+    }
+
+    @Test
+    public void pressBeforeWindowDeadline() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, WINDOW_TIME - 1, PRESSED);
+        assertEquals(1, mBegins);
+    }
+
+    @Test
+    public void pressAfterWindowDeadline() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 10, BASE);
+        assertFalse(send(TouchFrame.ACTION_MOVE, WINDOW_TIME, PRESSED));
+        send(TouchFrame.ACTION_UP, WINDOW_TIME + 100, BASE);
+        assertEquals(0, mBegins);
+        assertEquals(0, mEnds);
+    }
+
+    @Test
+    public void multiTouchCancel() {
+        mDetector.setCancelByMultiTouch(true);
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, PRESSED);
+        mDetector.onTouchEvent(Frames.two(TouchFrame.ACTION_POINTER_DOWN, 30, PRESSED, BASE));
+        assertEquals(1, mCancels);
+        // the rest of the stroke is ignored
+        assertFalse(mDetector.onTouchEvent(
+                Frames.two(TouchFrame.ACTION_MOVE, 40, BASE, PRESSED)));
+        send(TouchFrame.ACTION_UP, 100, BASE);
+        assertEquals(0, mEnds);
+        assertEquals(1, mBegins);
+    }
+
+    @Test
+    public void secondPointerIgnoredWhilePressed() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, PRESSED);
+        mDetector.onTouchEvent(Frames.two(TouchFrame.ACTION_POINTER_DOWN, 30, PRESSED, BASE));
+        mDetector.onTouchEvent(Frames.two(TouchFrame.ACTION_MOVE, 40, PRESSED, PRESSED));
+        assertEquals(0, mDowns);
+        assertEquals(0, mCancels);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Fills synthetic frames for tests. Pointers are fingers and everywhere is in the
+ * detection area.
+ */
+final class Frames {
+    private Frames() {
+    }
+
+    static TouchFrame one(TouchFrame frame, int action, long eventTime,
+                          float x, float y, float parameter) {
+        frame.begin(action, 0, eventTime, 1, null);
+        frame.setPointer(0, 0, TouchFrame.TOOL_TYPE_FINGER, x, y, parameter);
+        return frame;
+    }
+
+    static TouchFrame one(int action, long eventTime, float x, float y, float parameter) {
+        return one(new TouchFrame(), action, eventTime, x, y, parameter);
+    }
+
+    /**
+     * Second pointer with id 1 is the action index.
+     */
+    static TouchFrame two(int action, long eventTime, float parameter0, float parameter1) {
+        TouchFrame frame = new TouchFrame();
+        frame.begin(action, 1, eventTime, 2, null);
+        frame.setPointer(0, 0, TouchFrame.TOOL_TYPE_FINGER, 100.0f, 100.0f, parameter0);
+        frame.setPointer(1, 1, TouchFrame.TOOL_TYPE_FINGER, 300.0f, 300.0f, parameter1);
+        return frame;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GestureAutomatonTest {
+    private static final float BASE = 0.1f;
+    private static final float PRESSED = 0.2f;
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private final RecordingHost mHost = new RecordingHost();
+    private GestureAutomaton mAutomaton;
+    private int mAccepted = -1;
+    private int mAcceptCount;
+    private boolean mTake = true;
+
+    @Before
+    public void setUp() {
+        mAutomaton = new GestureAutomaton(GestureTable.compile(GestureTableTest.DOUBLE_SQUEEZE),
+                new GestureAutomaton.Listener() {
+                    @Override
+                    public boolean onGesture(int gesture, float x, float y) {
+                        mAccepted = gesture;
+                        ++mAcceptCount;
+                        return mTake;
+                    }
+                }, mHost, mScheduler);
+    }
+
+    private boolean send(int action, long eventTime, float parameter) {
+        mScheduler.advanceTo(eventTime);
+        return mAutomaton.onTouchEvent(Frames.one(action, eventTime, 100, 100, parameter));
+    }
+
+    @Test
+    public void doubleSqueeze() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        send(TouchFrame.ACTION_MOVE, 200, BASE);
+        assertEquals(0, mAcceptCount);
+        assertTrue(send(TouchFrame.ACTION_MOVE, 300, PRESSED));
+        assertEquals(0, mAccepted);
+        assertEquals(1, mHost.canceled);
+        assertEquals(0, mScheduler.getPendingCount());
+        // the rest of the stroke is consumed
+        assertTrue(send(TouchFrame.ACTION_MOVE, 400, BASE));
+        assertTrue(send(TouchFrame.ACTION_UP, 500, BASE));
+        assertEquals(1, mAcceptCount);
+    }
+
+    @Test
+    public void declinedGestureIsNotConsumed() {
+        mTake = false;
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        send(TouchFrame.ACTION_MOVE, 200, BASE);
+        assertFalse(send(TouchFrame.ACTION_MOVE, 300, PRESSED));
+        assertEquals(1, mAcceptCount);
+        assertEquals(0, mHost.canceled);
+    }
+
+    @Test
+    public void firstMatchingTransition() {
+        // 1.6 times is above 1.5 but not below 1.2, the state stays pressed
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, 0.16f);
+        send(TouchFrame.ACTION_MOVE, 200, 0.16f);
+        send(TouchFrame.ACTION_MOVE, 300, PRESSED);
+        assertEquals(0, mAcceptCount);
+    }
+
+    @Test
+    public void timeoutByTimer() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        // pressed is entered at 100 with timeout 800
+        assertEquals(1, mScheduler.getPendingCount());
+        mScheduler.advanceTo(899);
+        assertEquals(1, mScheduler.getPendingCount());
+        mScheduler.advanceTo(900);
+        assertEquals(0, mScheduler.getPendingCount());
+        send(TouchFrame.ACTION_MOVE, 1000, BASE);
+        send(TouchFrame.ACTION_MOVE, 1100, PRESSED);
+        assertEquals(0, mAcceptCount);
+    }
+
+    @Test
+    public void timeoutByEventTime() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        send(TouchFrame.ACTION_MOVE, 200, BASE);
+        // released times out at 600 even if the sample arrives before the timer runs
+        assertFalse(mAutomaton.onTouchEvent(Frames.one(TouchFrame.ACTION_MOVE, 600, 100, 100,
+                PRESSED)));
+        assertEquals(0, mAcceptCount);
+    }
+
+    @Test
+    public void timeoutToAccept() {
+        mAutomaton.setTable(GestureTable.compile(""
+                + "gesture hold\n"
+                + "idle above 1.5 -> pressed\n"
+                + "pressed below 1.2 -> fail\n"
+                + "pressed timeout 300 -> accept\n"));
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        mScheduler.advanceTo(400);
+        assertEquals(1, mAcceptCount);
+        assertEquals(1, mHost.canceled);
+    }
+
+    @Test
+    public void upAndRise() {
+        mAutomaton.setTable(GestureTable.compile(""
+                + "gesture flick_press\n"
+                + "idle rise 5 -> rising\n"
+                + "rising up -> accept\n"));
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        // 1.2 times in 100 ms is only 2 per second
+        send(TouchFrame.ACTION_MOVE, 100, 0.12f);
+        // 1.2 to 2.0 times in 100 ms is 8 per second
+        send(TouchFrame.ACTION_MOVE, 200, PRESSED);
+        assertEquals(0, mAcceptCount);
+        assertTrue(send(TouchFrame.ACTION_UP, 300, BASE));
+        assertEquals(1, mAcceptCount);
+    }
+
+    @Test
+    public void secondFingerFailsAll() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        mAutomaton.onTouchEvent(Frames.two(TouchFrame.ACTION_POINTER_DOWN, 150, BASE, BASE));
+        assertEquals(0, mScheduler.getPendingCount());
+        send(TouchFrame.ACTION_MOVE, 200, BASE);
+        send(TouchFrame.ACTION_MOVE, 300, PRESSED);
+        assertEquals(0, mAcceptCount);
+    }
+
+    @Test
+    public void nextStrokeRestarts() {
+        send(TouchFrame.ACTION_DOWN, 0, BASE);
+        send(TouchFrame.ACTION_MOVE, 100, PRESSED);
+        send(TouchFrame.ACTION_UP, 200, BASE);
+        assertEquals(0, mScheduler.getPendingCount());
+        send(TouchFrame.ACTION_DOWN, 1000, BASE);
+        send(TouchFrame.ACTION_MOVE, 1100, PRESSED);
+        send(TouchFrame.ACTION_MOVE, 1200, BASE);
+        send(TouchFrame.ACTION_MOVE, 1300, PRESSED);
+        assertEquals(1, mAcceptCount);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GestureTableTest {
+    static final String DOUBLE_SQUEEZE = ""
+            + "# press twice\n"
+            + "gesture double_squeeze action BACK\n"
+            + "idle above 1.5 -> pressed\n"
+            + "pressed below 1.2 -> released\n"
+            + "pressed timeout 800 -> fail\n"
+            + "released above 1.5 -> accept\n"
+            + "released timeout 400 -> fail\n";
+
+    private static void assertError(String spec, String message) {
+        try {
+            GestureTable.compile(spec);
+            fail("compiled: " + spec);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void compile() {
+        GestureTable table = GestureTable.compile(DOUBLE_SQUEEZE
+                + "gesture tap\n"
+                + "start up -> accept  # trailing comment\n");
+        assertEquals(2, table.getGestureCount());
+        assertEquals("double_squeeze", table.getName(0));
+        assertEquals("BACK", table.getAction(0));
+        assertEquals("tap", table.getName(1));
+        assertNull(table.getAction(1));
+        assertEquals(4, table.getStateCount());
+        assertEquals(0, table.mStartStates[0]);
+        assertEquals(3, table.mStartStates[1]);
+        // pressed has one transition and a timeout
+        assertEquals(1, table.mFirst[2] - table.mFirst[1]);
+        assertEquals(GestureTable.KIND_BELOW, table.mKinds[table.mFirst[1]]);
+        assertEquals(1.2f, table.mArgs[table.mFirst[1]], 0.0f);
+        assertEquals(800, table.mTimeouts[1]);
+        assertEquals(GestureTable.STATE_FAIL, table.mTimeoutTargets[1]);
+        assertEquals(GestureTable.NO_TIMEOUT, table.mTimeouts[0]);
+        assertEquals(GestureTable.STATE_ACCEPT, table.mTargets[table.mFirst[2]]);
+    }
+
+    @Test
+    public void emptySpec() {
+        assertEquals(0, GestureTable.compile("# nothing\n\n").getGestureCount());
+    }
+
+    @Test
+    public void transitionBeforeGesture() {
+        assertError("idle above 1.5 -> accept", "line 1: transition before gesture");
+    }
+
+    @Test
+    public void malformedGesture() {
+        assertError("gesture", "expected: gesture");
+        assertError("gesture a run BACK\nidle up -> accept", "expected: gesture");
+    }
+
+    @Test
+    public void malformedTransition() {
+        assertError("gesture a\nidle above 1.5 accept", "line 2: expected: <state>");
+        assertError("gesture a\nidle -> accept", "line 2: expected: <state>");
+    }
+
+    @Test
+    public void transitionFromReservedState() {
+        assertError("gesture a\naccept up -> fail", "no transition from accept");
+        assertError("gesture a\nfail up -> accept", "no transition from fail");
+    }
+
+    @Test
+    public void unknownPredicate() {
+        assertError("gesture a\nidle wiggle 1.5 -> accept", "unknown predicate: wiggle");
+    }
+
+    @Test
+    public void badArguments() {
+        assertError("gesture a\nidle up 1 -> accept", "up takes no argument");
+        assertError("gesture a\nidle above -> accept", "above takes one argument");
+        assertError("gesture a\nidle above x -> accept", "not a number: x");
+        assertError("gesture a\nidle above -1 -> accept", "invalid above: -1");
+        assertError("gesture a\nidle above NaN -> accept", "invalid above: NaN");
+        assertError("gesture a\nidle timeout 1.5 -> accept", "not an integer: 1.5");
+        assertError("gesture a\nidle timeout -1 -> accept", "negative timeout");
+    }
+
+    @Test
+    public void secondTimeout() {
+        assertError("gesture a\nidle timeout 10 -> accept\nidle timeout 20 -> fail",
+                "line 3: second timeout of idle");
+    }
+
+    @Test
+    public void gestureWithoutTransition() {
+        assertError("gesture a\ngesture b\nidle up -> accept", "line 2: gesture a has no");
+        assertError("gesture a", "gesture a has no transition");
+    }
+
+    @Test
+    public void danglingState() {
+        assertError("gesture a\nidle above 1.5 -> pressed",
+                "state pressed of gesture a has no transition");
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlobalGestureFilterTest {
+    private static final float BASE = 0.1f;
+    private static final float PRESSED = 0.2f;
+    private static final int LONG_PRESS_TIMEOUT = 500;
+
+    /**
+     * Events are numbered, retained copies are negative.
+     */
+    private static class FakeSource implements GlobalGestureFilter.InputSource<Integer> {
+        final ArrayList<Integer> canceled = new ArrayList<>();
+        int retained;
+        int released;
+
+        @Override
+        public Integer retain(Integer event) {
+            ++retained;
+            return -event;
+        }
+
+        @Override
+        public void release(Integer event) {
+            ++released;
+        }
+
+        @Override
+        public void sendCancel(Integer event) {
+            canceled.add(event);
+        }
+    }
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private final FakeSource mSource = new FakeSource();
+    private final RecordingListener mListener = new RecordingListener();
+    private GlobalGestureFilter<Integer> mFilter;
+    private int mEvent;
+
+    @Before
+    public void setUp() {
+        mFilter = new GlobalGestureFilter<>(mListener, mSource, mScheduler);
+        RelativeDetectorCore core = mFilter.getCore();
+        core.setType(RelativeDetectorCore.TYPE_WIGGLE);
+        core.setMagnification(1.4f);
+        core.setTouchSlop(10);
+        core.setWindowTimeInMillis(-1);
+        core.setLongPressTimeout(LONG_PRESS_TIMEOUT);
+    }
+
+    private boolean filter(int action, long eventTime, float parameter) {
+        mScheduler.advanceTo(eventTime);
+        return mFilter.filter(++mEvent, Frames.one(action, eventTime, 100, 100, parameter));
+    }
+
+    @Test
+    public void passThroughWithoutGesture() {
+        assertTrue(filter(TouchFrame.ACTION_DOWN, 0, BASE));
+        assertTrue(filter(TouchFrame.ACTION_MOVE, 10, BASE));
+        assertTrue(filter(TouchFrame.ACTION_UP, 20, BASE));
+        assertEquals(0, mSource.canceled.size());
+        assertEquals(0, mSource.retained);
+    }
+
+    @Test
+    public void relativeTouchPassesUntilHandled() {
+        assertTrue(filter(TouchFrame.ACTION_DOWN, 0, BASE));
+        // the windows still get the press, the cancel event is kept
+        assertTrue(filter(TouchFrame.ACTION_MOVE, 10, PRESSED));
+        assertEquals(1, mListener.relativeTouches);
+        assertEquals(1, mSource.retained);
+        assertEquals(0, mSource.canceled.size());
+        assertFalse(mFilter.isTakenOver());
+    }
+
+    @Test
+    public void tapCancelsOnceAndDropsTheRest() {
+        filter(TouchFrame.ACTION_DOWN, 0, BASE);
+        filter(TouchFrame.ACTION_MOVE, 10, PRESSED);
+        // the tap is handled on up, so the up itself is dropped
+        assertFalse(filter(TouchFrame.ACTION_UP, 20, BASE));
+        assertEquals(1, mListener.taps);
+        assertEquals(1, mSource.canceled.size());
+        // the cancel is made from the event of the relative touch
+        assertEquals(Integer.valueOf(-2), mSource.canceled.get(0));
+        assertEquals(mSource.retained, mSource.released);
+    }
+
+    @Test
+    public void longPressCancelsOnceAndDropsTheRest() {
+        filter(TouchFrame.ACTION_DOWN, 0, BASE);
+        filter(TouchFrame.ACTION_MOVE, 10, PRESSED);
+        mScheduler.advanceTo(10 + LONG_PRESS_TIMEOUT);
+        assertEquals(1, mListener.longPresses);
+        assertTrue(mFilter.isTakenOver());
+        assertEquals(1, mSource.canceled.size());
+        assertEquals(Integer.valueOf(-2), mSource.canceled.get(0));
+
+        assertFalse(filter(TouchFrame.ACTION_MOVE, 600, PRESSED));
+        assertFalse(filter(TouchFrame.ACTION_MOVE, 610, BASE));
+        assertFalse(filter(TouchFrame.ACTION_MOVE, 620, PRESSED));
+        assertFalse(filter(TouchFrame.ACTION_UP, 630, BASE));
+        assertEquals(1, mSource.canceled.size());
+        assertEquals(0, mListener.taps);
+        assertEquals(mSource.retained, mSource.released);
+    }
+
+    @Test
+    public void resetOnNextDown() {
+        filter(TouchFrame.ACTION_DOWN, 0, BASE);
+        filter(TouchFrame.ACTION_MOVE, 10, PRESSED);
+        mScheduler.advanceTo(10 + LONG_PRESS_TIMEOUT);
+        assertFalse(filter(TouchFrame.ACTION_UP, 600, BASE));
+
+        assertTrue(filter(TouchFrame.ACTION_DOWN, 1000, BASE));
+        assertFalse(mFilter.isTakenOver());
+        assertTrue(filter(TouchFrame.ACTION_MOVE, 1010, BASE));
+        assertTrue(filter(TouchFrame.ACTION_UP, 1020, BASE));
+        assertEquals(1, mSource.canceled.size());
+
+        // and the next gesture is detected again
+        filter(TouchFrame.ACTION_DOWN, 2000, BASE);
+        filter(TouchFrame.ACTION_MOVE, 2010, PRESSED);
+        assertFalse(filter(TouchFrame.ACTION_UP, 2020, BASE));
+        assertEquals(2, mSource.canceled.size());
+        assertEquals(1, mListener.taps);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogLinearHistogramTest {
+    @Test
+    public void bucketBoundaries() {
+        assertEquals(0, LogLinearHistogram.getBucket(-1));
+        assertEquals(7, LogLinearHistogram.getBucket(7));
+        assertEquals(7, LogLinearHistogram.getBucketMax(7));
+        // the first log bucket still has a width of one
+        assertEquals(8, LogLinearHistogram.getBucket(8));
+        assertEquals(8, LogLinearHistogram.getBucketMax(8));
+        assertEquals(15, LogLinearHistogram.getBucket(15));
+        assertEquals(15, LogLinearHistogram.getBucketMax(15));
+        // then it doubles every power of two
+        assertEquals(16, LogLinearHistogram.getBucket(16));
+        assertEquals(16, LogLinearHistogram.getBucket(17));
+        assertEquals(17, LogLinearHistogram.getBucketMax(16));
+        assertEquals(17, LogLinearHistogram.getBucket(18));
+    }
+
+    @Test
+    public void maxValue() {
+        final int last = LogLinearHistogram.BUCKET_COUNT - 1;
+        assertEquals(last, LogLinearHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.getBucketMax(last));
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtQuantile(1.0));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (long value = 0; value < 1 << 16; ++value) {
+            checkBucket(value);
+        }
+        for (int exponent = 16; exponent < 63; ++exponent) {
+            final long power = 1L << exponent;
+            checkBucket(power - 1);
+            checkBucket(power);
+            checkBucket(power + 1);
+        }
+    }
+
+    private static void checkBucket(long value) {
+        final int bucket = LogLinearHistogram.getBucket(value);
+        assertTrue(value + " over its bucket", value <= LogLinearHistogram.getBucketMax(bucket));
+        if (bucket > 0) {
+            assertTrue(value + " in the previous bucket",
+                    value > LogLinearHistogram.getBucketMax(bucket - 1));
+        }
+        // within 1/8 of the value
+        assertTrue(LogLinearHistogram.getBucketMax(bucket) - value <= value / 8);
+    }
+
+    @Test
+    public void quantileRank() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        for (int value = 1; value <= 100; ++value) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getTotalCount());
+        // the rank is ceil(q * total) and at least one
+        assertEquals(1, histogram.getValueAtQuantile(0.0));
+        assertEquals(1, histogram.getValueAtQuantile(0.01));
+        assertEquals(2, histogram.getValueAtQuantile(0.011));
+        // 50 is in [48, 51]
+        assertEquals(51, histogram.getValueAtQuantile(0.5));
+        // 99 and 100 are in [96, 103]
+        assertEquals(103, histogram.getValueAtQuantile(0.99));
+        assertEquals(103, histogram.getValueAtQuantile(1.0));
+    }
+
+    @Test
+    public void addAndRestore() {
+        LogLinearHistogram a = new LogLinearHistogram();
+        LogLinearHistogram b = new LogLinearHistogram();
+        a.record(10);
+        b.record(1000);
+        b.record(1000);
+        a.add(b);
+        assertEquals(3, a.getTotalCount());
+        LogLinearHistogram restored = new LogLinearHistogram(a.getCounts());
+        assertEquals(3, restored.getTotalCount());
+        assertEquals(10, restored.getValueAtQuantile(0.3));
+        assertEquals(1023, restored.getValueAtQuantile(0.5));
+        restored.clear();
+        assertEquals(0, restored.getTotalCount());
+        assertEquals(0, restored.getValueAtQuantile(1.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongBucketCount() {
+        new LogLinearHistogram(new long[LogLinearHistogram.BUCKET_COUNT - 1]);
+    }
+}
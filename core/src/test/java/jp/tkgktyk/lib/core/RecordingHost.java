@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+/**
+ * Counts requests of a detector to the platform, without allocating.
+ */
+class RecordingHost implements EventHost {
+    int saved;
+    int canceled;
+    int recorded;
+    int rewound;
+
+    @Override
+    public void saveCancelEvent() {
+        ++saved;
+    }
+
+    @Override
+    public void sendCancelEvent() {
+        ++canceled;
+    }
+
+    @Override
+    public void releaseCancelEvent() {
+    }
+
+    @Override
+    public void recordMotion() {
+        ++recorded;
+    }
+
+    @Override
+    public void rewindMotions() {
+        ++rewound;
+    }
+
+    @Override
+    public void clearMotions() {
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link RelativeDetectorCore} through {@link ManualScheduler}.
+ */
+public class RelativeDetectorCoreTest {
+    private static final float BASE = 0.1f;
+    private static final float PRESSED = 0.2f;
+    private static final int LONG_PRESS_TIMEOUT = 500;
+    private static final int EXTRA_LONG_PRESS_TIMEOUT = 100;
+    private static final int WINDOW_TIME = 200;
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private final RecordingHost mHost = new RecordingHost();
+    private final RecordingListener mListener = new RecordingListener();
+    private RelativeDetectorCore mDetector;
+
+    @Before
+    public void setUp() {
+        mDetector = new RelativeDetectorCore(mListener, mHost, mScheduler);
+        mDetector.setType(RelativeDetectorCore.TYPE_WIGGLE);
+        mDetector.setMagnification(1.4f);
+        mDetector.setTouchSlop(10);
+        mDetector.setWindowTimeInMillis(WINDOW_TIME);
+        mDetector.setLongPressTimeout(LONG_PRESS_TIMEOUT);
+        mDetector.setExtraLongPressTimeout(EXTRA_LONG_PRESS_TIMEOUT);
+    }
+
+    private boolean send(TouchFrame frame) {
+        mScheduler.advanceTo(frame.getEventTime());
+        return mDetector.onTouchEvent(frame);
+    }
+
+    private boolean send(int action, long eventTime, float x, float parameter) {
+        return send(Frames.one(action, eventTime, x, 100, parameter));
+    }
+
+    @Test
+    public void tap() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 10, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, 100, PRESSED);
+        assertEquals(1, mListener.relativeTouches);
+        assertEquals(1, mHost.saved);
+        send(TouchFrame.ACTION_UP, 100, 100, BASE);
+        assertEquals(1, mListener.taps);
+        assertEquals(1, mHost.canceled);
+        assertEquals(0, mListener.longPresses);
+    }
+
+    @Test
+    public void noTapWithoutRelativeTouch() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 10, 100, BASE);
+        assertFalse(send(TouchFrame.ACTION_UP, 100, 100, BASE));
+        assertEquals(0, mListener.taps);
+        assertEquals(0, mHost.canceled);
+    }
+
+    @Test
+    public void noTapAfterDragging() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, 100, PRESSED);
+        send(TouchFrame.ACTION_MOVE, 30, 150, PRESSED);
+        send(TouchFrame.ACTION_UP, 100, 150, BASE);
+        assertEquals(0, mListener.taps);
+    }
+
+    @Test
+    public void longPressAtDeadline() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, 100, PRESSED);
+        final long deadline = 20 + LONG_PRESS_TIMEOUT + EXTRA_LONG_PRESS_TIMEOUT;
+        assertEquals(1, mScheduler.getPendingCount());
+        mScheduler.advanceTo(deadline - 1);
+        assertEquals(0, mListener.longPresses);
+        mScheduler.advanceTo(deadline);
+        assertEquals(1, mListener.longPresses);
+        assertEquals(1, mHost.canceled);
+        // handled by the long press, no tap follows
+        send(TouchFrame.ACTION_UP, deadline + 100, 100, BASE);
+        assertEquals(0, mListener.taps);
+    }
+
+    @Test
+    public void longPressCanceledByUp() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 20, 100, PRESSED);
+        send(TouchFrame.ACTION_UP, 100, 100, BASE);
+        assertEquals(0, mScheduler.getPendingCount());
+        mScheduler.advanceTo(10000);
+        assertEquals(0, mListener.longPresses);
+        assertEquals(1, mListener.taps);
+    }
+
+    @Test
+    public void pressBeforeWindowDeadline() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, WINDOW_TIME - 1, 100, PRESSED);
+        assertEquals(1, mListener.relativeTouches);
+    }
+
+    @Test
+    public void pressAfterWindowDeadline() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 10, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, WINDOW_TIME, 100, PRESSED);
+        send(TouchFrame.ACTION_MOVE, WINDOW_TIME + 100, 100, PRESSED);
+        assertEquals(0, mListener.relativeTouches);
+        send(TouchFrame.ACTION_UP, WINDOW_TIME + 200, 100, BASE);
+        assertEquals(0, mListener.taps);
+    }
+
+    @Test
+    public void windowDelay() {
+        mDetector.setWindowDelayInMillis(50);
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        // the window is not opened yet
+        send(TouchFrame.ACTION_MOVE, 40, 100, PRESSED);
+        assertEquals(0, mListener.relativeTouches);
+        // the first sample in the window is the base
+        send(TouchFrame.ACTION_MOVE, 50, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 60, 100, PRESSED);
+        assertEquals(1, mListener.relativeTouches);
+    }
+
+    @Test
+    public void multiTouchCancel() {
+        mDetector.setCancelByMultiTouch(true);
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(Frames.two(TouchFrame.ACTION_POINTER_DOWN, 10, BASE, BASE));
+        send(Frames.two(TouchFrame.ACTION_MOVE, 20, PRESSED, PRESSED));
+        send(Frames.two(TouchFrame.ACTION_POINTER_UP, 30, PRESSED, PRESSED));
+        assertFalse(send(TouchFrame.ACTION_UP, 40, 100, BASE));
+        assertEquals(0, mListener.relativeTouches);
+        assertEquals(0, mListener.taps);
+        // the next stroke is detected again
+        send(TouchFrame.ACTION_DOWN, 1000, 100, BASE);
+        send(TouchFrame.ACTION_MOVE, 1020, 100, PRESSED);
+        assertEquals(1, mListener.relativeTouches);
+    }
+
+    @Test
+    public void multiTouchWithoutCancel() {
+        send(TouchFrame.ACTION_DOWN, 0, 100, BASE);
+        send(Frames.two(TouchFrame.ACTION_POINTER_DOWN, 10, BASE, BASE));
+        send(Frames.two(TouchFrame.ACTION_MOVE, 20, BASE, PRESSED));
+        assertEquals(1, mListener.relativeTouches);
+        // the second pointer is the active one
+        assertTrue(send(Frames.two(TouchFrame.ACTION_POINTER_UP, 30, BASE, PRESSED)));
+        assertEquals(1, mListener.taps);
+    }
+}
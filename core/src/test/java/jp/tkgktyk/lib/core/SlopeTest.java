@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a synthetic rising press through {@link RelativeDetectorCore#TYPE_SLOPE} and
+ * {@link RelativeDetectorCore#TYPE_WIGGLE} and compares when each fires.
+ */
+public class SlopeTest {
+    private static final long INTERVAL = 10;
+    private static final long NEVER = -1;
+    private static final int SETTLE = 5;
+    private static final int RISE = 30;
+
+    /**
+     * @param step rise of the parameter per sample after the contact settles at 0.1
+     * @return time from the start of the rise to the first relative touch, or NEVER
+     */
+    private long fireTime(int type, float step) {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingListener listener = new RecordingListener();
+        RelativeDetectorCore detector = new RelativeDetectorCore(listener, new RecordingHost(),
+                scheduler);
+        detector.setType(type);
+        detector.setMagnification(1.4f);
+        detector.setSlope(RelativeDetectorCore.DEFAULT_SLOPE,
+                RelativeDetectorCore.DEFAULT_SLOPE_DURATION_IN_MILLIS);
+        detector.setTouchSlop(10);
+        detector.setWindowTimeInMillis(-1);
+        detector.setLongPressTimeout(100000);
+        TouchFrame frame = new TouchFrame();
+        long time = 0;
+        detector.onTouchEvent(Frames.one(frame, TouchFrame.ACTION_DOWN, time, 100, 100, 0.1f));
+        for (int i = 1; i <= SETTLE + RISE; ++i) {
+            time += INTERVAL;
+            scheduler.advanceTo(time);
+            final int rising = Math.max(0, i - SETTLE);
+            detector.onTouchEvent(Frames.one(frame, TouchFrame.ACTION_MOVE, time, 100, 100,
+                    0.1f + rising * step));
+            if (listener.relativeTouches != 0) {
+                return time - SETTLE * INTERVAL;
+            }
+        }
+        return NEVER;
+    }
+
+    @Test
+    public void slopeFiresBeforeMagnificationOnQuickPress() {
+        // 10 times of the base per second, faster than DEFAULT_SLOPE
+        final long slope = fireTime(RelativeDetectorCore.TYPE_SLOPE, 0.01f);
+        final long wiggle = fireTime(RelativeDetectorCore.TYPE_WIGGLE, 0.01f);
+        assertEquals(RelativeDetectorCore.DEFAULT_SLOPE_DURATION_IN_MILLIS, slope);
+        assertTrue(wiggle != NEVER);
+        assertTrue("slope " + slope + "ms, wiggle " + wiggle + "ms", slope < wiggle);
+    }
+
+    @Test
+    public void onlyMagnificationFiresOnSlowPress() {
+        // 2 times of the base per second, slower than DEFAULT_SLOPE
+        assertEquals(NEVER, fireTime(RelativeDetectorCore.TYPE_SLOPE, 0.002f));
+        assertTrue(fireTime(RelativeDetectorCore.TYPE_WIGGLE, 0.002f) != NEVER);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TapFlickRecognizerTest {
+    private static final int TOUCH_SLOP = 10;
+    private static final int DOUBLE_TAP_SLOP = 50;
+    private static final float MIN_VELOCITY = 500.0f;
+    private static final int LONG_PRESS_TIMEOUT = 500;
+    private static final int EXTRA_LONG_PRESS_TIMEOUT = 100;
+    private static final int DOUBLE_TAP_TIMEOUT = 300;
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+    private TapFlickRecognizer mRecognizer;
+    private int mTaps;
+    private int mDoubleTaps;
+    private int mLongPresses;
+    private int mFlicks;
+    private int mDirection = -1;
+
+    @Before
+    public void setUp() {
+        mRecognizer = new TapFlickRecognizer(new TapFlickRecognizer.Listener() {
+            @Override
+            public void onTap(float x, float y) {
+                ++mTaps;
+            }
+
+            @Override
+            public void onDoubleTap(float x, float y) {
+                ++mDoubleTaps;
+            }
+
+            @Override
+            public void onLongPress(float x, float y) {
+                ++mLongPresses;
+            }
+
+            @Override
+            public void onFlick(int direction, float x, float y) {
+                ++mFlicks;
+                mDirection = direction;
+            }
+        }, mScheduler);
+        mRecognizer.setTouchSlop(TOUCH_SLOP);
+        mRecognizer.setDoubleTapSlop(DOUBLE_TAP_SLOP);
+        mRecognizer.setMinimumFlingVelocity(MIN_VELOCITY);
+        mRecognizer.setLongPressTimeout(LONG_PRESS_TIMEOUT);
+        mRecognizer.setExtraLongPressTimeout(EXTRA_LONG_PRESS_TIMEOUT);
+        mRecognizer.setDoubleTapTimeout(DOUBLE_TAP_TIMEOUT);
+    }
+
+    private void down(float x, float y, long time) {
+        mScheduler.advanceTo(time);
+        mRecognizer.onDown(x, y, time);
+    }
+
+    private void move(float x, float y, long time) {
+        mScheduler.advanceTo(time);
+        mRecognizer.onMove(x, y, time);
+    }
+
+    private void up(float x, float y, long time) {
+        mScheduler.advanceTo(time);
+        mRecognizer.onUp(x, y, time);
+    }
+
+    /**
+     * Moves by (dx, dy) in 10 steps of 10 milliseconds.
+     */
+    private void stroke(float dx, float dy, long time) {
+        down(100, 100, time);
+        for (int i = 1; i <= 10; ++i) {
+            move(100 + dx * i / 10, 100 + dy * i / 10, time + i * 10);
+        }
+        up(100 + dx, 100 + dy, time + 110);
+    }
+
+    @Test
+    public void tapWithinSlop() {
+        down(100, 100, 0);
+        move(100 + TOUCH_SLOP, 100, 10);
+        up(100 + TOUCH_SLOP, 100, 50);
+        assertEquals(1, mTaps);
+        assertEquals(0, mFlicks);
+    }
+
+    @Test
+    public void noTapOutOfSlop() {
+        down(100, 100, 0);
+        move(100 + TOUCH_SLOP + 1, 100, 10);
+        up(100 + TOUCH_SLOP + 1, 100, 500);
+        assertEquals(0, mTaps);
+        assertEquals(0, mFlicks);
+    }
+
+    @Test
+    public void longPressAtTimeout() {
+        down(100, 100, 0);
+        mScheduler.advanceTo(LONG_PRESS_TIMEOUT + EXTRA_LONG_PRESS_TIMEOUT - 1);
+        assertEquals(0, mLongPresses);
+        mScheduler.advanceTo(LONG_PRESS_TIMEOUT + EXTRA_LONG_PRESS_TIMEOUT);
+        assertEquals(1, mLongPresses);
+        up(100, 100, 1000);
+        assertEquals(0, mTaps);
+    }
+
+    @Test
+    public void dragCancelsLongPress() {
+        down(100, 100, 0);
+        move(150, 100, 100);
+        mScheduler.advanceTo(10000);
+        assertEquals(0, mLongPresses);
+    }
+
+    @Test
+    public void flickDirections() {
+        stroke(-200, 10, 0);
+        assertEquals(TapFlickRecognizer.FLICK_LEFT, mDirection);
+        stroke(200, -10, 1000);
+        assertEquals(TapFlickRecognizer.FLICK_RIGHT, mDirection);
+        stroke(10, -200, 2000);
+        assertEquals(TapFlickRecognizer.FLICK_UP, mDirection);
+        stroke(-10, 200, 3000);
+        assertEquals(TapFlickRecognizer.FLICK_DOWN, mDirection);
+        assertEquals(4, mFlicks);
+        assertEquals(0, mTaps);
+    }
+
+    @Test
+    public void flickVelocityThreshold() {
+        // 40 px in 100 ms is 400 px/s, slower than the minimum
+        stroke(40, 0, 0);
+        assertEquals(0, mFlicks);
+        // 60 px in 100 ms is 600 px/s
+        stroke(60, 0, 1000);
+        assertEquals(1, mFlicks);
+    }
+
+    @Test
+    public void slowDragThenPauseIsNotFlick() {
+        down(100, 100, 0);
+        move(300, 100, 100);
+        // the finger stops for longer than the velocity horizon
+        move(300, 100, 300);
+        up(300, 100, 400);
+        assertEquals(0, mFlicks);
+    }
+
+    @Test
+    public void doubleTap() {
+        mRecognizer.setDoubleTapEnabled(true);
+        down(100, 100, 0);
+        up(100, 100, 50);
+        assertEquals(0, mTaps);
+        down(110, 110, 150);
+        up(110, 110, 200);
+        assertEquals(1, mDoubleTaps);
+        mScheduler.advanceTo(10000);
+        assertEquals(0, mTaps);
+    }
+
+    @Test
+    public void tapConfirmedAfterDoubleTapTimeout() {
+        mRecognizer.setDoubleTapEnabled(true);
+        down(100, 100, 0);
+        up(100, 100, 50);
+        mScheduler.advanceTo(DOUBLE_TAP_TIMEOUT - 1);
+        assertEquals(0, mTaps);
+        mScheduler.advanceTo(DOUBLE_TAP_TIMEOUT);
+        assertEquals(1, mTaps);
+    }
+
+    @Test
+    public void secondTapTooLateOrFar() {
+        mRecognizer.setDoubleTapEnabled(true);
+        down(100, 100, 0);
+        up(100, 100, 50);
+        // too far, the first tap is dropped and the second one waits
+        down(100 + DOUBLE_TAP_SLOP, 100, 150);
+        up(100 + DOUBLE_TAP_SLOP, 100, 200);
+        assertEquals(0, mDoubleTaps);
+        mScheduler.advanceTo(1000);
+        assertEquals(1, mTaps);
+        // too late after the up of the tap
+        down(100, 100, 2000);
+        up(100, 100, 2050);
+        mScheduler.advanceTo(2050 + DOUBLE_TAP_TIMEOUT + 1);
+        down(100, 100, 2050 + DOUBLE_TAP_TIMEOUT + 1);
+        up(100, 100, 2050 + DOUBLE_TAP_TIMEOUT + 50);
+        assertEquals(0, mDoubleTaps);
+    }
+
+    @Test
+    public void secondTapTooFast() {
+        mRecognizer.setDoubleTapEnabled(true);
+        down(100, 100, 0);
+        up(100, 100, 50);
+        // within 40 ms of the up like GestureDetector
+        down(100, 100, 80);
+        up(100, 100, 120);
+        assertEquals(0, mDoubleTaps);
+    }
+
+    @Test
+    public void heldFirstTapIsConfirmedOnUp() {
+        mRecognizer.setDoubleTapEnabled(true);
+        down(100, 100, 0);
+        mScheduler.advanceTo(DOUBLE_TAP_TIMEOUT + 100);
+        assertEquals(0, mTaps);
+        up(100, 100, DOUBLE_TAP_TIMEOUT + 200);
+        assertEquals(1, mTaps);
+    }
+}
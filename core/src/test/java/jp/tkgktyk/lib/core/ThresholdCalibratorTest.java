@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThresholdCalibratorTest {
+    private static final float DELTA = 1e-3f;
+
+    @Test
+    public void priorUntilCalibrated() {
+        ThresholdCalibrator calibrator = new ThresholdCalibrator();
+        assertFalse(calibrator.isReady());
+        assertTrue(calibrator.setPrior(0.1f, 0.2f, 0.3f));
+        assertTrue(calibrator.isReady());
+        assertFalse(calibrator.isCalibrated());
+        assertEquals(0.4f, calibrator.getUpperThreshold(), DELTA);
+        assertEquals(0.0f, calibrator.getLowerThreshold(), DELTA);
+        for (int i = 0; i < ThresholdCalibrator.DEFAULT_MIN_SAMPLES; ++i) {
+            calibrator.add(0.5f);
+        }
+        assertTrue(calibrator.isCalibrated());
+        assertEquals(0.5f, calibrator.getMedian(), DELTA);
+    }
+
+    @Test
+    public void brokenPriorIsIgnored() {
+        ThresholdCalibrator calibrator = new ThresholdCalibrator();
+        assertFalse(calibrator.setPrior(0.3f, 0.2f, 0.1f));
+        assertFalse(calibrator.setPrior(Float.NaN, 0.2f, 0.3f));
+        assertFalse(calibrator.setPrior(0.1f, 0.2f, Float.POSITIVE_INFINITY));
+        assertFalse(calibrator.isReady());
+    }
+
+    @Test
+    public void resetClearsPrior() {
+        ThresholdCalibrator calibrator = new ThresholdCalibrator();
+        calibrator.setPrior(0.1f, 0.2f, 0.3f);
+        calibrator.reset();
+        assertFalse(calibrator.isReady());
+    }
+
+    /**
+     * Touches over the threshold must still be sampled, or the upper percentile is cut off.
+     */
+    @Test
+    public void absoluteTouchesAreSampled() {
+        final ThresholdCalibrator calibrator = new ThresholdCalibrator();
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public boolean onAbsoluteTouch(float x, float y, float parameter) {
+                return parameter > 0.5f;
+            }
+        };
+        AbsoluteDetectorCore detector = new AbsoluteDetectorCore(listener, new RecordingHost(),
+                new ManualScheduler());
+        detector.setCalibrator(calibrator);
+        for (int i = 0; i < 100; ++i) {
+            final float parameter = i % 2 == 0 ? 0.2f : 0.8f;
+            detector.onTouchEvent(Frames.one(TouchFrame.ACTION_DOWN, i * 100, 100, 100,
+                    parameter));
+            detector.onTouchEvent(Frames.one(TouchFrame.ACTION_UP, i * 100 + 50, 100, 100,
+                    parameter));
+        }
+        assertEquals(100, calibrator.getCount());
+        assertEquals(0.8f, calibrator.getUpperQuantile(), DELTA);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class VelocityEstimatorTest {
+    private static final float DELTA = 1.0f;
+
+    @Test
+    public void constantVelocity() {
+        VelocityEstimator estimator = new VelocityEstimator();
+        // 1000 px/s right and 500 px/s up
+        for (int i = 0; i <= 10; ++i) {
+            estimator.add(i * 10.0f, -i * 5.0f, i * 10);
+        }
+        estimator.compute();
+        assertEquals(1000.0f, estimator.getVelocityX(), DELTA);
+        assertEquals(-500.0f, estimator.getVelocityY(), DELTA);
+    }
+
+    @Test
+    public void leastSquares() {
+        VelocityEstimator estimator = new VelocityEstimator();
+        // jitter around 2000 px/s is averaged out
+        estimator.add(0.0f, 0.0f, 0);
+        estimator.add(22.0f, 0.0f, 10);
+        estimator.add(38.0f, 0.0f, 20);
+        estimator.add(62.0f, 0.0f, 30);
+        estimator.add(78.0f, 0.0f, 40);
+        estimator.compute();
+        assertEquals(1960.0f, estimator.getVelocityX(), DELTA);
+        assertEquals(0.0f, estimator.getVelocityY(), 0.0f);
+    }
+
+    @Test
+    public void onlyRecentSamples() {
+        VelocityEstimator estimator = new VelocityEstimator();
+        // slow at first, samples older than the horizon don't count
+        for (int i = 0; i <= 10; ++i) {
+            estimator.add(i, 0.0f, i * 10);
+        }
+        for (int i = 1; i <= 10; ++i) {
+            estimator.add(10.0f + i * 20.0f, 0.0f, 100 + i * 10);
+        }
+        estimator.compute();
+        assertEquals(2000.0f, estimator.getVelocityX(), DELTA);
+    }
+
+    @Test
+    public void ringOverflow() {
+        VelocityEstimator estimator = new VelocityEstimator();
+        for (int i = 0; i < 100; ++i) {
+            estimator.add(i * 3.0f, 0.0f, i * 2);
+        }
+        estimator.compute();
+        assertEquals(1500.0f, estimator.getVelocityX(), DELTA);
+    }
+
+    @Test
+    public void notEnoughSamples() {
+        VelocityEstimator estimator = new VelocityEstimator();
+        estimator.compute();
+        assertEquals(0.0f, estimator.getVelocityX(), 0.0f);
+        estimator.add(10.0f, 10.0f, 0);
+        estimator.compute();
+        assertEquals(0.0f, estimator.getVelocityX(), 0.0f);
+        // same time
+        estimator.add(20.0f, 20.0f, 0);
+        estimator.compute();
+        assertEquals(0.0f, estimator.getVelocityX(), 0.0f);
+    }
+
+    @Test
+    public void clear() {
+        VelocityEstimator estimator = new VelocityEstimator();
+        estimator.add(0.0f, 0.0f, 0);
+        estimator.add(10.0f, 0.0f, 10);
+        estimator.compute();
+        estimator.clear();
+        assertEquals(0.0f, estimator.getVelocityX(), 0.0f);
+        estimator.add(100.0f, 0.0f, 1000);
+        estimator.compute();
+        assertEquals(0.0f, estimator.getVelocityX(), 0.0f);
+    }
+}
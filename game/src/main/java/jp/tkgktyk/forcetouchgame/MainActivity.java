@@ -341,6 +341,13 @@ public class MainActivity extends AppCompatActivity
                 ForceTouchDetector.getSize(event, index);
     }
 
+    @Override
+    public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+        return mUsePressure ?
+                ForceTouchDetector.getHistoricalPressure(event, index, pos) :
+                ForceTouchDetector.getHistoricalSize(event, index, pos);
+    }
+
     @Override
     public void onClick(View v) {
         if (mForceTouch > 0) {
@@ -18,6 +18,9 @@ package jp.tkgktyk.lib;
 
 import android.view.MotionEvent;
 
+import jp.tkgktyk.lib.core.ForceTouchListener;
+import jp.tkgktyk.lib.core.TouchFrame;
+
 /**
  * Created by tkgktyk on 2015/08/12.
  */
@@ -26,18 +29,16 @@ public abstract class ForceTouchDetector {
 
     protected static final int INVALID_POINTER_ID = -1;
 
-    public interface Callback {
-        boolean onAbsoluteTouch(float x, float y, float parameter);
-
-        boolean onRelativeTouch(float x, float y, float startX, float startY);
-
-        boolean onForceTap(float x, float y);
-
-        boolean onForceLongPress(float x, float y);
-
+    public interface Callback extends ForceTouchListener {
         void performOriginalOnTouchEvent(MotionEvent event);
 
         float getParameter(MotionEvent event, int index);
+
+        /**
+         * @param pos position in the history, {@link MotionEvent#getHistorySize()} means
+         *            the current sample
+         */
+        float getHistoricalParameter(MotionEvent event, int index, int pos);
     }
 
     public static float getPressure(MotionEvent event, int index) {
@@ -52,9 +53,70 @@ public abstract class ForceTouchDetector {
                 event.getHistoricalSize(index, historySize - 1);
     }
 
+    public static float getHistoricalPressure(MotionEvent event, int index, int pos) {
+        return pos == event.getHistorySize() ? event.getPressure(index) :
+                event.getHistoricalPressure(index, pos);
+    }
+
+    public static float getHistoricalSize(MotionEvent event, int index, int pos) {
+        return pos == event.getHistorySize() ? event.getSize(index) :
+                event.getHistoricalSize(index, pos);
+    }
+
+    public static float getHistoricalX(MotionEvent event, int index, int pos) {
+        return pos == event.getHistorySize() ? event.getX(index) :
+                event.getHistoricalX(index, pos);
+    }
+
+    public static float getHistoricalY(MotionEvent event, int index, int pos) {
+        return pos == event.getHistorySize() ? event.getY(index) :
+                event.getHistoricalY(index, pos);
+    }
+
+    public static long getHistoricalEventTime(MotionEvent event, int pos) {
+        return pos == event.getHistorySize() ? event.getEventTime() :
+                event.getHistoricalEventTime(pos);
+    }
+
     protected final Callback mCallback;
+    private final FrameExtractor.Source mCallbackSource = new FrameExtractor.Source() {
+        @Override
+        public float getParameter(MotionEvent event, int index) {
+            return mCallback.getParameter(event, index);
+        }
+
+        @Override
+        public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+            return mCallback.getHistoricalParameter(event, index, pos);
+        }
+
+        @Override
+        public boolean isInDetectionArea(float x, float y) {
+            return true;
+        }
+    };
+    private TouchFrame mFrame;
+    final MotionEventHost mHost = new MotionEventHost() {
+        @Override
+        protected void performOriginalOnTouchEvent(MotionEvent event) {
+            mCallback.performOriginalOnTouchEvent(event);
+        }
+    };
+    final HandlerScheduler mScheduler = new HandlerScheduler();
 
     public ForceTouchDetector(Callback callback) {
         mCallback = callback;
     }
+
+    /**
+     * Extract the event into a frame owned by this detector for standalone use.
+     * Detectors driven by {@link GestureEngine} receive a shared frame instead.
+     */
+    protected TouchFrame extractFrame(MotionEvent event, boolean withHistory) {
+        if (mFrame == null) {
+            mFrame = new TouchFrame();
+        }
+        FrameExtractor.extract(mFrame, event, mCallbackSource, withHistory);
+        return mFrame;
+    }
 }
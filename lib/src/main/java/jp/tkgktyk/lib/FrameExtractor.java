@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib;
+
+import android.view.MotionEvent;
+
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Fills a TouchFrame from a MotionEvent.
+ */
+public class FrameExtractor {
+    public interface Source extends TouchFrame.AreaFilter {
+        float getParameter(MotionEvent event, int index);
+
+        float getHistoricalParameter(MotionEvent event, int index, int pos);
+    }
+
+    private FrameExtractor() {
+    }
+
+    /**
+     * @param withHistory extract all batched samples of ACTION_MOVE too
+     */
+    public static void extract(TouchFrame frame, MotionEvent event, Source source,
+                               boolean withHistory) {
+        final int action = event.getActionMasked();
+        final int count = event.getPointerCount();
+        frame.begin(action, event.getActionIndex(), event.getEventTime(), count, source);
+        for (int index = 0; index < count; ++index) {
+            frame.setPointer(index, event.getPointerId(index), event.getToolType(index),
+                    event.getX(index), event.getY(index), source.getParameter(event, index));
+        }
+
+        if (withHistory && action == MotionEvent.ACTION_MOVE) {
+            final int historySize = event.getHistorySize();
+            frame.beginHistory(historySize);
+            for (int pos = 0; pos <= historySize; ++pos) {
+                frame.setHistoricalEventTime(pos,
+                        ForceTouchDetector.getHistoricalEventTime(event, pos));
+                for (int index = 0; index < count; ++index) {
+                    frame.setHistoricalSample(index, pos,
+                            ForceTouchDetector.getHistoricalX(event, index, pos),
+                            ForceTouchDetector.getHistoricalY(event, index, pos),
+                            source.getHistoricalParameter(event, index, pos));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib;
+
+import android.view.MotionEvent;
+
+import jp.tkgktyk.lib.core.GestureAutomaton;
+import jp.tkgktyk.lib.core.GestureTable;
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Detects user-defined gestures of a {@link GestureTable} on MotionEvents.
+ */
+public class GestureAutomatonDetector {
+    private static final String TAG = GestureAutomatonDetector.class.getSimpleName();
+
+    public interface Callback {
+        /**
+         * @param gesture index in the table
+         * @return true to take over the stroke
+         */
+        boolean onGesture(int gesture, float x, float y);
+
+        void performOriginalOnTouchEvent(MotionEvent event);
+    }
+
+    private final Callback mCallback;
+    private final MotionEventHost mHost = new MotionEventHost() {
+        @Override
+        protected void performOriginalOnTouchEvent(MotionEvent event) {
+            mCallback.performOriginalOnTouchEvent(event);
+        }
+    };
+    private final GestureAutomaton mAutomaton;
+
+    public GestureAutomatonDetector(GestureTable table, Callback callback) {
+        mCallback = callback;
+        mAutomaton = new GestureAutomaton(table, new GestureAutomaton.Listener() {
+            @Override
+            public boolean onGesture(int gesture, float x, float y) {
+                return mCallback.onGesture(gesture, x, y);
+            }
+        }, mHost, new HandlerScheduler());
+    }
+
+    public void setTable(GestureTable table) {
+        mAutomaton.setTable(table);
+    }
+
+    public GestureTable getTable() {
+        return mAutomaton.getTable();
+    }
+
+    /**
+     * @param frame features of the event, the event itself is only used to cancel
+     */
+    public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+        mHost.setCurrentEvent(event);
+        try {
+            return mAutomaton.onTouchEvent(frame);
+        } finally {
+            mHost.setCurrentEvent(null);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib;
+
+import android.view.MotionEvent;
+
+import jp.tkgktyk.lib.core.TouchFrame;
+
+/**
+ * Runs several classifiers over one MotionEvent.
+ * Pointer features are extracted into a shared TouchFrame once per event, then enabled
+ * classifiers are evaluated in priority order until one of them claims the event.
+ */
+public class GestureEngine {
+    public interface Classifier {
+        boolean isEnabled();
+
+        /**
+         * @return true if the event is consumed, lower priority classifiers don't receive it
+         */
+        boolean onTouchEvent(MotionEvent event, TouchFrame frame);
+    }
+
+    private Classifier[] mClassifiers = new Classifier[0];
+    private int[] mPriorities = new int[0];
+    private final TouchFrame mFrame = new TouchFrame();
+    private boolean mProcessHistory;
+
+    /**
+     * Classifiers with higher priority are evaluated first.
+     * Ones with the same priority keep the order they are added.
+     */
+    public void addClassifier(Classifier classifier, int priority) {
+        final int count = mClassifiers.length;
+        Classifier[] classifiers = new Classifier[count + 1];
+        int[] priorities = new int[count + 1];
+        int i = 0;
+        for (; i < count && mPriorities[i] >= priority; ++i) {
+            classifiers[i] = mClassifiers[i];
+            priorities[i] = mPriorities[i];
+        }
+        classifiers[i] = classifier;
+        priorities[i] = priority;
+        for (; i < count; ++i) {
+            classifiers[i + 1] = mClassifiers[i];
+            priorities[i + 1] = mPriorities[i];
+        }
+        mClassifiers = classifiers;
+        mPriorities = priorities;
+    }
+
+    public void removeClassifier(Classifier classifier) {
+        final int count = mClassifiers.length;
+        for (int i = 0; i < count; ++i) {
+            if (mClassifiers[i] == classifier) {
+                Classifier[] classifiers = new Classifier[count - 1];
+                int[] priorities = new int[count - 1];
+                System.arraycopy(mClassifiers, 0, classifiers, 0, i);
+                System.arraycopy(mClassifiers, i + 1, classifiers, i, count - i - 1);
+                System.arraycopy(mPriorities, 0, priorities, 0, i);
+                System.arraycopy(mPriorities, i + 1, priorities, i, count - i - 1);
+                mClassifiers = classifiers;
+                mPriorities = priorities;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Extract batched samples into the frame for classifiers which process history.
+     */
+    public void setProcessHistory(boolean processHistory) {
+        mProcessHistory = processHistory;
+    }
+
+    public TouchFrame getFrame() {
+        return mFrame;
+    }
+
+    public boolean onTouchEvent(MotionEvent event, FrameExtractor.Source source) {
+        final Classifier[] classifiers = mClassifiers;
+        boolean extracted = false;
+        for (Classifier classifier : classifiers) {
+            if (!classifier.isEnabled()) {
+                continue;
+            }
+            if (!extracted) {
+                FrameExtractor.extract(mFrame, event, source, mProcessHistory);
+                extracted = true;
+            }
+            if (classifier.onTouchEvent(event, mFrame)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import jp.tkgktyk.lib.core.Clock;
+import jp.tkgktyk.lib.core.Scheduler;
+
+/**
+ * Scheduler on the looper of the thread which creates it.
+ */
+class HandlerScheduler implements Scheduler, Clock {
+    private final Handler mHandler = new Handler();
+
+    @Override
+    public void scheduleAt(Runnable task, long uptimeMillis) {
+        mHandler.postAtTime(task, uptimeMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
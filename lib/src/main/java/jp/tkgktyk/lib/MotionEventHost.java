@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib;
+
+import android.view.MotionEvent;
+
+import jp.tkgktyk.lib.core.EventHost;
+
+/**
+ * EventHost backed by the MotionEvent being dispatched.
+ * Adapters set the current event around each call of a detector core.
+ */
+abstract class MotionEventHost implements EventHost {
+    private MotionEvent mCurrentEvent;
+    private MotionEvent mCancelEvent;
+    private MotionHistory mMotionHistory;
+
+    public void setCurrentEvent(MotionEvent event) {
+        mCurrentEvent = event;
+    }
+
+    protected abstract void performOriginalOnTouchEvent(MotionEvent event);
+
+    @Override
+    public void saveCancelEvent() {
+        if (mCancelEvent != null) {
+            mCancelEvent.recycle();
+        }
+        mCancelEvent = MotionEvent.obtain(mCurrentEvent);
+        mCancelEvent.setAction(MotionEvent.ACTION_CANCEL);
+    }
+
+    @Override
+    public void sendCancelEvent() {
+        if (mCancelEvent == null) {
+            return;
+        }
+        performOriginalOnTouchEvent(mCancelEvent);
+        mCancelEvent.recycle();
+        mCancelEvent = null;
+    }
+
+    @Override
+    public void releaseCancelEvent() {
+        if (mCancelEvent != null) {
+            mCancelEvent.recycle();
+            mCancelEvent = null;
+        }
+    }
+
+    @Override
+    public void recordMotion() {
+        if (mMotionHistory == null) {
+            mMotionHistory = new MotionHistory();
+        }
+        mMotionHistory.add(mCurrentEvent);
+    }
+
+    @Override
+    public void rewindMotions() {
+        if (mMotionHistory == null) {
+            return;
+        }
+        final int size = mMotionHistory.size();
+        for (int i = 0; i < size; ++i) {
+            MotionEvent event = mMotionHistory.obtainEvent(i);
+            performOriginalOnTouchEvent(event);
+            event.recycle();
+        }
+    }
+
+    @Override
+    public void clearMotions() {
+        if (mMotionHistory != null) {
+            mMotionHistory.clear();
+        }
+    }
+}
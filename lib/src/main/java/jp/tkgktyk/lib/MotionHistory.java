@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.lib;
+
+import android.view.MotionEvent;
+
+/**
+ * Fixed-capacity ring buffer of ACTION_MOVE samples for rewinding.
+ * Samples are stored in primitive arrays and MotionEvents are built only when they are
+ * replayed, so memory doesn't depend on the length of a stroke. The oldest samples are
+ * overwritten when the buffer is full.
+ */
+public class MotionHistory {
+    public static final int DEFAULT_CAPACITY = 128;
+    /**
+     * Pointers over this count are not recorded.
+     */
+    public static final int MAX_POINTERS = 10;
+
+    private final int mCapacity;
+    private final long[] mEventTimes;
+    private final int[] mPointerCounts;
+    private final int[] mPointerIds;
+    private final int[] mToolTypes;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mPressures;
+    private final float[] mSizes;
+    private int mHead;
+    private int mSize;
+
+    // stroke constants taken from the latest recorded event
+    private long mDownTime;
+    private int mMetaState;
+    private int mButtonState;
+    private float mXPrecision;
+    private float mYPrecision;
+    private int mDeviceId;
+    private int mEdgeFlags;
+    private int mSource;
+    private int mFlags;
+
+    private final MotionEvent.PointerProperties[] mProperties =
+            new MotionEvent.PointerProperties[MAX_POINTERS];
+    private final MotionEvent.PointerCoords[] mCoords =
+            new MotionEvent.PointerCoords[MAX_POINTERS];
+
+    public MotionHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MotionHistory(int capacity) {
+        mCapacity = capacity;
+        mEventTimes = new long[capacity];
+        mPointerCounts = new int[capacity];
+        mPointerIds = new int[capacity * MAX_POINTERS];
+        mToolTypes = new int[capacity * MAX_POINTERS];
+        mX = new float[capacity * MAX_POINTERS];
+        mY = new float[capacity * MAX_POINTERS];
+        mPressures = new float[capacity * MAX_POINTERS];
+        mSizes = new float[capacity * MAX_POINTERS];
+        for (int i = 0; i < MAX_POINTERS; ++i) {
+            mProperties[i] = new MotionEvent.PointerProperties();
+            mCoords[i] = new MotionEvent.PointerCoords();
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Record all batched samples of the event in chronological order.
+     */
+    public void add(MotionEvent event) {
+        mDownTime = event.getDownTime();
+        mMetaState = event.getMetaState();
+        mButtonState = event.getButtonState();
+        mXPrecision = event.getXPrecision();
+        mYPrecision = event.getYPrecision();
+        mDeviceId = event.getDeviceId();
+        mEdgeFlags = event.getEdgeFlags();
+        mSource = event.getSource();
+        mFlags = event.getFlags();
+
+        final int pointerCount = Math.min(event.getPointerCount(), MAX_POINTERS);
+        final int historySize = event.getHistorySize();
+        for (int pos = 0; pos <= historySize; ++pos) {
+            final int sample = (mHead + mSize) % mCapacity;
+            if (mSize == mCapacity) {
+                mHead = (mHead + 1) % mCapacity;
+            } else {
+                ++mSize;
+            }
+            mEventTimes[sample] = ForceTouchDetector.getHistoricalEventTime(event, pos);
+            mPointerCounts[sample] = pointerCount;
+            final int base = sample * MAX_POINTERS;
+            for (int index = 0; index < pointerCount; ++index) {
+                mPointerIds[base + index] = event.getPointerId(index);
+                mToolTypes[base + index] = event.getToolType(index);
+                mX[base + index] = ForceTouchDetector.getHistoricalX(event, index, pos);
+                mY[base + index] = ForceTouchDetector.getHistoricalY(event, index, pos);
+                mPressures[base + index] = ForceTouchDetector.getHistoricalPressure(event, index, pos);
+                mSizes[base + index] = ForceTouchDetector.getHistoricalSize(event, index, pos);
+            }
+        }
+    }
+
+    /**
+     * Build an ACTION_MOVE event of a recorded sample. The caller must recycle it.
+     *
+     * @param i 0 is the oldest sample
+     */
+    public MotionEvent obtainEvent(int i) {
+        final int sample = (mHead + i) % mCapacity;
+        final int pointerCount = mPointerCounts[sample];
+        final int base = sample * MAX_POINTERS;
+        for (int index = 0; index < pointerCount; ++index) {
+            MotionEvent.PointerProperties properties = mProperties[index];
+            properties.clear();
+            properties.id = mPointerIds[base + index];
+            properties.toolType = mToolTypes[base + index];
+            MotionEvent.PointerCoords coords = mCoords[index];
+            coords.clear();
+            coords.x = mX[base + index];
+            coords.y = mY[base + index];
+            coords.pressure = mPressures[base + index];
+            coords.size = mSizes[base + index];
+        }
+        return MotionEvent.obtain(mDownTime, mEventTimes[sample], MotionEvent.ACTION_MOVE,
+                pointerCount, mProperties, mCoords, mMetaState, mButtonState,
+                mXPrecision, mYPrecision, mDeviceId, mEdgeFlags, mSource, mFlags);
+    }
+}
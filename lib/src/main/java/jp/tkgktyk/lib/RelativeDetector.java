@@ -17,16 +17,11 @@
 package jp.tkgktyk.lib;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Message;
 import android.view.MotionEvent;
 import android.view.ViewConfiguration;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-
-import java.util.List;
-import java.util.Map;
+import jp.tkgktyk.lib.core.RelativeDetectorCore;
+import jp.tkgktyk.lib.core.TouchFrame;
 
 /**
  * Created by tkgktyk on 2015/08/12.
@@ -34,359 +29,113 @@ import java.util.Map;
 public class RelativeDetector extends ForceTouchDetector {
     private static final String TAG = RelativeDetector.class.getSimpleName();
 
-    private static final int MSG_START_DETECTOR = 1;
-    private static final int MSG_STOP_DETECTOR = 2;
-    private static final int MSG_LONG_PRESS = 3;
-
-    protected class TouchState {
-        class TouchHandler extends Handler {
-            @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
-                    case MSG_START_DETECTOR:
-                        window = true;
-                        sendStopDetectorMessage(TouchState.this);
-                        break;
-                    case MSG_STOP_DETECTOR:
-                        window = false;
-                        break;
-                    case MSG_LONG_PRESS:
-                        window = false;
-                        if (mLongClickable && mCallback.onForceLongPress(x, y)) {
-                            onHandled();
-                        }
-                        break;
-                }
-            }
-        }
-
-        private final Handler mHandler = new TouchHandler();
-
-        private static final float INVALID_PARAMETER = -1.0f;
-
-        float threshold = INVALID_PARAMETER;
-        float hysteresis = INVALID_PARAMETER;
-        float startX = 0.0f;
-        float startY = 0.0f;
-        float x = 0.0f;
-        float y = 0.0f;
-        boolean forceTouch = false;
-        boolean inTapRegion = true;
-        boolean window = false;
-    }
+    public static final int TYPE_WIGGLE = RelativeDetectorCore.TYPE_WIGGLE;
+    public static final int TYPE_SCRATCH = RelativeDetectorCore.TYPE_SCRATCH;
+    /**
+     * Fire when the parameter keeps changing faster than {@link #setSlope(float, int)}.
+     */
+    public static final int TYPE_SLOPE = RelativeDetectorCore.TYPE_SLOPE;
 
-    private static final int LONG_PRESS_TIMEOUT = ViewConfiguration.getLongPressTimeout();
-
-    private int mTouchSlopeSquare;
-    private float mMagnification;
-    private int mExtraLongPressTimeout;
-    private int mWindowTimeInMillis;
-    private int mWindowDelayInMillis;
-    private boolean mBlockDragging;
-    private boolean mMultipleForceTouch;
-    private boolean mCancelByMultiTouch;
-    private boolean mRewind;
-    private boolean mLongClickable = true;
-    private boolean mAllowUnknownType;
-
-    public static final int TYPE_WIGGLE = 1;
-    public static final int TYPE_SCRATCH = 2;
-    private int mType = TYPE_WIGGLE;
-
-    private final Map<Integer, TouchState> mTouchStates = Maps.newHashMap();
-
-    private boolean mHandled;
-    private boolean mCanceled;
-    private int mActivePointerId;
-    private MotionEvent mCancelEvent;
-    private final List<MotionEvent> mMotionEvents = Lists.newArrayList();
+    private final RelativeDetectorCore mCore;
+    private boolean mProcessHistory;
 
     public RelativeDetector(Callback callback) {
         super(callback);
+        mCore = new RelativeDetectorCore(callback, mHost, mScheduler);
+        mCore.setLongPressTimeout(ViewConfiguration.getLongPressTimeout());
     }
 
     public void setSensitivity(Context context, int sensitivity) {
-        int touchSlop = ViewConfiguration.get(context).getScaledTouchSlop() * sensitivity;
-        mTouchSlopeSquare = touchSlop * touchSlop;
+        mCore.setTouchSlop(ViewConfiguration.get(context).getScaledTouchSlop() * sensitivity);
     }
 
     public void setMagnification(float magnification) {
-        mMagnification = magnification;
+        mCore.setMagnification(magnification);
     }
 
-
     public void setBlockDragging(boolean blockDragging) {
-        mBlockDragging = blockDragging;
+        mCore.setBlockDragging(blockDragging);
     }
 
     public void setWindowDelayInMillis(int windowDelayInMillis) {
-        mWindowDelayInMillis = windowDelayInMillis;
+        mCore.setWindowDelayInMillis(windowDelayInMillis);
     }
 
     public void setWindowTimeInMillis(int windowTimeInMillis) {
-        mWindowTimeInMillis = windowTimeInMillis;
+        mCore.setWindowTimeInMillis(windowTimeInMillis);
     }
 
     public void setExtraLongPressTimeout(int extraLongPressTimeout) {
-        mExtraLongPressTimeout = extraLongPressTimeout;
+        mCore.setExtraLongPressTimeout(extraLongPressTimeout);
     }
 
     public void setMultipleForceTouch(boolean multipleForceTouch) {
-        mMultipleForceTouch = multipleForceTouch;
+        mCore.setMultipleForceTouch(multipleForceTouch);
     }
 
     public void setCancelByMultiTouch(boolean cancel) {
-        mCancelByMultiTouch = cancel;
+        mCore.setCancelByMultiTouch(cancel);
     }
 
     public void setRewind(boolean rewind) {
-        mRewind = rewind;
-    }
-
-    public void setLongClickable(boolean longClickable) {
-        mLongClickable = longClickable;
-    }
-
-    public void allowUnknownType(boolean allow) {
-        mAllowUnknownType = allow;
-    }
-
-    public void setType(int type) {
-        mType = type;
-    }
-
-    private void cleanUp() {
-        mActivePointerId = INVALID_POINTER_ID;
-        mHandled = false;
-        mCanceled = true;
-        if (mCancelEvent != null) {
-            mCancelEvent.recycle();
-            mCancelEvent = null;
-        }
-        for (Map.Entry<Integer, TouchState> entry : mTouchStates.entrySet()) {
-            removeMessages(entry.getValue());
-        }
-        mTouchStates.clear();
-        clearMotionEvents();
-    }
-
-    private void clearMotionEvents() {
-        for (MotionEvent event : mMotionEvents) {
-            event.recycle();
-        }
-        mMotionEvents.clear();
-    }
-
-    void sendStartDetectorMessage(TouchState state) {
-        if (mWindowDelayInMillis > 0) {
-            state.mHandler.removeMessages(MSG_START_DETECTOR);
-            state.mHandler.removeMessages(MSG_STOP_DETECTOR);
-            state.mHandler.sendEmptyMessageDelayed(MSG_START_DETECTOR, mWindowDelayInMillis);
-        } else {
-            state.window = true;
-            sendStopDetectorMessage(state);
-        }
-    }
-
-    void sendStopDetectorMessage(TouchState state) {
-        if (mWindowTimeInMillis > 0) {
-            state.mHandler.removeMessages(MSG_START_DETECTOR);
-            state.mHandler.removeMessages(MSG_STOP_DETECTOR);
-            state.mHandler.sendEmptyMessageDelayed(MSG_STOP_DETECTOR, mWindowTimeInMillis);
-        } else if (mWindowTimeInMillis < 0) {
-            state.mHandler.removeMessages(MSG_START_DETECTOR);
-        } else {
-            state.window = false;
-        }
-    }
-
-    void sendLongPressMessage(TouchState state) {
-        state.mHandler.removeMessages(MSG_LONG_PRESS);
-        state.mHandler.sendEmptyMessageDelayed(MSG_LONG_PRESS,
-                LONG_PRESS_TIMEOUT + mExtraLongPressTimeout);
-    }
-
-    void removeMessages(TouchState state) {
-        state.mHandler.removeMessages(MSG_START_DETECTOR);
-        state.mHandler.removeMessages(MSG_STOP_DETECTOR);
-        state.mHandler.removeMessages(MSG_LONG_PRESS);
-    }
-
-    private void addTouch(MotionEvent event) {
-        final int index = event.getActionIndex();
-        final int toolType = event.getToolType(index);
-        if (!(toolType == MotionEvent.TOOL_TYPE_FINGER ||
-                (mAllowUnknownType && toolType == MotionEvent.TOOL_TYPE_UNKNOWN))) {
-            return;
-        }
-        TouchState state = new TouchState();
-        final float x = event.getX(index);
-        final float y = event.getY(index);
-        state.startX = x;
-        state.startY = y;
-        state.x = x;
-        state.y = y;
-        final float parameter = mCallback.getParameter(event, index);
-        sendStartDetectorMessage(state);
-        if (state.window) {
-            setParameter(state, parameter);
-        }
-        mTouchStates.put(event.getPointerId(index), state);
+        mCore.setRewind(rewind);
     }
 
-    protected void setParameter(TouchState state, float parameter) {
-        state.threshold = parameter * mMagnification;
-        state.hysteresis = parameter * (1.0f + (mMagnification - 1.0f) / 2.0f);
+    /**
+     * Evaluate every batched sample of ACTION_MOVE in order instead of only one,
+     * so a relative touch is fired at the first sample that crosses the threshold.
+     */
+    public void setProcessHistory(boolean processHistory) {
+        mProcessHistory = processHistory;
+        mCore.setProcessHistory(processHistory);
     }
 
-    protected boolean isReset(TouchState state, float parameter) {
-        switch (mType) {
-            case TYPE_WIGGLE:
-                return parameter < state.hysteresis;
-            case TYPE_SCRATCH:
-                return parameter > state.hysteresis;
-        }
-        return false;
+    /**
+     * Base the threshold on a moving average of the parameter instead of the first sample
+     * in the detection window. The average stops once the press rises past the noise band.
+     *
+     * @param samples number of samples the average roughly spans, 0 uses the first sample
+     */
+    public void setBaselineSamples(int samples) {
+        mCore.setBaselineSamples(samples);
     }
 
-    protected boolean isRelativeTouch(TouchState state, float parameter) {
-        switch (mType) {
-            case TYPE_WIGGLE:
-                return parameter > state.threshold;
-            case TYPE_SCRATCH:
-                return parameter < state.threshold;
-        }
-        return false;
+    public void setLongClickable(boolean longClickable) {
+        mCore.setLongClickable(longClickable);
     }
 
-    private void removeTouchAndPerformTap(int pointerId) {
-        if (mActivePointerId == pointerId) {
-            TouchState state = mTouchStates.get(pointerId);
-            if (!mHandled && state.inTapRegion) {
-                if (mCallback.onForceTap(state.x, state.y)) {
-                    onHandled();
-                }
-            }
-            removeMessages(state);
-            mActivePointerId = INVALID_POINTER_ID;
-        }
-        mTouchStates.remove(pointerId);
+    public void allowUnknownType(boolean allow) {
+        mCore.allowUnknownType(allow);
     }
 
-    private void onHandled() {
-        if (mRewind) {
-            TouchState state = mTouchStates.get(mActivePointerId);
-            if (state != null) {
-                // rewind movements
-                for (MotionEvent event : mMotionEvents) {
-                    mCallback.performOriginalOnTouchEvent(event);
-                }
-            }
-            clearMotionEvents();
-        }
-        mCallback.performOriginalOnTouchEvent(mCancelEvent);
-        mCancelEvent.recycle();
-        mCancelEvent = null;
-        mHandled = true;
+    public void setType(int type) {
+        mCore.setType(type);
     }
 
-    private void onRelativeTouchStarted(MotionEvent event, int index, TouchState state) {
-        mActivePointerId = event.getPointerId(index);
-        sendLongPressMessage(state);
-        if (mCancelEvent != null) {
-            mCancelEvent.recycle();
-        }
-        mCancelEvent = MotionEvent.obtain(event);
-        mCancelEvent.setAction(MotionEvent.ACTION_CANCEL);
+    /**
+     * For {@link #TYPE_SLOPE}. The magnification is still used to detect reset.
+     *
+     * @param slope            change of the parameter per second relative to the base,
+     *                         negative value detects falling like {@link #TYPE_SCRATCH}
+     * @param durationInMillis how long the slope must be kept
+     */
+    public void setSlope(float slope, int durationInMillis) {
+        mCore.setSlope(slope, durationInMillis);
     }
 
     public boolean onTouchEvent(MotionEvent event) {
-        final int action = event.getActionMasked();
-        if (mCanceled && action != MotionEvent.ACTION_DOWN) {
-            return false;
-        }
-        switch (action) {
-            case MotionEvent.ACTION_DOWN: {
-                cleanUp();
-                mCanceled = false;
-                addTouch(event);
-                break;
-            }
-            case MotionEvent.ACTION_MOVE: {
-                if (!mHandled) {
-                    if (!mMultipleForceTouch && mRewind) {
-                        mMotionEvents.add(0, MotionEvent.obtain(event));
-                    }
-                    int count = event.getPointerCount();
-                    for (int index = 0; index < count; ++index) {
-                        TouchState state = mTouchStates.get(event.getPointerId(index));
-                        if (state == null) {
-                            continue;
-                        }
-                        if (mBlockDragging && !state.inTapRegion) {
-                            continue;
-                        }
-                        final float parameter = mCallback.getParameter(event, index);
-                        final float x = event.getX(index);
-                        final float y = event.getY(index);
-                        final float dx = x - state.x;
-                        final float dy = y - state.y;
-                        if ((dx * dx + dy * dy) > mTouchSlopeSquare) {
-//                            Log.d(TAG, "out of tap region");
-                            state.inTapRegion = false;
-                            removeMessages(state);
-                        }
-                        if (state.window) {
-                            if (state.threshold == TouchState.INVALID_PARAMETER) {
-                                setParameter(state, parameter);
-                            } else if (state.forceTouch) {
-                                if (mMultipleForceTouch && isReset(state, parameter)) {
-                                    state.forceTouch = false;
-                                    clearMotionEvents();
-                                    removeMessages(state);
-                                }
-                            } else if (isRelativeTouch(state, parameter)) {
-                                state.x = x;
-                                state.y = y;
-                                state.inTapRegion = true;
-                                state.forceTouch = true;
-                                if (mCallback.onRelativeTouch(x, y, state.startX, state.startY)) {
-                                    onRelativeTouchStarted(event, index, state);
-//                                    break;
-                                }
-                            }
-                        }
-                    }
-                }
-                break;
-            }
-            case MotionEvent.ACTION_CANCEL:
-                cleanUp();
-                break;
-            case MotionEvent.ACTION_UP:
-                removeTouchAndPerformTap(event.getPointerId(event.getActionIndex()));
-                cleanUp();
-                break;
-            case MotionEvent.ACTION_POINTER_DOWN:
-                if (mCancelByMultiTouch) {
-                    cleanUp();
-                } else {
-                    addTouch(event);
-                }
-                break;
-            case MotionEvent.ACTION_POINTER_UP: {
-                final int index = (event.getAction() & MotionEvent.ACTION_POINTER_INDEX_MASK) >>
-                        MotionEvent.ACTION_POINTER_INDEX_SHIFT;
-                final int pointerId = event.getPointerId(index);
-                removeTouchAndPerformTap(pointerId);
-                break;
-            }
+        return onTouchEvent(event, extractFrame(event, mProcessHistory));
+    }
+
+    /**
+     * @param frame features of the event, the event itself is only used to cancel and rewind
+     */
+    public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+        mHost.setCurrentEvent(event);
+        try {
+            return mCore.onTouchEvent(frame);
+        } finally {
+            mHost.setCurrentEvent(null);
         }
-
-        // disable for multiple force touch detector
-//        if (!mHandled) {
-//           return mCallback.performOriginalOnTouchEvent(event);
-//        }
-        return mHandled;
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.lib;
+
+import android.content.Context;
+import android.view.MotionEvent;
+import android.view.ViewConfiguration;
+
+import jp.tkgktyk.lib.core.TapFlickRecognizer;
+
+/**
+ * Tap, double tap, long press and four-way flick of one pointer in MotionEvents.
+ * Replaces GestureDetector for detectors which take over a stroke: the pointer is read
+ * from the original events, so no event is built per move, and slops and velocities are
+ * settings instead of private fields.
+ */
+public class TapFlickDetector {
+    private static final String TAG = TapFlickDetector.class.getSimpleName();
+
+    public static final int FLICK_LEFT = TapFlickRecognizer.FLICK_LEFT;
+    public static final int FLICK_UP = TapFlickRecognizer.FLICK_UP;
+    public static final int FLICK_RIGHT = TapFlickRecognizer.FLICK_RIGHT;
+    public static final int FLICK_DOWN = TapFlickRecognizer.FLICK_DOWN;
+
+    private final TapFlickRecognizer mRecognizer;
+    private final int mTouchSlop;
+    private final int mMinimumFlingVelocity;
+
+    public TapFlickDetector(Context context, TapFlickRecognizer.Listener listener) {
+        mRecognizer = new TapFlickRecognizer(listener, new HandlerScheduler());
+        ViewConfiguration configuration = ViewConfiguration.get(context);
+        mTouchSlop = configuration.getScaledTouchSlop();
+        mMinimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        mRecognizer.setDoubleTapSlop(configuration.getScaledDoubleTapSlop());
+        // same as GestureDetector
+        mRecognizer.setLongPressTimeout(ViewConfiguration.getTapTimeout() +
+                ViewConfiguration.getLongPressTimeout());
+        mRecognizer.setDoubleTapTimeout(ViewConfiguration.getDoubleTapTimeout());
+        setSensitivity(1);
+    }
+
+    /**
+     * Multiply the touch slop and the minimum fling velocity.
+     */
+    public void setSensitivity(int sensitivity) {
+        mRecognizer.setTouchSlop(mTouchSlop * sensitivity);
+        mRecognizer.setMinimumFlingVelocity(mMinimumFlingVelocity * sensitivity);
+    }
+
+    public void setExtraLongPressTimeout(int extraLongPressTimeout) {
+        mRecognizer.setExtraLongPressTimeout(extraLongPressTimeout);
+    }
+
+    public void setDoubleTapEnabled(boolean enabled) {
+        mRecognizer.setDoubleTapEnabled(enabled);
+    }
+
+    /**
+     * Feed the pointer as a single pointer stroke.
+     *
+     * @param action ACTION_DOWN, ACTION_MOVE, ACTION_UP or ACTION_CANCEL of the stroke,
+     *               which may differ from the action of the event
+     */
+    public void onTouchEvent(int action, MotionEvent event, int pointerId) {
+        if (action == MotionEvent.ACTION_CANCEL) {
+            mRecognizer.cancel();
+            return;
+        }
+        final int index = event.findPointerIndex(pointerId);
+        if (index == -1) {
+            return;
+        }
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+                mRecognizer.onDown(event.getX(index), event.getY(index), event.getEventTime());
+                break;
+            case MotionEvent.ACTION_MOVE: {
+                // batched samples make the velocity accurate
+                final int historySize = event.getHistorySize();
+                for (int pos = 0; pos < historySize; ++pos) {
+                    mRecognizer.onMove(event.getHistoricalX(index, pos),
+                            event.getHistoricalY(index, pos), event.getHistoricalEventTime(pos));
+                }
+                mRecognizer.onMove(event.getX(index), event.getY(index), event.getEventTime());
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+                mRecognizer.onUp(event.getX(index), event.getY(index), event.getEventTime());
+                break;
+        }
+    }
+
+    public void cancel() {
+        mRecognizer.cancel();
+    }
+}
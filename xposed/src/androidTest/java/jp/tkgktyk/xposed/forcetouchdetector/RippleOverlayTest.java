@@ -0,0 +1,75 @@
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.widget.FrameLayout;
+
+/**
+ * A ripple must not cause layout passes of the window. Every layout pass of a view tree
+ * starts from requestLayout, so the root counts the requests while ripples play.
+ */
+public class RippleOverlayTest extends InstrumentationTestCase {
+    private static final int SIZE = 1000;
+    // longer than the animation
+    private static final long PLAY_TIME_IN_MILLIS = 1000;
+
+    private static class CountingLayout extends FrameLayout {
+        int requests;
+
+        CountingLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            super.requestLayout();
+            ++requests;
+        }
+    }
+
+    private CountingLayout mRoot;
+    private RippleOverlay mRipple;
+
+    public void testRippleCausesNoLayout() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            // no overlay, the legacy path adds a view on purpose
+            return;
+        }
+        final Context context = getInstrumentation().getTargetContext();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRoot = new CountingLayout(context);
+                final int spec = View.MeasureSpec.makeMeasureSpec(SIZE,
+                        View.MeasureSpec.EXACTLY);
+                mRoot.measure(spec, spec);
+                mRoot.layout(0, 0, SIZE, SIZE);
+                mRipple = new RippleOverlay(mRoot);
+                mRoot.requests = 0;
+                mRipple.start(SIZE / 2, SIZE / 2, Color.RED);
+            }
+        });
+        SystemClock.sleep(PLAY_TIME_IN_MILLIS);
+        getInstrumentation().waitForIdleSync();
+        // the second ripple reuses the drawable in the overlay
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRipple.start(SIZE / 4, SIZE / 4, Color.BLUE);
+            }
+        });
+        SystemClock.sleep(PLAY_TIME_IN_MILLIS / 2);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRipple.cancel();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+        assertEquals(0, mRoot.requests);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import android.graphics.RectF;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.tkgktyk.lib.core.ZoneIndex;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.ActionInfo;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.DetectionZone;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.ScaleRect;
+
+/**
+ * Detection area of a window, the area setting plus named zones.
+ * Zones are compiled into integer bounds for the window size on the first lookup after
+ * settings are loaded or the window is resized, so lookups don't allocate.
+ */
+public class DetectionArea {
+    private static final int TAG_DEFAULT = 0;
+
+    private View mTargetView;
+    private final ZoneIndex mIndex = new ZoneIndex();
+    private List<DetectionZone> mZones = new ArrayList<>();
+    private boolean mReverse;
+    private int mScreenWidth;
+    private int mScreenHeight;
+
+    public DetectionArea(View targetView, FTD.Settings settings) {
+        mTargetView = targetView;
+        onSettingsLoaded(settings);
+    }
+
+    /**
+     * Zones are compiled again if the new window has another size.
+     */
+    public void setTargetView(View targetView) {
+        mTargetView = targetView;
+    }
+
+    /**
+     * Zones are laid out on the whole screen while no window is set.
+     */
+    public void setScreenSize(int width, int height) {
+        mScreenWidth = width;
+        mScreenHeight = height;
+    }
+
+    public void onSettingsLoaded(FTD.Settings settings) {
+        mIndex.clear();
+        mZones = settings.detectionZones;
+        // named zones first, their actions take precedence over the default area
+        for (int i = 0; i < mZones.size(); ++i) {
+            DetectionZone zone = mZones.get(i);
+            addZone(zone.area, zone.mirror, i + 1);
+        }
+        addZone(settings.detectionArea, settings.detectionAreaMirror, TAG_DEFAULT);
+        mReverse = settings.detectionAreaReverse;
+    }
+
+    private void addZone(ScaleRect area, boolean mirror, int tag) {
+        RectF rect = area.getRect();
+        mIndex.addZone(rect.left, rect.top, rect.right, rect.bottom, tag);
+        if (mirror) {
+            rect = area.getMirroredRect();
+            mIndex.addZone(rect.left, rect.top, rect.right, rect.bottom, tag);
+        }
+    }
+
+    private int findZone(float x, float y) {
+        if (mTargetView != null) {
+            mIndex.layout(mTargetView.getWidth(), mTargetView.getHeight());
+        } else {
+            mIndex.layout(mScreenWidth, mScreenHeight);
+        }
+        return mIndex.findZone(x, y);
+    }
+
+    public boolean isInDetectionArea(float x, float y) {
+        return (findZone(x, y) != ZoneIndex.NO_ZONE) != mReverse;
+    }
+
+    /**
+     * @return null outside named zones, or everywhere if the area is reversed
+     */
+    private DetectionZone getZone(float x, float y) {
+        if (mReverse) {
+            return null;
+        }
+        final int tag = findZone(x, y);
+        return tag > TAG_DEFAULT ? mZones.get(tag - 1) : null;
+    }
+
+    public ActionInfo.Record getTapAction(float x, float y, ActionInfo.Record defaultAction) {
+        DetectionZone zone = getZone(x, y);
+        return zone != null && zone.actionTap.type != ActionInfo.TYPE_NONE ?
+                zone.actionTap : defaultAction;
+    }
+
+    public ActionInfo.Record getLongPressAction(float x, float y,
+                                                ActionInfo.Record defaultAction) {
+        DetectionZone zone = getZone(x, y);
+        return zone != null && zone.actionLongPress.type != ActionInfo.TYPE_NONE ?
+                zone.actionLongPress : defaultAction;
+    }
+}
@@ -42,10 +42,14 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 
 import jp.tkgktyk.xposed.forcetouchdetector.app.util.ActionInfo;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.AppProfile;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.DetectionZone;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.ProfilePreferences;
 import jp.tkgktyk.xposed.forcetouchdetector.app.util.ScaleRect;
 
 /**
@@ -201,6 +205,30 @@ public class FTD {
         return "";
     }
 
+    /**
+     * @param name action name after {@link #PREFIX_ACTION} like "BACK"
+     */
+    public static boolean isToolAction(String name) {
+        final String action = PREFIX_ACTION + name;
+        return INTERNAL_ACTION_FILTER.hasAction(action) || ENTRIES.containsKey(action);
+    }
+
+    /**
+     * @param name  action name after {@link #PREFIX_ACTION}, null or unknown one means
+     *              no action
+     * @param label shown by the enabled-action toast
+     */
+    @NonNull
+    public static ActionInfo.Record getToolActionRecord(@Nullable String name, String label) {
+        ActionInfo.Record record = new ActionInfo.Record();
+        if (name != null && isToolAction(name)) {
+            record.type = ActionInfo.TYPE_TOOL;
+            record.intentUri = new Intent(PREFIX_ACTION + name).toUri(0);
+            record.name = label;
+        }
+        return record;
+    }
+
     @DrawableRes
     public static int getActionIconResource(String action) {
         Entry entry = ENTRIES.get(action);
@@ -210,47 +238,87 @@ public class FTD {
         return 0;
     }
 
-    public static boolean performAction(@NonNull View view,
-                                        @NonNull ActionInfo actionInfo,
-                                        @NonNull MotionEvent event) {
-        return performAction(view, actionInfo, event.getX(), event.getY(), event);
-    }
-
     public static boolean performAction(@NonNull View view,
                                         @NonNull ActionInfo actionInfo,
                                         float x, float y) {
-        return performAction(view, actionInfo, x, y, null);
+        return performAction(view, actionInfo, x, y, false, null);
     }
 
+    /**
+     * @param injectTouch inject touch actions like double tap to the view instead of
+     *                    broadcasting them
+     * @param trace       sent with broadcasts, or finished here for other actions
+     */
     public static boolean performAction(@NonNull View view,
                                         @NonNull ActionInfo actionInfo,
-                                        float x, float y,
-                                        @Nullable MotionEvent event) {
-        Context context = view.getContext();
+                                        float x, float y, boolean injectTouch,
+                                        @Nullable LatencyTrace trace) {
         Intent intent = actionInfo.getIntent();
         if (intent == null) {
             return false;
         }
+        if (injectTouch && actionInfo.getType() == ActionInfo.TYPE_TOOL &&
+                intent.getAction().endsWith(SUFFIX_TOUCH_ACTION)) {
+            String action = intent.getAction();
+            if (trace != null) {
+                trace.setType(LatencyTrace.getType(action));
+                trace.mark(LatencyTrace.STAGE_SEND);
+            }
+            performTouchAction(view, action, x, y);
+            if (trace != null) {
+                trace.finish();
+            }
+            return true;
+        }
         // add coordinates
         int location[] = new int[2];
         view.getLocationOnScreen(location);
-        intent.putExtra(EXTRA_X, x + location[0]);
-        intent.putExtra(EXTRA_Y, y + location[1]);
+        return launch(view.getContext(), actionInfo, intent, x + location[0], y + location[1],
+                trace);
+    }
+
+    /**
+     * For detectors without a window, touch actions are broadcast.
+     *
+     * @param x coordinate on the screen
+     * @param y coordinate on the screen
+     */
+    public static boolean performAction(@NonNull Context context,
+                                        @NonNull ActionInfo actionInfo,
+                                        float x, float y, @Nullable LatencyTrace trace) {
+        Intent intent = actionInfo.getIntent();
+        if (intent == null) {
+            return false;
+        }
+        return launch(context, actionInfo, intent, x, y, trace);
+    }
+
+    private static boolean launch(@NonNull Context context, @NonNull ActionInfo actionInfo,
+                                  @NonNull Intent intent, float screenX, float screenY,
+                                  @Nullable LatencyTrace trace) {
+        intent.putExtra(EXTRA_X, screenX);
+        intent.putExtra(EXTRA_Y, screenY);
         // launch action like ActionInfo#launch
         switch (actionInfo.getType()) {
             case ActionInfo.TYPE_TOOL:
-                String action = intent.getAction();
-                if (event != null && action.endsWith(SUFFIX_TOUCH_ACTION)) {
-                    performTouchAction(view, action, event);
-                } else {
-                    context.sendBroadcast(intent);
+                if (trace != null) {
+                    trace.send(intent);
                 }
+                context.sendBroadcast(intent);
                 break;
             case ActionInfo.TYPE_APP:
             case ActionInfo.TYPE_SHORTCUT:
                 try {
                     intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    if (trace != null) {
+                        trace.setType(actionInfo.getType() == ActionInfo.TYPE_APP ?
+                                LatencyTrace.TYPE_APP : LatencyTrace.TYPE_SHORTCUT);
+                        trace.mark(LatencyTrace.STAGE_SEND);
+                    }
                     context.startActivity(intent);
+                    if (trace != null) {
+                        trace.finish();
+                    }
                 } catch (ActivityNotFoundException e) {
                     Context mod = getModContext(context);
                     Toast.makeText(mod, R.string.not_found, Toast.LENGTH_SHORT).show();
@@ -264,25 +332,25 @@ public class FTD {
 
     private static void performTouchAction(@NonNull final View container,
                                            @NonNull String action,
-                                           @NonNull final MotionEvent event) {
+                                           final float x, final float y) {
         if (action.equals(ACTION_DOUBLE_TAP)) {
-            injectMotionEvent(container, event, MotionEvent.ACTION_DOWN);
-            injectMotionEvent(container, event, MotionEvent.ACTION_UP);
-            injectMotionEvent(container, event, MotionEvent.ACTION_DOWN);
-            injectMotionEvent(container, event, MotionEvent.ACTION_UP);
+            injectMotionEvent(container, x, y, MotionEvent.ACTION_DOWN);
+            injectMotionEvent(container, x, y, MotionEvent.ACTION_UP);
+            injectMotionEvent(container, x, y, MotionEvent.ACTION_DOWN);
+            injectMotionEvent(container, x, y, MotionEvent.ACTION_UP);
         } else if (action.equals(ACTION_LONG_PRESS)) {
-            injectMotionEventForLongPress(container, event, MotionEvent.ACTION_DOWN);
-            injectMotionEvent(container, event, MotionEvent.ACTION_CANCEL);
+            injectMotionEventForLongPress(container, x, y, MotionEvent.ACTION_DOWN);
+            injectMotionEvent(container, x, y, MotionEvent.ACTION_CANCEL);
         } else if (action.equals(ACTION_LONG_PRESS_FULL)) {
-            injectMotionEvent(container, event, MotionEvent.ACTION_DOWN);
+            injectMotionEvent(container, x, y, MotionEvent.ACTION_DOWN);
             container.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    injectMotionEvent(container, event, MotionEvent.ACTION_UP);
+                    injectMotionEvent(container, x, y, MotionEvent.ACTION_UP);
                 }
             }, ViewConfiguration.getLongPressTimeout() + ViewConfiguration.getTapTimeout());
         } else if (action.equals(ACTION_SCROLL_UP)) {
-            findViewAtPosition(container, Math.round(event.getX()), Math.round(event.getY()),
+            findViewAtPosition(container, Math.round(x), Math.round(y),
                     new OnViewFoundListener() {
                         @Override
                         public boolean onViewFound(final View view) {
@@ -309,7 +377,7 @@ public class FTD {
                         }
                     });
         } else if (action.equals(ACTION_SCROLL_DOWN)) {
-            findViewAtPosition(container, Math.round(event.getX()), Math.round(event.getY()),
+            findViewAtPosition(container, Math.round(x), Math.round(y),
                     new OnViewFoundListener() {
                         @Override
                         public boolean onViewFound(final View view) {
@@ -336,22 +404,21 @@ public class FTD {
         }
     }
 
-    private static void injectMotionEvent(@NonNull View view, @NonNull MotionEvent base,
-                                          int action) {
+    private static void injectMotionEvent(@NonNull View view, float x, float y, int action) {
         long downTime = SystemClock.uptimeMillis();
         long eventTime = SystemClock.uptimeMillis() + 100;
         MotionEvent event = MotionEvent.obtain(downTime, eventTime, action,
-                base.getX(), base.getY(), 0.0f, 0.0f, 0, 1.0f, 1.0f, 0, 0);
+                x, y, 0.0f, 0.0f, 0, 1.0f, 1.0f, 0, 0);
         view.dispatchTouchEvent(event);
         event.recycle();
     }
 
-    private static void injectMotionEventForLongPress(@NonNull View view, @NonNull MotionEvent base,
+    private static void injectMotionEventForLongPress(@NonNull View view, float x, float y,
                                                       int action) {
         long downTime = SystemClock.uptimeMillis() - 1000;
         long eventTime = SystemClock.uptimeMillis() + 100;
         MotionEvent event = MotionEvent.obtain(downTime, eventTime, action,
-                base.getX(), base.getY(), 0.0f, 0.0f, 0, 1.0f, 1.0f, -1, 0);
+                x, y, 0.0f, 0.0f, 0, 1.0f, 1.0f, -1, 0);
         view.dispatchTouchEvent(event);
         event.recycle();
     }
@@ -407,6 +474,58 @@ public class FTD {
 
     public static final String ACTION_SETTINGS_CHANGED = PREFIX_ACTION + "SETTINGS_CHANGED";
     public static final String EXTRA_SETTINGS = PREFIX_EXTRA + "SETTINGS";
+    // HookStats pulled by the settings app from each process
+    public static final String ACTION_REQUEST_STATS = PREFIX_ACTION + "REQUEST_STATS";
+    public static final String ACTION_STATS = PREFIX_ACTION + "STATS";
+    public static final String EXTRA_STATS = PREFIX_EXTRA + "STATS";
+    // signature permission, only the settings app may request stats from hooked processes
+    public static final String PERMISSION_REQUEST_STATS = PACKAGE_NAME
+            + ".permission.REQUEST_STATS";
+    // percentiles of ordinary touches, saved by the settings app for later processes
+    public static final String ACTION_CALIBRATION = PREFIX_ACTION + "CALIBRATION";
+    public static final String EXTRA_DETECTOR_METHOD = PREFIX_EXTRA + "DETECTOR_METHOD";
+    public static final String EXTRA_CALIBRATION = PREFIX_EXTRA + "CALIBRATION";
+
+    // called by ModForceTouch
+    public static void sendCalibration(Context context, int detectorMethod,
+                                       float lower, float median, float upper) {
+        Intent intent = new Intent(FTD.ACTION_CALIBRATION);
+        intent.setPackage(FTD.PACKAGE_NAME);
+        intent.putExtra(FTD.EXTRA_DETECTOR_METHOD, detectorMethod);
+        intent.putExtra(FTD.EXTRA_CALIBRATION, new float[]{lower, median, upper});
+        context.sendBroadcast(intent);
+    }
+
+    public static String getCalibrationKey(int detectorMethod) {
+        return "key_calibration_" + detectorMethod;
+    }
+
+    /**
+     * @return lower quantile, median and upper quantile joined by commas
+     */
+    public static String toCalibrationPreference(float[] calibration) {
+        return calibration[0] + "," + calibration[1] + "," + calibration[2];
+    }
+
+    /**
+     * @return null if the preference is empty or broken
+     */
+    @Nullable
+    public static float[] fromCalibrationPreference(String pref) {
+        if (Strings.isNullOrEmpty(pref)) {
+            return null;
+        }
+        String[] values = pref.split(",");
+        if (values.length != 3) {
+            return null;
+        }
+        try {
+            return new float[]{Float.parseFloat(values[0]), Float.parseFloat(values[1]),
+                    Float.parseFloat(values[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
     // called by SettingsActivity
     public static void sendSettingsChanged(Context context, SharedPreferences prefs) {
@@ -445,6 +564,44 @@ public class FTD {
     public static final Integer METHOD_SIZE = 0;
     public static final Integer METHOD_PRESSURE = 1;
 
+    // a deliberate press reaches the magnification within this time
+    private static final int SLOPE_RISE_TIME_IN_MILLIS = 100;
+    public static final int SLOPE_DURATION_IN_MILLIS = 30;
+
+    /**
+     * Slope limit per second for Slope Trigger, negative for magnification less than 1.
+     */
+    public static float getSlope(float magnification) {
+        return (magnification - 1.0f) * 1000.0f / SLOPE_RISE_TIME_IN_MILLIS;
+    }
+
+    /**
+     * Settings of an app with its {@link AppProfile} applied.
+     */
+    public static Settings loadSettings(Context context, SharedPreferences prefs,
+                                        String packageName) {
+        AppProfile profile = findAppProfile(prefs.getString("key_app_profiles", ""), packageName);
+        if (profile == null) {
+            return new Settings(context, prefs);
+        }
+        return new Settings(context, profile.apply(prefs, new ProfilePreferences.ActionConverter() {
+            @Override
+            public String toPreference(@Nullable String name) {
+                return getToolActionRecord(name, name).toStringForPreference();
+            }
+        }));
+    }
+
+    @Nullable
+    private static AppProfile findAppProfile(String appProfiles, String packageName) {
+        try {
+            return AppProfile.find(AppProfile.parse(appProfiles), packageName);
+        } catch (IllegalArgumentException e) {
+            // validated by SettingsActivity
+            return null;
+        }
+    }
+
     public static class Settings implements Serializable {
         static final long serialVersionUID = 1L;
 
@@ -455,12 +612,20 @@ public class FTD {
         public final ScaleRect detectionArea;
         public final boolean detectionAreaMirror;
         public final boolean detectionAreaReverse;
+        public final ArrayList<DetectionZone> detectionZones;
         public final int detectionSensitivity;
         public final int detectionWindow;
+        public final int baselineSamples;
         public final int extraLongPressTimeout;
         public final Set<String> blacklist;
+        public final String appProfiles;
         public final boolean allowUnknownInputType;
         public final boolean singleTouchMode;
+        public final boolean processHistory;
+        public final boolean globalDetectorEnable;
+        public final boolean slopeTrigger;
+        public final boolean autoThreshold;
+        public final String customGestures;
         // Feedback
         public final boolean vibration;
         public final int rippleColor;
@@ -482,6 +647,10 @@ public class FTD {
 
         // Detector
         public final int detectorMethod;
+        /**
+         * Saved percentiles of the detector method for auto threshold, or null.
+         */
+        public final float[] calibration;
 
         // Force Touch
         // Setting
@@ -534,12 +703,20 @@ public class FTD {
             detectionArea = ScaleRect.fromPreference(prefs.getString("key_detection_area", ""));
             detectionAreaMirror = prefs.getBoolean("key_detection_area_mirror", false);
             detectionAreaReverse = prefs.getBoolean("key_detection_area_reverse", false);
+            detectionZones = DetectionZone.fromPreference(prefs.getString("key_detection_zones", ""));
             detectionSensitivity = Integer.parseInt(getStringToParse(prefs, "key_detection_sensitivity", "9"));
             detectionWindow = Integer.parseInt(getStringToParse(prefs, "key_detection_window", "500"));
+            baselineSamples = Integer.parseInt(getStringToParse(prefs, "key_baseline_samples", "0"));
             extraLongPressTimeout = Integer.parseInt(getStringToParse(prefs, "key_extra_long_press_timeout", "300"));
             blacklist = prefs.getStringSet("key_blacklist", Sets.<String>newHashSet());
+            appProfiles = prefs.getString("key_app_profiles", "");
             allowUnknownInputType = prefs.getBoolean("key_allow_unknown_input_type", false);
             singleTouchMode = prefs.getBoolean("key_single_touch_mode", false);
+            processHistory = prefs.getBoolean("key_process_history", false);
+            globalDetectorEnable = prefs.getBoolean("key_global_detector_enable", false);
+            slopeTrigger = prefs.getBoolean("key_slope_trigger", false);
+            autoThreshold = prefs.getBoolean("key_auto_threshold", false);
+            customGestures = prefs.getString("key_custom_gestures", "");
             // Feedback
             vibration = prefs.getBoolean("key_vibration", true);
             rippleColor = Color.parseColor(getStringToParse(prefs, "key_ripple_color", "#212121"));
@@ -561,6 +738,8 @@ public class FTD {
 
             // Detector
             detectorMethod = Integer.parseInt(getStringToParse(prefs, "key_detector_method", "0"));
+            calibration = fromCalibrationPreference(
+                    prefs.getString(getCalibrationKey(detectorMethod), ""));
 
             // Force Touch
             forceTouchEnable = prefs.getBoolean("key_force_touch_enable", false);
@@ -597,6 +776,13 @@ public class FTD {
             scratchTouchActionLongPress = getActionRecord(prefs, "key_scratch_touch_action_long_press");
         }
 
+        /**
+         * @return true if the settings of the app need {@link #loadSettings}
+         */
+        public boolean hasAppProfile(String packageName) {
+            return findAppProfile(appProfiles, packageName) != null;
+        }
+
         private String getStringToParse(SharedPreferences prefs, String key, String defValue) {
             String str = prefs.getString(key, defValue);
             if (Strings.isNullOrEmpty(str)) {
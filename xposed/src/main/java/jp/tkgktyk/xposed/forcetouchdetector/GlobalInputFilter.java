@@ -0,0 +1,344 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Point;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Vibrator;
+import android.view.Display;
+import android.view.InputDevice;
+import android.view.InputEvent;
+import android.view.MotionEvent;
+import android.view.ViewConfiguration;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedHelpers;
+import jp.tkgktyk.lib.FrameExtractor;
+import jp.tkgktyk.lib.core.ForceTouchListener;
+import jp.tkgktyk.lib.core.GlobalGestureFilter;
+import jp.tkgktyk.lib.core.RelativeDetectorCore;
+import jp.tkgktyk.lib.core.Scheduler;
+import jp.tkgktyk.lib.core.TouchFrame;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.ActionInfo;
+
+/**
+ * A single detector in system_server watching touches of all windows, instead of detectors
+ * in every app process. Touch screen events are taken from
+ * InputManagerService#filterInputEvent, which the input reader calls while the native
+ * input filter is enabled, and handed to {@link GlobalGestureFilter}.
+ * Wiggle Touch, or Scratch Touch if it is disabled, is supported. Other detectors need
+ * windows of apps.
+ */
+public class GlobalInputFilter extends XposedModule implements ForceTouchListener,
+        GlobalGestureFilter.InputSource<MotionEvent>, FrameExtractor.Source {
+    private static final String FIELD_INPUT_MANAGER = "mInputManager";
+    private static final int INJECT_INPUT_EVENT_MODE_ASYNC = 0;
+    private static final long VIBRATION_IN_MILLIS = 30;
+
+    private final Context mContext;
+    private final Object mInputManager;
+    private final Handler mHandler;
+    private final GlobalGestureFilter<MotionEvent> mFilter;
+    private final TouchFrame mFrame = new TouchFrame();
+    private final DetectionArea mArea;
+    private final Point mScreenSize = new Point();
+    // replaced on the handler thread, read on the input thread
+    private volatile FTD.Settings mSettings;
+    private boolean mScratch;
+    private long mStrokeId;
+    private long mEventTime;
+
+    /**
+     * @param windowManager WindowManagerService passed to PhoneWindowManager#init
+     */
+    public static void install(Context context, Object windowManager, FTD.Settings settings) {
+        final Object inputManager = XposedHelpers.getObjectField(windowManager,
+                FIELD_INPUT_MANAGER);
+        final GlobalInputFilter filter = new GlobalInputFilter(context, inputManager, settings);
+        final Class<?> classInputManager = inputManager.getClass();
+        XposedHelpers.findAndHookMethod(classInputManager, "filterInputEvent",
+                InputEvent.class, int.class, new XC_MethodHook() {
+                    @Override
+                    protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                        try {
+                            if (!filter.filterInputEvent((InputEvent) param.args[0])) {
+                                // consumed, the original passes it to accessibility
+                                param.setResult(false);
+                            }
+                        } catch (Throwable t) {
+                            logE(t);
+                        }
+                    }
+                });
+        // accessibility turns the native filter off when it removes its own
+        XposedHelpers.findAndHookMethod(classInputManager, "setInputFilter",
+                "android.view.IInputFilter", new XC_MethodHook() {
+                    @Override
+                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        try {
+                            filter.enableNativeFilter();
+                        } catch (Throwable t) {
+                            logE(t);
+                        }
+                    }
+                });
+        filter.enableNativeFilter();
+        logD("global detector installed");
+    }
+
+    private GlobalInputFilter(Context context, Object inputManager, FTD.Settings settings) {
+        mContext = context;
+        mInputManager = inputManager;
+        HandlerThread thread = new HandlerThread(GlobalInputFilter.class.getSimpleName());
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mFilter = new GlobalGestureFilter<>(this, this, new LockedScheduler());
+        mArea = new DetectionArea(null, settings);
+        onSettingsLoaded(settings);
+
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                try {
+                    Object extra = intent.getSerializableExtra(FTD.EXTRA_SETTINGS);
+                    if (!(extra instanceof FTD.Settings)) {
+                        return;
+                    }
+                    logD("global detector: reload settings");
+                    final FTD.Settings settings = (FTD.Settings) extra;
+                    mFilter.runLocked(new Runnable() {
+                        @Override
+                        public void run() {
+                            onSettingsLoaded(settings);
+                        }
+                    });
+                } catch (Throwable t) {
+                    logE(t);
+                }
+            }
+        }, new IntentFilter(FTD.ACTION_SETTINGS_CHANGED), FTD.PERMISSION_REQUEST_STATS,
+                mHandler);
+    }
+
+    private void enableNativeFilter() {
+        // the pointer is int before Lollipop
+        XposedHelpers.callStaticMethod(mInputManager.getClass(), "nativeSetInputFilterEnabled",
+                XposedHelpers.getObjectField(mInputManager, "mPtr"), true);
+    }
+
+    private void onSettingsLoaded(FTD.Settings settings) {
+        mSettings = settings;
+        mArea.onSettingsLoaded(settings);
+        mScratch = !settings.wiggleTouchEnable;
+        final float magnification = mScratch ?
+                settings.scratchTouchMagnification : settings.wiggleTouchMagnification;
+        final ActionInfo.Record longPress = mScratch ?
+                settings.scratchTouchActionLongPress : settings.wiggleTouchActionLongPress;
+        final int delay = 100;
+        int window = settings.detectionWindow - delay;
+        if (window < 0) {
+            window = 0;
+        }
+        RelativeDetectorCore core = mFilter.getCore();
+        core.setLongPressTimeout(ViewConfiguration.getLongPressTimeout());
+        core.setExtraLongPressTimeout(settings.extraLongPressTimeout);
+        core.setWindowTimeInMillis(window);
+        core.setWindowDelayInMillis(delay);
+        core.setTouchSlop(ViewConfiguration.get(mContext).getScaledTouchSlop() *
+                settings.detectionSensitivity);
+        core.setBlockDragging(true);
+        core.setMagnification(magnification);
+        core.setMultipleForceTouch(false);
+        core.setCancelByMultiTouch(settings.singleTouchMode);
+        core.setLongClickable(longPress.type != ActionInfo.TYPE_NONE);
+        core.setType(settings.slopeTrigger ? RelativeDetectorCore.TYPE_SLOPE :
+                mScratch ? RelativeDetectorCore.TYPE_SCRATCH : RelativeDetectorCore.TYPE_WIGGLE);
+        core.setSlope(FTD.getSlope(magnification), FTD.SLOPE_DURATION_IN_MILLIS);
+        core.setProcessHistory(settings.processHistory);
+        core.setBaselineSamples(settings.baselineSamples);
+        core.allowUnknownType(settings.allowUnknownInputType);
+    }
+
+    /**
+     * Called on the input reader thread.
+     *
+     * @return false to drop the event
+     */
+    private boolean filterInputEvent(InputEvent event) {
+        if (!(event instanceof MotionEvent)) {
+            return true;
+        }
+        final MotionEvent motion = (MotionEvent) event;
+        if ((motion.getSource() & InputDevice.SOURCE_TOUCHSCREEN) !=
+                InputDevice.SOURCE_TOUCHSCREEN) {
+            return true;
+        }
+        final FTD.Settings settings = mSettings;
+        if (!settings.wiggleTouchEnable && !settings.scratchTouchEnable) {
+            return true;
+        }
+        // timers of the detector share the state
+        synchronized (mFilter) {
+            if (motion.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                mStrokeId = LatencyTrace.nextStrokeId();
+                updateScreenSize();
+            }
+            mEventTime = motion.getEventTime();
+            FrameExtractor.extract(mFrame, motion, this, settings.processHistory);
+            if (mFilter.filter(motion, mFrame)) {
+                return true;
+            }
+        }
+        motion.recycle();
+        return false;
+    }
+
+    private void updateScreenSize() {
+        DisplayManager displayManager = (DisplayManager) mContext
+                .getSystemService(Context.DISPLAY_SERVICE);
+        Display display = displayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        if (display != null) {
+            display.getRealSize(mScreenSize);
+            mArea.setScreenSize(mScreenSize.x, mScreenSize.y);
+        }
+    }
+
+    @Override
+    public MotionEvent retain(MotionEvent event) {
+        return MotionEvent.obtain(event);
+    }
+
+    @Override
+    public void release(MotionEvent event) {
+        event.recycle();
+    }
+
+    @Override
+    public void sendCancel(MotionEvent event) {
+        MotionEvent cancel = MotionEvent.obtain(event);
+        cancel.setAction(MotionEvent.ACTION_CANCEL);
+        try {
+            // injected events don't go through the filter
+            XposedHelpers.callMethod(mInputManager, "injectInputEvent", cancel,
+                    INJECT_INPUT_EVENT_MODE_ASYNC);
+        } catch (Throwable t) {
+            logE(t);
+        }
+        cancel.recycle();
+    }
+
+    @Override
+    public float getParameter(MotionEvent event, int index) {
+        return ModForceTouch.getMethodParameter(mSettings, event, index);
+    }
+
+    @Override
+    public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+        return ModForceTouch.getMethodParameter(mSettings, event, index, pos);
+    }
+
+    @Override
+    public boolean isInDetectionArea(float x, float y) {
+        return mArea.isInDetectionArea(x, y);
+    }
+
+    @Override
+    public boolean onAbsoluteTouch(float x, float y, float parameter) {
+        return false;
+    }
+
+    @Override
+    public boolean onRelativeTouch(float x, float y, float startX, float startY) {
+        if (isInDetectionArea(startX, startY)) {
+            if (!mScratch) {
+                vibrate();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onForceTap(float x, float y) {
+        if (mScratch) {
+            return false;
+        }
+        performAction(mArea.getTapAction(x, y, mSettings.wiggleTouchActionTap), x, y);
+        return true;
+    }
+
+    @Override
+    public boolean onForceLongPress(float x, float y) {
+        vibrate();
+        performAction(mArea.getLongPressAction(x, y, mScratch ?
+                mSettings.scratchTouchActionLongPress :
+                mSettings.wiggleTouchActionLongPress), x, y);
+        return true;
+    }
+
+    private void vibrate() {
+        if (mSettings.vibration) {
+            Vibrator vibrator = (Vibrator) mContext.getSystemService(Context.VIBRATOR_SERVICE);
+            vibrator.vibrate(VIBRATION_IN_MILLIS);
+        }
+    }
+
+    /**
+     * Actions are performed on the handler thread, not to block input.
+     */
+    private void performAction(final ActionInfo.Record record, final float x, final float y) {
+        final LatencyTrace trace = new LatencyTrace(mStrokeId, mEventTime);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                trace.mark(LatencyTrace.STAGE_POST);
+                try {
+                    FTD.performAction(mContext, new ActionInfo(record), x, y, trace);
+                } catch (Throwable t) {
+                    logE(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs timers of the detector on the handler thread with the lock of the filter.
+     */
+    private class LockedScheduler implements Scheduler {
+        @Override
+        public void scheduleAt(final Runnable task, long uptimeMillis) {
+            mHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    mFilter.runLocked(task);
+                }
+            }, task, uptimeMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            mHandler.removeCallbacksAndMessages(task);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.tkgktyk.lib.core.LogLinearHistogram;
+
+/**
+ * Overhead of the dispatchTouchEvent hook in this process. Counters and histograms of
+ * nanoseconds are kept in primitive arrays and sent to the settings app on request.
+ * Updates are not synchronized, events on other loopers than the main one may be lost,
+ * which is fine for statistics. Latency traces are finished on injection threads too,
+ * so they are synchronized.
+ */
+public class HookStats {
+    /**
+     * In the order of detectors in {@link ModForceTouch}.
+     */
+    public static final String[] DETECTOR_NAMES = {
+            "Force Gesture",
+            "Large Touch",
+            "Knuckle Touch",
+            "Wiggle Touch",
+            "Scratch Touch",
+            "Custom Gesture",
+    };
+    public static final int DETECTOR_COUNT = DETECTOR_NAMES.length;
+
+    private static long sEvents;
+    private static long sIntercepted;
+    private static final long[] sDetections = new long[DETECTOR_COUNT];
+    private static final LogLinearHistogram sHook = new LogLinearHistogram();
+    private static final LogLinearHistogram[] sDetectors = new LogLinearHistogram[DETECTOR_COUNT];
+    // action type to histograms of LatencyTrace.INTERVAL_NAMES
+    private static final Map<String, LogLinearHistogram[]> sLatencies = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DETECTOR_COUNT; ++i) {
+            sDetectors[i] = new LogLinearHistogram();
+        }
+    }
+
+    /**
+     * @param nanos time in the hook for a root view
+     */
+    public static void recordEvent(long nanos, boolean intercepted) {
+        ++sEvents;
+        if (intercepted) {
+            ++sIntercepted;
+        }
+        sHook.record(nanos);
+    }
+
+    public static void recordDetector(int detector, long nanos) {
+        sDetectors[detector].record(nanos);
+    }
+
+    public static void recordDetection(int detector) {
+        ++sDetections[detector];
+    }
+
+    /**
+     * @param intervals nanoseconds, negative ones are skipped
+     */
+    public static void recordTrace(String type, long[] intervals) {
+        synchronized (sLatencies) {
+            LogLinearHistogram[] histograms = sLatencies.get(type);
+            if (histograms == null) {
+                histograms = new LogLinearHistogram[LatencyTrace.INTERVAL_COUNT];
+                for (int i = 0; i < LatencyTrace.INTERVAL_COUNT; ++i) {
+                    histograms[i] = new LogLinearHistogram();
+                }
+                sLatencies.put(type, histograms);
+            }
+            for (int i = 0; i < LatencyTrace.INTERVAL_COUNT; ++i) {
+                if (intervals[i] >= 0) {
+                    histograms[i].record(intervals[i]);
+                }
+            }
+        }
+    }
+
+    public static Snapshot snapshot(String packageName) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.packageName = packageName;
+        snapshot.events = sEvents;
+        snapshot.intercepted = sIntercepted;
+        snapshot.detections = sDetections.clone();
+        snapshot.hook = sHook.getCounts();
+        snapshot.detectors = new long[DETECTOR_COUNT][];
+        for (int i = 0; i < DETECTOR_COUNT; ++i) {
+            snapshot.detectors[i] = sDetectors[i].getCounts();
+        }
+        snapshot.latencies = new HashMap<>();
+        synchronized (sLatencies) {
+            for (Map.Entry<String, LogLinearHistogram[]> entry : sLatencies.entrySet()) {
+                long[][] counts = new long[LatencyTrace.INTERVAL_COUNT][];
+                for (int i = 0; i < LatencyTrace.INTERVAL_COUNT; ++i) {
+                    counts[i] = entry.getValue()[i].getCounts();
+                }
+                snapshot.latencies.put(entry.getKey(), counts);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Statistics of a process sent to the settings app.
+     */
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public String packageName;
+        public long events;
+        public long intercepted;
+        public long[] detections;
+        // bucket counts of LogLinearHistogram
+        public long[] hook;
+        public long[][] detectors;
+        // action type to LatencyTrace.INTERVAL_NAMES
+        public HashMap<String, long[][]> latencies;
+
+        public LogLinearHistogram getHook() {
+            return new LogLinearHistogram(hook);
+        }
+
+        public LogLinearHistogram getDetector(int detector) {
+            return new LogLinearHistogram(detectors[detector]);
+        }
+
+        public LogLinearHistogram getLatency(String type, int interval) {
+            return new LogLinearHistogram(latencies.get(type)[interval]);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import android.content.Intent;
+import android.os.Process;
+import android.support.annotation.Nullable;
+
+/**
+ * Timestamps of one action from the triggering MotionEvent to the injected key or the
+ * started activity. The trace travels in the action Intent to ModInternal, and it is
+ * recorded to {@link HookStats} of the process which finishes it.
+ * Times are System.nanoTime(), which shares CLOCK_MONOTONIC with
+ * MotionEvent#getEventTime(), so stages in different processes can be compared.
+ */
+public class LatencyTrace {
+    public static final int STAGE_EVENT = 0;
+    public static final int STAGE_DETECT = 1;
+    public static final int STAGE_POST = 2;
+    public static final int STAGE_SEND = 3;
+    public static final int STAGE_RECEIVE = 4;
+    public static final int STAGE_DONE = 5;
+    private static final int STAGE_COUNT = 6;
+
+    /**
+     * Intervals recorded for each action type. "action" starts at the broadcast receiver
+     * for broadcast actions and at sending for the others. Actions fired by a timer like
+     * long press include the timeout in "detect".
+     */
+    public static final String[] INTERVAL_NAMES = {
+            "detect",
+            "hop",
+            "dispatch",
+            "broadcast",
+            "action",
+            "total",
+    };
+    public static final int INTERVAL_COUNT = INTERVAL_NAMES.length;
+
+    public static final String TYPE_APP = "APP";
+    public static final String TYPE_SHORTCUT = "SHORTCUT";
+
+    private static final String EXTRA_STROKE_ID = FTD.PREFIX_EXTRA + "STROKE_ID";
+    private static final String EXTRA_TRACE = FTD.PREFIX_EXTRA + "TRACE";
+
+    private static int sStrokeCount;
+
+    private final long mStrokeId;
+    private final long[] mTimes;
+    private String mType;
+
+    /**
+     * @return id unique among processes, shared by actions of one stroke
+     */
+    public static long nextStrokeId() {
+        return ((long) Process.myPid() << 32) | (++sStrokeCount & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Start a trace at {@link #STAGE_DETECT}.
+     *
+     * @param eventTime event time of the triggering MotionEvent in milliseconds
+     */
+    public LatencyTrace(long strokeId, long eventTime) {
+        mStrokeId = strokeId;
+        mTimes = new long[STAGE_COUNT];
+        mTimes[STAGE_EVENT] = eventTime * 1000000L;
+        mark(STAGE_DETECT);
+    }
+
+    private LatencyTrace(long strokeId, long[] times, String type) {
+        mStrokeId = strokeId;
+        mTimes = times;
+        mType = type;
+    }
+
+    /**
+     * @return null if the Intent is not sent with a trace
+     */
+    @Nullable
+    public static LatencyTrace fromIntent(Intent intent) {
+        long[] times = intent.getLongArrayExtra(EXTRA_TRACE);
+        if (times == null || times.length != STAGE_COUNT) {
+            return null;
+        }
+        return new LatencyTrace(intent.getLongExtra(EXTRA_STROKE_ID, 0), times,
+                getType(intent.getAction()));
+    }
+
+    public static String getType(String action) {
+        return action.startsWith(FTD.PREFIX_ACTION) ?
+                action.substring(FTD.PREFIX_ACTION.length()) : action;
+    }
+
+    public void setType(String type) {
+        mType = type;
+    }
+
+    public void mark(int stage) {
+        mTimes[stage] = System.nanoTime();
+    }
+
+    /**
+     * Mark {@link #STAGE_SEND} and put the trace to a broadcast.
+     */
+    public void send(Intent intent) {
+        mType = getType(intent.getAction());
+        mark(STAGE_SEND);
+        intent.putExtra(EXTRA_STROKE_ID, mStrokeId);
+        intent.putExtra(EXTRA_TRACE, mTimes);
+    }
+
+    /**
+     * Mark {@link #STAGE_DONE} and record the intervals to {@link HookStats}.
+     */
+    public void finish() {
+        mark(STAGE_DONE);
+        HookStats.recordTrace(mType, getIntervals());
+        XposedModule.logD(toString());
+    }
+
+    /**
+     * @return nanoseconds of {@link #INTERVAL_NAMES}, negative if not passed
+     */
+    public long[] getIntervals() {
+        final long[] times = mTimes;
+        final boolean broadcast = times[STAGE_RECEIVE] != 0;
+        return new long[]{
+                times[STAGE_DETECT] - times[STAGE_EVENT],
+                times[STAGE_POST] - times[STAGE_DETECT],
+                times[STAGE_SEND] - times[STAGE_POST],
+                broadcast ? times[STAGE_RECEIVE] - times[STAGE_SEND] : -1,
+                times[STAGE_DONE] - (broadcast ? times[STAGE_RECEIVE] : times[STAGE_SEND]),
+                times[STAGE_DONE] - times[STAGE_EVENT],
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("trace ")
+                .append(Long.toHexString(mStrokeId)).append(' ').append(mType);
+        long[] intervals = getIntervals();
+        for (int i = 0; i < INTERVAL_COUNT; ++i) {
+            if (intervals[i] >= 0) {
+                text.append(' ').append(INTERVAL_NAMES[i]).append('=')
+                        .append(intervals[i] / 1000).append("us");
+            }
+        }
+        return text.toString();
+    }
+}
@@ -36,6 +36,9 @@ public class Mod implements IXposedHookZygoteInit, IXposedHookLoadPackage {
         ModInternal.initZygote(mPrefs);
         if (settings.forceTouchScreenEnable) {
             ModForceTouchScreen.initZygote(mPrefs);
+        } else if (settings.globalDetectorEnable) {
+            // detected in system_server by ModInternal
+            ModLongPress.initZygote(mPrefs);
         } else {
             ModForceTouch.initZygote(mPrefs);
             ModLongPress.initZygote(mPrefs);
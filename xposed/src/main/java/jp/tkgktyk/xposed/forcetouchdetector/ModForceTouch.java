@@ -16,20 +16,14 @@
 
 package jp.tkgktyk.xposed.forcetouchdetector;
 
-import android.animation.Animator;
-import android.animation.ObjectAnimator;
-import android.animation.PropertyValuesHolder;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.graphics.Rect;
-import android.graphics.drawable.GradientDrawable;
 import android.os.Build;
 import android.os.Handler;
-import android.os.Message;
+import android.os.Looper;
 import android.support.annotation.Nullable;
-import android.view.GestureDetector;
 import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.View;
@@ -38,17 +32,24 @@ import android.view.WindowManager;
 import android.widget.Toast;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 
-import java.util.List;
+import java.util.ArrayList;
 
 import de.robv.android.xposed.XC_MethodHook;
-import de.robv.android.xposed.XC_MethodReplacement;
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedHelpers;
 import jp.tkgktyk.lib.AbsoluteDetector;
 import jp.tkgktyk.lib.ForceTouchDetector;
+import jp.tkgktyk.lib.FrameExtractor;
+import jp.tkgktyk.lib.GestureAutomatonDetector;
+import jp.tkgktyk.lib.GestureEngine;
 import jp.tkgktyk.lib.RelativeDetector;
+import jp.tkgktyk.lib.TapFlickDetector;
+import jp.tkgktyk.lib.core.GestureTable;
+import jp.tkgktyk.lib.core.TapFlickRecognizer;
+import jp.tkgktyk.lib.core.ThresholdCalibrator;
+import jp.tkgktyk.lib.core.TouchFrame;
+import jp.tkgktyk.lib.core.WeakIdentityRegistry;
 import jp.tkgktyk.xposed.forcetouchdetector.app.util.ActionInfo;
 
 /**
@@ -58,9 +59,11 @@ public class ModForceTouch extends XposedModule {
     private static final String CLASS_DECOR_VIEW = "com.android.internal.policy.impl.PhoneWindow$DecorView";
     private static final String CLASS_DECOR_VIEW_M = "com.android.internal.policy.PhoneWindow$DecorView";
     private static final String CLASS_POPUP_WINDOW = "android.widget.PopupWindow";
-    private static final String CLASS_POPUP_VIEW_CONTAINER = "android.widget.PopupWindow$PopupViewContainer";
-    private static final String FIELD_DETECTORS = FTD.NAME + "_forceTouchDetectors";
-    private static final String FIELD_SETTINGS_CHANGED_RECEIVER = FTD.NAME + "_settingsChangedReceiver";
+
+    // looked up on every event, keyed by root views of this process
+    private static final WeakIdentityRegistry<AttachedWindow> sWindows = new WeakIdentityRegistry<>();
+    // created by the first window, guarded by ModForceTouch.class
+    private static DetectorPool sPool;
 
     private static XSharedPreferences mPrefs;
 
@@ -74,27 +77,25 @@ public class ModForceTouch extends XposedModule {
     }
 
     private static void install() {
-        final XC_MethodReplacement dispatchTouchEvent = new XC_MethodReplacement() {
+        final RootDispatchHook dispatchTouchEvent = new RootDispatchHook() {
             @Override
-            protected Object replaceHookedMethod(MethodHookParam methodHookParam) throws Throwable {
-                boolean handled = false;
+            protected boolean dispatchTouchEvent(MethodHookParam methodHookParam) {
                 try {
+                    final long start = System.nanoTime();
                     View container = (View) methodHookParam.thisObject;
                     MotionEvent event = (MotionEvent) methodHookParam.args[0];
-                    List<Detector> detectors = getDetectors(container);
-                    if (detectors != null) {
-                        for (Detector ftd : detectors) {
-                            handled = handled || ftd.dispatchTouchEvent(event, methodHookParam);
-                        }
-                    }
-                    if (!handled) {
-                        handled = (Boolean) invokeOriginalMethod(methodHookParam);
+                    AttachedWindow window = sWindows.get(container);
+                    if (window == null) {
+                        return false;
                     }
+                    final boolean handled = window.dispatchTouchEvent(event, methodHookParam);
+                    HookStats.recordEvent(System.nanoTime() - start, handled);
+                    return handled;
                 } catch (Throwable t) {
                     logE(t);
-                    handled = (Boolean) invokeOriginalMethod(methodHookParam);
+                    // fall back to the original method
+                    return false;
                 }
-                return handled;
             }
         };
         class Installer extends XC_MethodHook {
@@ -104,57 +105,31 @@ public class ModForceTouch extends XposedModule {
                 }
                 try {
                     install(target);
-                    registerReceiver(target);
                 } catch (Throwable t) {
                     logE(t);
                 }
             }
 
             private void install(ViewGroup target) {
-                List<Detector> detectors = getDetectors(target);
-                if (detectors != null) {
+                if (sWindows.get(target) != null) {
                     return;
                 }
                 Context context = target.getContext();
-                mPrefs.reload();
-                FTD.Settings settings = new FTD.Settings(context, mPrefs);
-                settings.blacklist.add(FTD.PACKAGE_NAME);
+                DetectorPool pool = getPool(context);
                 String packageName = context.getPackageName();
-                if (settings.blacklist.contains(packageName)) {
+                if (packageName.equals(FTD.PACKAGE_NAME) ||
+                        pool.getSettings().blacklist.contains(packageName)) {
                     // blacklist
                     logD("ignore: " + packageName);
                     return;
                 }
-                detectors = Lists.newArrayList();
-                detectors.add(new ForceGestureDetector(target, settings));
-                detectors.add(new LargeTouchDetector(target, settings));
-                detectors.add(new KnuckleTouchDetector(target, settings));
-                detectors.add(new WiggleTouchDetector(target, settings));
-                detectors.add(new ScratchTouchDetector(target, settings));
-                XposedHelpers.setAdditionalInstanceField(target,
-                        FIELD_DETECTORS, detectors);
-            }
-
-            private void registerReceiver(final View target) {
-                BroadcastReceiver settingsChangedReceiver = new BroadcastReceiver() {
-                    @Override
-                    public void onReceive(Context context, Intent intent) {
-                        List<Detector> detectors = getDetectors(target);
-                        if (detectors == null) {
-                            return;
-                        }
-                        logD(target.getContext().getPackageName() + ": reload settings");
-                        FTD.Settings settings = (FTD.Settings) intent
-                                .getSerializableExtra(FTD.EXTRA_SETTINGS);
-                        for (Detector detector : detectors) {
-                            detector.onSettingsLoaded(settings);
-                        }
-                    }
-                };
-                XposedHelpers.setAdditionalInstanceField(target,
-                        FIELD_SETTINGS_CHANGED_RECEIVER, settingsChangedReceiver);
-                target.getContext().registerReceiver(settingsChangedReceiver,
-                        new IntentFilter(FTD.ACTION_SETTINGS_CHANGED));
+                if (!pool.isDetectionEnabled()) {
+                    // the profile disables all, leave the window unhooked
+                    logD("pass through: " + packageName);
+                    return;
+                }
+                sWindows.put(target, new AttachedWindow(target, pool));
+                dispatchTouchEvent.hook(target.getClass());
             }
         }
         class Uninstaller extends XC_MethodHook {
@@ -163,44 +138,23 @@ public class ModForceTouch extends XposedModule {
                     return;
                 }
                 try {
-                    unregisterReceiver(target);
                     uninstall(target);
                 } catch (Throwable t) {
                     logE(t);
                 }
             }
 
-            private void unregisterReceiver(View target) {
-                BroadcastReceiver settingsChangedReceiver =
-                        (BroadcastReceiver) XposedHelpers.getAdditionalInstanceField(target,
-                                FIELD_SETTINGS_CHANGED_RECEIVER);
-                if (settingsChangedReceiver != null) {
-                    target.getContext().unregisterReceiver(settingsChangedReceiver);
-                }
-            }
-
             private void uninstall(View target) {
-                List<Detector> detectors = getDetectors(target);
-                if (detectors != null) {
-                    XposedHelpers.removeAdditionalInstanceField(target, FIELD_DETECTORS);
+                AttachedWindow window = sWindows.remove(target);
+                if (window != null) {
+                    window.onDetached();
                 }
             }
         }
 
-        Class<?> classDecorView;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            XposedHelpers.findAndHookMethod(ViewGroup.class, "dispatchTouchEvent",
-                    MotionEvent.class, dispatchTouchEvent);
-            classDecorView = XposedHelpers.findClass(CLASS_DECOR_VIEW_M, null);
-        } else {
-            classDecorView = XposedHelpers.findClass(CLASS_DECOR_VIEW, null);
-            XposedHelpers.findAndHookMethod(classDecorView, "dispatchTouchEvent",
-                    MotionEvent.class, dispatchTouchEvent);
-            final Class<?> classPopupViewContainer = XposedHelpers
-                    .findClass(CLASS_POPUP_VIEW_CONTAINER, null);
-            XposedHelpers.findAndHookMethod(classPopupViewContainer, "dispatchTouchEvent",
-                    MotionEvent.class, dispatchTouchEvent);
-        }
+        final Class<?> classDecorView = XposedHelpers.findClass(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? CLASS_DECOR_VIEW_M : CLASS_DECOR_VIEW,
+                null);
         XposedHelpers.findAndHookMethod(classDecorView, "onAttachedToWindow",
                 new Installer() {
                     @Override
@@ -236,113 +190,454 @@ public class ModForceTouch extends XposedModule {
                 });
     }
 
-    private static List<Detector> getDetectors(View decorView) {
-        return (List<Detector>) XposedHelpers
-                .getAdditionalInstanceField(decorView, FIELD_DETECTORS);
+    /**
+     * The pool and its settings receiver are created once per process, settings are read
+     * from the preferences only then and updated by broadcasts. The profile of the app is
+     * applied here, so detectors see the resolved settings only.
+     */
+    private static synchronized DetectorPool getPool(Context context) {
+        if (sPool == null) {
+            Context appContext = context.getApplicationContext();
+            if (appContext == null) {
+                appContext = context;
+            }
+            final String packageName = appContext.getPackageName();
+            mPrefs.reload();
+            final DetectorPool pool = new DetectorPool(appContext,
+                    FTD.loadSettings(appContext, mPrefs, packageName));
+            IntentFilter filter = new IntentFilter(FTD.ACTION_SETTINGS_CHANGED);
+            filter.addAction(FTD.ACTION_REQUEST_STATS);
+            appContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    if (FTD.ACTION_REQUEST_STATS.equals(intent.getAction())) {
+                        context.sendBroadcast(new Intent(FTD.ACTION_STATS)
+                                .setPackage(FTD.PACKAGE_NAME)
+                                .putExtra(FTD.EXTRA_STATS, HookStats.snapshot(packageName)));
+                        return;
+                    }
+                    logD(packageName + ": reload settings");
+                    FTD.Settings settings = (FTD.Settings) intent
+                            .getSerializableExtra(FTD.EXTRA_SETTINGS);
+                    if (settings.hasAppProfile(packageName)) {
+                        // the broadcast has only global settings
+                        mPrefs.reload();
+                        settings = FTD.loadSettings(context, mPrefs, packageName);
+                    }
+                    pool.onSettingsLoaded(settings);
+                }
+            }, filter, FTD.PERMISSION_REQUEST_STATS, null);
+            sPool = pool;
+        }
+        return sPool;
     }
 
     private static View getPopupView(XC_MethodHook.MethodHookParam param) {
         return (View) XposedHelpers.getObjectField(param.thisObject,
                 Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ?
-                        "mBackgroundView" : "mPopupView");
+                        "mDecorView" : "mPopupView");
     }
 
-    public static abstract class Detector {
-        protected static final int INVALIDE_POINTER_ID = -1;
-
-        public static final String DEFAULT_THRESHOLD = "1.0";
+    static float getMethodParameter(FTD.Settings settings, MotionEvent event, int index) {
+        return settings.detectorMethod == FTD.METHOD_PRESSURE ?
+                ForceTouchDetector.getPressure(event, index) :
+                ForceTouchDetector.getSize(event, index);
+    }
 
-        protected final ViewGroup mTargetView;
-        protected FTD.Settings mSettings;
+    static float getMethodParameter(FTD.Settings settings, MotionEvent event, int index,
+                                    int pos) {
+        return settings.detectorMethod == FTD.METHOD_PRESSURE ?
+                ForceTouchDetector.getHistoricalPressure(event, index, pos) :
+                ForceTouchDetector.getHistoricalSize(event, index, pos);
+    }
 
-        // ripple
-        private static final int RIPPLE_SIZE = 5;
-        private static final float START_SCALE = 0.0f;
-        private static final float START_ALPHA = 0.7f;
-        private View mRippleView;
-        private int mRippleSize;
-        private ObjectAnimator mRippleAnimator;
+    /**
+     * A root view with detectors installed. It holds detectors only while a stroke is
+     * dispatched to it: they are leased from the pool on ACTION_DOWN and returned when
+     * the stroke ends.
+     */
+    private static class AttachedWindow {
+        private final ViewGroup mTargetView;
+        private final RippleOverlay mRipple;
+        private final DetectorPool mPool;
+        private Detectors mDetectors;
+
+        public AttachedWindow(ViewGroup targetView, DetectorPool pool) {
+            mTargetView = targetView;
+            mRipple = new RippleOverlay(targetView);
+            mPool = pool;
+        }
 
-        private Toast mToast;
+        public boolean dispatchTouchEvent(MotionEvent event,
+                                          XC_MethodHook.MethodHookParam methodHookParam) {
+            final int action = event.getActionMasked();
+            if (action == MotionEvent.ACTION_DOWN && mDetectors == null) {
+                mDetectors = mPool.lease(mTargetView, mRipple);
+            }
+            final Detectors detectors = mDetectors;
+            if (detectors == null) {
+                // the stroke started before installation
+                return false;
+            }
+            try {
+                return detectors.dispatchTouchEvent(event, methodHookParam);
+            } finally {
+                if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                    mDetectors = null;
+                    mPool.release(detectors);
+                }
+            }
+        }
 
-        protected XC_MethodHook.MethodHookParam mMethodHookParam;
+        public void onDetached() {
+            mRipple.cancel();
+            if (mDetectors != null) {
+                mPool.release(mDetectors);
+                mDetectors = null;
+            }
+            mPool.onWindowDetached(mTargetView);
+        }
+    }
 
-        public Detector(ViewGroup targetView, FTD.Settings settings) {
-            mTargetView = targetView;
+    /**
+     * Detectors shared by all windows and popups of the process. Only one window receives
+     * a stroke at a time, so usually a single set exists however many windows are open.
+     * A set is bound to the window it is leased to and created on the looper of that window.
+     */
+    private static class DetectorPool {
+        private final Context mContext;
+        private FTD.Settings mSettings;
+        private final ArrayList<Detectors> mAll = new ArrayList<>();
+        private final ArrayList<Detectors> mIdle = new ArrayList<>();
+
+        public DetectorPool(Context context, FTD.Settings settings) {
+            mContext = context;
             mSettings = settings;
+        }
 
-            setUpRipple();
+        public synchronized FTD.Settings getSettings() {
+            return mSettings;
         }
 
-        private void setUpRipple() {
-            mRippleView = new View(getContext());
-            mRippleSize = getContext().getResources().getDimensionPixelSize(android.R.dimen.app_icon_size) *
-                    RIPPLE_SIZE;
-            mRippleView.setLayoutParams(new ViewGroup.LayoutParams(mRippleSize, mRippleSize));
-            GradientDrawable ripple = new GradientDrawable();
-            ripple.setShape(GradientDrawable.OVAL);
-            mRippleView.setBackground(ripple);
+        /**
+         * @return false if no detector would be created, windows installed then pass
+         * through until they are attached again
+         */
+        public synchronized boolean isDetectionEnabled() {
+            for (int i = 0; i < Detectors.DETECTOR_COUNT; ++i) {
+                if (Detectors.isRequired(i, mSettings)) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            PropertyValuesHolder holderScaleX = PropertyValuesHolder.ofFloat("scaleX", START_SCALE, 1.0f);
-            PropertyValuesHolder holderScaleY = PropertyValuesHolder.ofFloat("scaleY", START_SCALE, 1.0f);
-            PropertyValuesHolder holderAlpha = PropertyValuesHolder.ofFloat("alpha", START_ALPHA, 0.0f);
+        public synchronized Detectors lease(ViewGroup targetView, RippleOverlay ripple) {
+            final Looper looper = Looper.myLooper();
+            Detectors leased = null;
+            // prefer the set used by the window last time, it may still have callbacks
+            for (int i = mIdle.size() - 1; i >= 0; --i) {
+                Detectors detectors = mIdle.get(i);
+                if (detectors.getLooper() != looper) {
+                    continue;
+                }
+                if (leased == null || detectors.getTargetView() == targetView) {
+                    leased = detectors;
+                }
+            }
+            if (leased != null) {
+                mIdle.remove(leased);
+            } else {
+                leased = new Detectors(mContext, mSettings);
+                mAll.add(leased);
+            }
+            leased.bind(targetView, ripple);
+            return leased;
+        }
 
-            mRippleAnimator = ObjectAnimator.ofPropertyValuesHolder(mRippleView,
-                    holderScaleX, holderScaleY, holderAlpha);
-            mRippleAnimator.setDuration(300); // default
-            mRippleAnimator.addListener(new Animator.AnimatorListener() {
-                @Override
-                public void onAnimationStart(Animator animation) {
-                    mRippleView.setScaleX(START_SCALE);
-                    mRippleView.setScaleY(START_SCALE);
-                    mRippleView.setAlpha(START_ALPHA);
+        public synchronized void release(Detectors detectors) {
+            mIdle.add(detectors);
+        }
 
-                    mTargetView.addView(mRippleView);
+        /**
+         * Unbind idle sets from the window not to retain it.
+         */
+        public synchronized void onWindowDetached(ViewGroup targetView) {
+            for (Detectors detectors : mIdle) {
+                if (detectors.getTargetView() == targetView) {
+                    detectors.bind(null, null);
                 }
+            }
+        }
 
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    mTargetView.removeView(mRippleView);
+        public synchronized void onSettingsLoaded(FTD.Settings settings) {
+            mSettings = settings;
+            for (Detectors detectors : mAll) {
+                detectors.onSettingsLoaded(settings);
+            }
+        }
+    }
+
+    /**
+     * A set of all detectors. Each touch event is extracted into one frame and the
+     * enabled detectors are evaluated in order until one of them consumes it.
+     * Detectors are created only when the settings enable them and dropped when disabled,
+     * so the set doesn't pay for gestures which are not used.
+     */
+    private static class Detectors implements FrameExtractor.Source {
+        // in order of precedence
+        private static final int FORCE_GESTURE = 0;
+        private static final int LARGE_TOUCH = 1;
+        private static final int KNUCKLE_TOUCH = 2;
+        private static final int WIGGLE_TOUCH = 3;
+        private static final int SCRATCH_TOUCH = 4;
+        private static final int CUSTOM_GESTURE = 5;
+        private static final int DETECTOR_COUNT = HookStats.DETECTOR_COUNT;
+
+        private final Context mContext;
+        private final Looper mLooper = Looper.myLooper();
+        private ViewGroup mTargetView;
+        private RippleOverlay mRipple;
+        private FTD.Settings mSettings;
+        private final Detector[] mDetectors = new Detector[DETECTOR_COUNT];
+        private final TimedClassifier[] mClassifiers = new TimedClassifier[DETECTOR_COUNT];
+        private final GestureEngine mEngine = new GestureEngine();
+        private final DetectionArea mArea;
+        private long mStrokeId;
+
+        public Detectors(Context context, FTD.Settings settings) {
+            mContext = context;
+            mSettings = settings;
+            mArea = new DetectionArea(null, settings);
+            mEngine.setProcessHistory(settings.processHistory);
+            updateDetectors();
+        }
+
+        public Looper getLooper() {
+            return mLooper;
+        }
+
+        @Nullable
+        public ViewGroup getTargetView() {
+            return mTargetView;
+        }
+
+        /**
+         * @param targetView null to release the last window
+         */
+        public void bind(@Nullable ViewGroup targetView, @Nullable RippleOverlay ripple) {
+            mTargetView = targetView;
+            mRipple = ripple;
+            mArea.setTargetView(targetView);
+            for (Detector detector : mDetectors) {
+                if (detector != null) {
+                    detector.mTargetView = targetView;
+                    detector.mRipple = ripple;
                 }
+            }
+        }
 
-                @Override
-                public void onAnimationCancel(Animator animation) {
-                    onAnimationEnd(animation);
+        public void onSettingsLoaded(FTD.Settings settings) {
+            mSettings = settings;
+            mArea.onSettingsLoaded(settings);
+            mEngine.setProcessHistory(settings.processHistory);
+            updateDetectors();
+        }
+
+        private static boolean isRequired(int detector, FTD.Settings settings) {
+            switch (detector) {
+                case FORCE_GESTURE:
+                    return settings.forceTouchEnable && gesture(settings);
+                case LARGE_TOUCH:
+                    return settings.forceTouchEnable && !gesture(settings);
+                case KNUCKLE_TOUCH:
+                    return settings.knuckleTouchEnable;
+                case WIGGLE_TOUCH:
+                    return settings.wiggleTouchEnable;
+                case SCRATCH_TOUCH:
+                    return settings.scratchTouchEnable;
+                case CUSTOM_GESTURE:
+                    return !Strings.isNullOrEmpty(settings.customGestures);
+            }
+            return false;
+        }
+
+        private Detector newDetector(int detector) {
+            switch (detector) {
+                case FORCE_GESTURE:
+                    return new ForceGestureDetector(mContext, mSettings);
+                case LARGE_TOUCH:
+                    return new LargeTouchDetector(mContext, mSettings);
+                case KNUCKLE_TOUCH:
+                    return new KnuckleTouchDetector(mContext, mSettings);
+                case WIGGLE_TOUCH:
+                    return new WiggleTouchDetector(mContext, mSettings);
+                case SCRATCH_TOUCH:
+                    return new ScratchTouchDetector(mContext, mSettings);
+                case CUSTOM_GESTURE:
+                    return new CustomGestureDetector(mContext, mSettings);
+            }
+            throw new IllegalArgumentException("unknown detector: " + detector);
+        }
+
+        /**
+         * Create enabled detectors, drop disabled ones and reload the others.
+         */
+        private void updateDetectors() {
+            for (int i = 0; i < DETECTOR_COUNT; ++i) {
+                Detector detector = mDetectors[i];
+                if (isRequired(i, mSettings)) {
+                    if (detector == null) {
+                        detector = newDetector(i);
+                        detector.mArea = mArea;
+                        detector.mTargetView = mTargetView;
+                        detector.mRipple = mRipple;
+                        detector.mStatsSlot = i;
+                        mClassifiers[i] = new TimedClassifier(detector, i);
+                        mEngine.addClassifier(mClassifiers[i], DETECTOR_COUNT - i);
+                        mDetectors[i] = detector;
+                    } else {
+                        detector.onSettingsLoaded(mSettings);
+                    }
+                } else if (detector != null) {
+                    mEngine.removeClassifier(mClassifiers[i]);
+                    detector.onDestroy();
+                    mDetectors[i] = null;
+                    mClassifiers[i] = null;
                 }
+            }
+        }
 
-                @Override
-                public void onAnimationRepeat(Animator animation) {
+        public int getCount() {
+            int count = 0;
+            for (Detector detector : mDetectors) {
+                if (detector != null) {
+                    ++count;
                 }
-            });
+            }
+            return count;
         }
 
-        protected void startRipple(MotionEvent event, int index) {
-            startRipple(event.getX(index), event.getY(index));
+        public boolean dispatchTouchEvent(MotionEvent event,
+                                          XC_MethodHook.MethodHookParam methodHookParam) {
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                mStrokeId = LatencyTrace.nextStrokeId();
+            }
+            final long eventTime = event.getEventTime();
+            for (Detector detector : mDetectors) {
+                if (detector != null) {
+                    detector.mMethodHookParam = methodHookParam;
+                    detector.mStrokeId = mStrokeId;
+                    detector.mEventTime = eventTime;
+                }
+            }
+            return mEngine.onTouchEvent(event, this);
         }
 
-        protected void startRipple(float x, float y) {
-            mRippleView.setTranslationX(x - mRippleSize / 2.0f);
-            mRippleView.setTranslationY(y - mRippleSize / 2.0f);
+        @Override
+        public float getParameter(MotionEvent event, int index) {
+            return getMethodParameter(mSettings, event, index);
+        }
 
-            mRippleAnimator.start();
+        @Override
+        public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+            return getMethodParameter(mSettings, event, index, pos);
+        }
+
+        @Override
+        public boolean isInDetectionArea(float x, float y) {
+            return mArea.isInDetectionArea(x, y);
+        }
+    }
+
+    /**
+     * Records time spent in a detector to {@link HookStats}.
+     */
+    private static class TimedClassifier implements GestureEngine.Classifier {
+        private final Detector mDetector;
+        private final int mSlot;
+
+        public TimedClassifier(Detector detector, int slot) {
+            mDetector = detector;
+            mSlot = slot;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return mDetector.isEnabled();
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+            final long start = System.nanoTime();
+            try {
+                return mDetector.onTouchEvent(event, frame);
+            } finally {
+                HookStats.recordDetector(mSlot, System.nanoTime() - start);
+            }
+        }
+    }
+
+    public static abstract class Detector implements GestureEngine.Classifier {
+        protected static final int INVALIDE_POINTER_ID = -1;
+
+        public static final String DEFAULT_THRESHOLD = "1.0";
+
+        private final Context mContext;
+        // window which the set is leased to, may be null while idle
+        protected ViewGroup mTargetView;
+        // feedback of the leased window
+        protected RippleOverlay mRipple;
+        // index in HookStats
+        private int mStatsSlot;
+        protected FTD.Settings mSettings;
+
+        private Toast mToast;
+
+        protected XC_MethodHook.MethodHookParam mMethodHookParam;
+        // latest event for LatencyTrace, actions fired by a timer refer to it too
+        private long mStrokeId;
+        private long mEventTime;
+        // shared by detectors of the window
+        protected DetectionArea mArea;
+
+        public Detector(Context context, FTD.Settings settings) {
+            mContext = context;
+            mSettings = settings;
+        }
+
+        protected void startRipple(float x, float y) {
+            if (mRipple != null) {
+                mRipple.start(x, y, mSettings.rippleColor);
+            }
         }
 
         public final void onSettingsLoaded(FTD.Settings settings) {
             mSettings = settings;
-            ((GradientDrawable) mRippleView.getBackground()).setColor(settings.rippleColor);
             onSettingsLoaded();
         }
 
         protected abstract void onSettingsLoaded();
 
+        /**
+         * Called when the detector is dropped because the settings disable it.
+         */
+        public void onDestroy() {
+        }
+
         protected float getMethodParameter(MotionEvent event, int index) {
-            return mSettings.detectorMethod == FTD.METHOD_PRESSURE ?
-                    ForceTouchDetector.getPressure(event, index) :
-                    ForceTouchDetector.getSize(event, index);
+            return ModForceTouch.getMethodParameter(mSettings, event, index);
+        }
+
+        protected float getMethodParameter(MotionEvent event, int index, int pos) {
+            return ModForceTouch.getMethodParameter(mSettings, event, index, pos);
         }
 
+        /**
+         * @return context of the process, detectors outlive windows
+         */
         protected Context getContext() {
-            return mTargetView.getContext();
+            return mContext;
         }
 
         protected void showToast(String text) {
@@ -354,55 +649,38 @@ public class ModForceTouch extends XposedModule {
         }
 
         protected boolean isInDetectionArea(float x, float y) {
-            int ix = Math.round(x);
-            int iy = Math.round(y);
-            Rect area = mSettings.detectionArea.getRect(mTargetView.getWidth(), mTargetView.getHeight());
-            Rect mirroredArea = mSettings.detectionAreaMirror ?
-                    mSettings.detectionArea.getMirroredRect(mTargetView.getWidth(), mTargetView.getHeight()) :
-                    null;
-            // touch area
-            boolean contains = area.contains(ix, iy) ||
-                    (mirroredArea != null && mirroredArea.contains(ix, iy));
-            if (mSettings.detectionAreaReverse) {
-                contains = !contains;
-            }
-            return contains;
-        }
-
-        final public boolean dispatchTouchEvent(MotionEvent event,
-                                                XC_MethodHook.MethodHookParam methodHookParam) {
-            mMethodHookParam = methodHookParam;
-            return dispatchTouchEvent(event);
+            return mArea.isInDetectionArea(x, y);
         }
 
-        protected abstract boolean dispatchTouchEvent(MotionEvent event);
-
-        protected void performAction(final ActionInfo.Record record, final MotionEvent event,
+        protected void performAction(final ActionInfo.Record record, final float x, final float y,
                                      final String disabledText) {
-            // force delay for complete ACTION_UP of gesture detector
-            mTargetView.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (FTD.performAction(mTargetView, new ActionInfo(record), event)) {
-                        if (mSettings.showEnabledActionToast) {
-                            if (!Strings.isNullOrEmpty(record.name)) {
-                                showToast(record.name);
-                            }
-                        }
-                    } else if (mSettings.showDisabledActionToast) {
-                        showToast(disabledText);
-                    }
-                }
-            }, 1);
+            performAction(record, x, y, false, disabledText);
         }
 
-        protected void performAction(final ActionInfo.Record record, final float x, final float y,
-                                     final String disabledText) {
+        /**
+         * Touch actions like double tap are injected to the window instead of broadcast.
+         */
+        protected void performTouchAction(final ActionInfo.Record record, final float x,
+                                          final float y, final String disabledText) {
+            performAction(record, x, y, true, disabledText);
+        }
+
+        private void performAction(final ActionInfo.Record record, final float x, final float y,
+                                   final boolean injectTouch, final String disabledText) {
+            // the set may be leased to another window before running
+            final ViewGroup targetView = mTargetView;
+            if (targetView == null) {
+                return;
+            }
+            HookStats.recordDetection(mStatsSlot);
+            final LatencyTrace trace = new LatencyTrace(mStrokeId, mEventTime);
             // force delay for complete ACTION_UP of gesture detector
-            mTargetView.postDelayed(new Runnable() {
+            targetView.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    if (FTD.performAction(mTargetView, new ActionInfo(record), x, y)) {
+                    trace.mark(LatencyTrace.STAGE_POST);
+                    if (FTD.performAction(targetView, new ActionInfo(record), x, y, injectTouch,
+                            trace)) {
                         if (mSettings.showEnabledActionToast) {
                             if (!Strings.isNullOrEmpty(record.name)) {
                                 showToast(record.name);
@@ -416,10 +694,21 @@ public class ModForceTouch extends XposedModule {
         }
 
         protected void performHapticFeedback() {
-            if (mSettings.vibration) {
+            if (mSettings.vibration && mTargetView != null) {
                 mTargetView.performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
             }
         }
+
+        public void performOriginalOnTouchEvent(MotionEvent event) {
+            Object backup = mMethodHookParam.args[0];
+            mMethodHookParam.args[0] = event;
+            try {
+                invokeOriginalMethod(mMethodHookParam);
+            } catch (Throwable t) {
+                logE(t);
+            }
+            mMethodHookParam.args[0] = backup;
+        }
     }
 
     private static boolean gesture(FTD.Settings settings) {
@@ -435,117 +724,42 @@ public class ModForceTouch extends XposedModule {
     }
 
     private static abstract class BaseForceGestureDetector extends Detector
-            implements GestureDetector.OnGestureListener, GestureDetector.OnDoubleTapListener {
-        protected final GestureDetector mGestureDetector;
-
-        private final int mDefaultTouchSlopSquare;
-        private final int mDefaultDoubleTapTouchSlopSquare;
-        private final int mDefaulDoubleTapSlopSquare;
-        private final int mDefaultMinimumFlingVelocity;
+            implements TapFlickRecognizer.Listener {
+        protected final TapFlickDetector mGestureDetector;
 
-        private final Handler mDefaultGestureHandler;
-        private final GestureHandler mGestureHandler;
-
-        private boolean mUseDoubleTap;
         protected boolean mUseGesture;
 
-        private long mDownTime;
-
-        private final int LONG_PRESS = 2;
+        public BaseForceGestureDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
 
-        private class GestureHandler extends Handler {
-            GestureHandler() {
-                super();
-            }
-
-            GestureHandler(Handler handler) {
-                super(handler.getLooper());
-            }
-
-            @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
-                    case LONG_PRESS:
-                        if (msg.arg1 != LONG_PRESS && mSettings.extraLongPressTimeout > 0) {
-                            mGestureHandler.removeMessages(LONG_PRESS);
-                            mGestureHandler.sendMessageDelayed(
-                                    mGestureHandler.obtainMessage(LONG_PRESS, LONG_PRESS, 0),
-                                    mSettings.extraLongPressTimeout);
-                        } else {
-                            XposedHelpers.callMethod(mGestureDetector, "dispatchLongPress");
-                        }
-                        break;
-                    default:
-                        mDefaultGestureHandler.handleMessage(msg);
-                }
-            }
-        }
-
-        public BaseForceGestureDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
-
-            mGestureDetector = new GestureDetector(getContext(), this);
-
-            mDefaultTouchSlopSquare = XposedHelpers
-                    .getIntField(mGestureDetector, "mTouchSlopSquare"); // 8 * density
-            mDefaultDoubleTapTouchSlopSquare = XposedHelpers
-                    .getIntField(mGestureDetector, "mDoubleTapTouchSlopSquare"); // 8 * density
-            mDefaulDoubleTapSlopSquare = XposedHelpers
-                    .getIntField(mGestureDetector, "mDoubleTapSlopSquare"); // 100 * density
-            mDefaultMinimumFlingVelocity = XposedHelpers
-                    .getIntField(mGestureDetector, "mMinimumFlingVelocity"); // 50 * density
-
-            mDefaultGestureHandler = (Handler) XposedHelpers
-                    .getObjectField(mGestureDetector, "mHandler");
-            mGestureHandler = new GestureHandler();
-            XposedHelpers.setObjectField(mGestureDetector, "mHandler", mGestureHandler);
+            mGestureDetector = new TapFlickDetector(getContext(), this);
 
             onSettingsLoaded(settings);
         }
 
         public void onSettingsLoaded() {
-            int n = mSettings.detectionSensitivity;
-            XposedHelpers.setIntField(mGestureDetector, "mTouchSlopSquare",
-                    mDefaultTouchSlopSquare * n * n); // 8 * density
-            XposedHelpers.setIntField(mGestureDetector, "mDoubleTapTouchSlopSquare",
-                    mDefaultDoubleTapTouchSlopSquare * n * n); // 8 * density
-//            XposedHelpers.setIntField(mGestureDetector, "mDoubleTapSlopSquare",
-//                    mDefaulDoubleTapSlopSquare * n * n); // 100 * density
-            XposedHelpers.setIntField(mGestureDetector, "mMinimumFlingVelocity",
-                    mDefaultMinimumFlingVelocity * n); // 50 * density
-
-            mUseDoubleTap = doubleTap(mSettings);
-            mGestureDetector.setOnDoubleTapListener(mUseDoubleTap ? this : null);
+            mGestureDetector.setSensitivity(mSettings.detectionSensitivity);
+            mGestureDetector.setExtraLongPressTimeout(mSettings.extraLongPressTimeout);
+            mGestureDetector.setDoubleTapEnabled(doubleTap(mSettings));
 
             mUseGesture = gesture(mSettings);
         }
 
-        protected boolean judgeForceTouch(MotionEvent event, int index) {
-            if (isInDetectionArea(event.getX(index), event.getY(index))) {
-                return getMethodParameter(event, index) > mSettings.forceTouchThreshold;
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            mGestureDetector.cancel();
+        }
+
+        protected boolean judgeForceTouch(TouchFrame frame, int index) {
+            if (frame.isInDetectionArea(index)) {
+                return frame.getParameter(index) > mSettings.forceTouchThreshold;
             }
             return false;
         }
 
         protected void consumeTouchEvent(int action, MotionEvent base, int pointerId) {
-            if (action == MotionEvent.ACTION_DOWN) {
-                mDownTime = base.getEventTime();
-            }
-            int index = base.findPointerIndex(pointerId);
-//            logD("mActivePointerId=" + mActivePointerId);
-//            logD("index=" + index);
-            if (index == -1) {
-                return;
-            }
-            MotionEvent event = MotionEvent
-                    .obtain(mDownTime, base.getEventTime(), action,
-                            base.getX(index), base.getY(index),
-                            base.getPressure(index), base.getSize(index), base.getMetaState(),
-                            base.getXPrecision(), base.getYPrecision(), base.getDeviceId(),
-                            base.getEdgeFlags());
-//            logD(event.toString());
-            mGestureDetector.onTouchEvent(event);
-            event.recycle();
+            mGestureDetector.onTouchEvent(action, base, pointerId);
         }
 
         protected void cancelOriginalTouchEvent(MotionEvent event,
@@ -565,72 +779,40 @@ public class ModForceTouch extends XposedModule {
         }
 
         @Override
-        public boolean onSingleTapConfirmed(MotionEvent e) {
-            performAction(mSettings.forceTouchActionTap, e, "force tap");
-            return true;
-        }
-
-        @Override
-        public boolean onDoubleTap(MotionEvent e) {
-            performAction(mSettings.forceTouchActionDoubleTap, e, "force double tap");
-            return true;
-        }
-
-        @Override
-        public boolean onDoubleTapEvent(MotionEvent e) {
-            return false;
-        }
-
-        @Override
-        public boolean onDown(MotionEvent e) {
-            return false;
-        }
-
-        @Override
-        public void onShowPress(MotionEvent e) {
-        }
-
-        @Override
-        public boolean onSingleTapUp(MotionEvent e) {
-            if (!mUseDoubleTap) {
-                // usually e is ACTION_UP event
-                return onSingleTapConfirmed(
-                        (MotionEvent) XposedHelpers.getObjectField(mGestureDetector, "mCurrentDownEvent"));
-            }
-            return false;
+        public void onTap(float x, float y) {
+            performTouchAction(mArea.getTapAction(x, y, mSettings.forceTouchActionTap),
+                    x, y, "force tap");
         }
 
         @Override
-        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX,
-                                float distanceY) {
-            return false;
+        public void onDoubleTap(float x, float y) {
+            performTouchAction(mSettings.forceTouchActionDoubleTap, x, y, "force double tap");
         }
 
         @Override
-        public void onLongPress(MotionEvent e) {
+        public void onLongPress(float x, float y) {
             performHapticFeedback();
-            performAction(mSettings.forceTouchActionLongPress, e, "force long press");
+            performTouchAction(mArea.getLongPressAction(x, y,
+                    mSettings.forceTouchActionLongPress), x, y, "force long press");
         }
 
         @Override
-        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+        public void onFlick(int direction, float x, float y) {
             performHapticFeedback();
-            float x = e2.getX() - e1.getX();
-            float y = e2.getY() - e1.getY();
-            if (Math.abs(x) > Math.abs(y)) {
-                if (x > 0) {
-                    performAction(mSettings.forceTouchActionFlickRight, e2, "force flick right");
-                } else {
-                    performAction(mSettings.forceTouchActionFlickLeft, e2, "force flick left");
-                }
-            } else {
-                if (y > 0) {
-                    performAction(mSettings.forceTouchActionFlickDown, e2, "force flick down");
-                } else {
-                    performAction(mSettings.forceTouchActionFlickUp, e2, "force flick up");
-                }
+            switch (direction) {
+                case TapFlickDetector.FLICK_RIGHT:
+                    performTouchAction(mSettings.forceTouchActionFlickRight, x, y, "force flick right");
+                    break;
+                case TapFlickDetector.FLICK_LEFT:
+                    performTouchAction(mSettings.forceTouchActionFlickLeft, x, y, "force flick left");
+                    break;
+                case TapFlickDetector.FLICK_DOWN:
+                    performTouchAction(mSettings.forceTouchActionFlickDown, x, y, "force flick down");
+                    break;
+                case TapFlickDetector.FLICK_UP:
+                    performTouchAction(mSettings.forceTouchActionFlickUp, x, y, "force flick up");
+                    break;
             }
-            return true;
         }
     }
 
@@ -638,8 +820,8 @@ public class ModForceTouch extends XposedModule {
         protected int mActivePointerId = INVALIDE_POINTER_ID;
         protected boolean mIntercepted;
 
-        public ForceGestureDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public ForceGestureDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
         }
 
         private final Handler mHandler = new Handler();
@@ -652,12 +834,20 @@ public class ModForceTouch extends XposedModule {
         };
 
         @Override
-        protected boolean dispatchTouchEvent(MotionEvent event) {
-            if (!mSettings.forceTouchEnable || !mUseGesture) {
-                return false;
-            }
+        public boolean isEnabled() {
+            return mSettings.forceTouchEnable && mUseGesture;
+        }
+
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            mHandler.removeCallbacks(mStopDetector);
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
             boolean consumed = mIntercepted;
-            switch (event.getActionMasked()) {
+            switch (frame.getActionMasked()) {
                 case MotionEvent.ACTION_DOWN: {
                     int window = mSettings.wiggleTouchEnable ? 0 : Math.abs(mSettings.detectionWindow);
                     mHandler.postDelayed(mStopDetector, window);
@@ -671,23 +861,23 @@ public class ModForceTouch extends XposedModule {
                     break;
             }
             if (mIsDetectionWindowOpened) {
-                int count = event.getPointerCount();
+                int count = frame.getPointerCount();
                 boolean forceTouch = false;
                 int index = 0;
                 for (; index < count; ++index) {
-                    final int toolType = event.getToolType(index);
+                    final int toolType = frame.getToolType(index);
                     if (!(toolType == MotionEvent.TOOL_TYPE_FINGER ||
                             (mSettings.allowUnknownInputType && toolType == MotionEvent.TOOL_TYPE_UNKNOWN))) {
                         continue;
                     }
-                    forceTouch = judgeForceTouch(event, index);
+                    forceTouch = judgeForceTouch(frame, index);
                     if (forceTouch) {
                         break;
                     }
                 }
                 if (forceTouch) {
                     performHapticFeedback();
-                    startRipple(event, index);
+                    startRipple(frame.getX(index), frame.getY(index));
 
                     mHandler.removeCallbacks(mStopDetector);
                     mIsDetectionWindowOpened = false;
@@ -695,13 +885,13 @@ public class ModForceTouch extends XposedModule {
                     cancelOriginalTouchEvent(event, mMethodHookParam);
                     // start force touch, intercept touch events
                     mIntercepted = true;
-                    mActivePointerId = event.getPointerId(index);
+                    mActivePointerId = frame.getPointerId(index);
                     consumeTouchEvent(MotionEvent.ACTION_DOWN, event, mActivePointerId);
                     consumed = true;
                 }
             }
 
-            switch (event.getActionMasked()) {
+            switch (frame.getActionMasked()) {
                 case MotionEvent.ACTION_MOVE:
                     // cannot get ActivePointer when ACTION_MODE
 //                    logD("getActionIndex = " + event.getActionIndex());
@@ -726,9 +916,7 @@ public class ModForceTouch extends XposedModule {
                     mIntercepted = false;
                     break;
                 case MotionEvent.ACTION_POINTER_UP:
-                    int pointerIndex = (event.getAction() & MotionEvent.ACTION_POINTER_INDEX_MASK) >>
-                            MotionEvent.ACTION_POINTER_INDEX_SHIFT;
-                    int pointerId = event.getPointerId(pointerIndex);
+                    int pointerId = frame.getPointerId(frame.getActionIndex());
                     if (pointerId == mActivePointerId) {
                         // stop force touch
                         consumeTouchEvent(MotionEvent.ACTION_UP, event, mActivePointerId);
@@ -745,33 +933,26 @@ public class ModForceTouch extends XposedModule {
 
     private static abstract class BaseForceTouchDetector extends Detector
             implements ForceTouchDetector.Callback {
-        public BaseForceTouchDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public BaseForceTouchDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
         }
 
         @Override
-        public void performOriginalOnTouchEvent(MotionEvent event) {
-            Object backup = mMethodHookParam.args[0];
-            mMethodHookParam.args[0] = event;
-            try {
-                invokeOriginalMethod(mMethodHookParam);
-            } catch (Throwable t) {
-                logE(t);
-            }
-            mMethodHookParam.args[0] = backup;
+        public float getParameter(MotionEvent event, int index) {
+            return getMethodParameter(event, index);
         }
 
         @Override
-        public float getParameter(MotionEvent event, int index) {
-            return getMethodParameter(event, index);
+        public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+            return getMethodParameter(event, index, pos);
         }
     }
 
     private static abstract class BaseAbsoluteDetector extends BaseForceTouchDetector {
         protected final AbsoluteDetector mAbsoluteDetector;
 
-        public BaseAbsoluteDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public BaseAbsoluteDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
 
             mAbsoluteDetector = new AbsoluteDetector(this);
             onSettingsLoaded(settings);
@@ -786,8 +967,8 @@ public class ModForceTouch extends XposedModule {
     private static abstract class BaseRelativeDetector extends BaseForceTouchDetector {
         protected final RelativeDetector mRelativeDetector;
 
-        public BaseRelativeDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public BaseRelativeDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
 
             mRelativeDetector = new RelativeDetector(this);
             onSettingsLoaded(settings);
@@ -799,12 +980,58 @@ public class ModForceTouch extends XposedModule {
         }
     }
 
+    /**
+     * Percentiles of ordinary touches in this process, restarted when the parameter changes
+     * between size and pressure. It starts from the percentiles saved by the settings app and
+     * sends its own back to it, so a new process doesn't have to calibrate from scratch.
+     */
+    private static class Calibration {
+        private static final int REPORT_INTERVAL = 100;
+
+        private final ThresholdCalibrator mCalibrator = new ThresholdCalibrator();
+        private int mDetectorMethod = -1;
+        private int mUnreported;
+
+        /**
+         * @return null if auto threshold is disabled
+         */
+        public ThresholdCalibrator get(FTD.Settings settings) {
+            if (!settings.autoThreshold) {
+                return null;
+            }
+            if (mDetectorMethod != settings.detectorMethod) {
+                mCalibrator.reset();
+                mDetectorMethod = settings.detectorMethod;
+                mUnreported = 0;
+            }
+            if (settings.calibration != null) {
+                mCalibrator.setPrior(settings.calibration[0], settings.calibration[1],
+                        settings.calibration[2]);
+            }
+            return mCalibrator;
+        }
+
+        /**
+         * Call after the detector takes the sample of ACTION_DOWN.
+         */
+        public void onTouchDown(Context context) {
+            if (++mUnreported < REPORT_INTERVAL || !mCalibrator.isCalibrated()) {
+                return;
+            }
+            mUnreported = 0;
+            FTD.sendCalibration(context, mDetectorMethod, mCalibrator.getLowerQuantile(),
+                    mCalibrator.getMedian(), mCalibrator.getUpperQuantile());
+        }
+    }
+
     private static class LargeTouchDetector extends BaseAbsoluteDetector {
+        private static final Calibration sCalibration = new Calibration();
 
         private boolean mUseGesture;
+        private ThresholdCalibrator mCalibrator;
 
-        public LargeTouchDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public LargeTouchDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
         }
 
         @Override
@@ -814,19 +1041,34 @@ public class ModForceTouch extends XposedModule {
             mAbsoluteDetector.setLongClickable(
                     mSettings.forceTouchActionLongPress.type != ActionInfo.TYPE_NONE);
             mAbsoluteDetector.allowUnknownType(mSettings.allowUnknownInputType);
+            mCalibrator = sCalibration.get(mSettings);
+            mAbsoluteDetector.setCalibrator(mCalibrator);
 
             mUseGesture = gesture(mSettings);
         }
 
+        private float getThreshold() {
+            return mCalibrator != null && mCalibrator.isReady() ?
+                    mCalibrator.getUpperThreshold() : mSettings.forceTouchThreshold;
+        }
+
         @Override
-        protected boolean dispatchTouchEvent(MotionEvent event) {
-            return mSettings.forceTouchEnable && !mUseGesture &&
-                    mAbsoluteDetector.onTouchEvent(event);
+        public boolean isEnabled() {
+            return mSettings.forceTouchEnable && !mUseGesture;
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+            final boolean handled = mAbsoluteDetector.onTouchEvent(event, frame);
+            if (mCalibrator != null && frame.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                sCalibration.onTouchDown(getContext());
+            }
+            return handled;
         }
 
         @Override
         public boolean onAbsoluteTouch(float x, float y, float parameter) {
-            if (isInDetectionArea(x, y) && parameter > mSettings.forceTouchThreshold) {
+            if (isInDetectionArea(x, y) && parameter > getThreshold()) {
                 performHapticFeedback();
                 startRipple(x, y);
                 return true;
@@ -836,22 +1078,27 @@ public class ModForceTouch extends XposedModule {
         
         @Override
         public boolean onForceTap(float x, float y) {
-            performAction(mSettings.forceTouchActionTap, x, y, "large tap");
+            performAction(mArea.getTapAction(x, y, mSettings.forceTouchActionTap), x, y,
+                    "large tap");
             return true;
         }
 
         @Override
         public boolean onForceLongPress(float x, float y) {
             performHapticFeedback();
-            performAction(mSettings.forceTouchActionLongPress, x, y, "large long press");
+            performAction(mArea.getLongPressAction(x, y, mSettings.forceTouchActionLongPress),
+                    x, y, "large long press");
             return true;
         }
     }
 
     private static class KnuckleTouchDetector extends BaseAbsoluteDetector {
+        private static final Calibration sCalibration = new Calibration();
+
+        private ThresholdCalibrator mCalibrator;
 
-        public KnuckleTouchDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public KnuckleTouchDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
         }
 
         @Override
@@ -861,16 +1108,32 @@ public class ModForceTouch extends XposedModule {
             mAbsoluteDetector.setLongClickable(
                     mSettings.knuckleTouchActionLongPress.type != ActionInfo.TYPE_NONE);
             mAbsoluteDetector.allowUnknownType(mSettings.allowUnknownInputType);
+            mCalibrator = sCalibration.get(mSettings);
+            mAbsoluteDetector.setCalibrator(mCalibrator);
+        }
+
+        private float getThreshold() {
+            return mCalibrator != null && mCalibrator.isReady() ?
+                    mCalibrator.getLowerThreshold() : mSettings.knuckleTouchThreshold;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return mSettings.knuckleTouchEnable;
         }
 
         @Override
-        protected boolean dispatchTouchEvent(MotionEvent event) {
-            return mSettings.knuckleTouchEnable && mAbsoluteDetector.onTouchEvent(event);
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+            final boolean handled = mAbsoluteDetector.onTouchEvent(event, frame);
+            if (mCalibrator != null && frame.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                sCalibration.onTouchDown(getContext());
+            }
+            return handled;
         }
 
         @Override
         public boolean onAbsoluteTouch(float x, float y, float parameter) {
-            if (isInDetectionArea(x, y) && parameter < mSettings.knuckleTouchThreshold) {
+            if (isInDetectionArea(x, y) && parameter < getThreshold()) {
                 performHapticFeedback();
                 startRipple(x, y);
                 return true;
@@ -880,22 +1143,24 @@ public class ModForceTouch extends XposedModule {
         
         @Override
         public boolean onForceTap(float x, float y) {
-            performAction(mSettings.knuckleTouchActionTap, x, y, "knuckle tap");
+            performAction(mArea.getTapAction(x, y, mSettings.knuckleTouchActionTap), x, y,
+                    "knuckle tap");
             return true;
         }
 
         @Override
         public boolean onForceLongPress(float x, float y) {
             performHapticFeedback();
-            performAction(mSettings.knuckleTouchActionLongPress, x, y, "knuckle long press");
+            performAction(mArea.getLongPressAction(x, y, mSettings.knuckleTouchActionLongPress),
+                    x, y, "knuckle long press");
             return true;
         }
     }
 
     private static class WiggleTouchDetector extends BaseRelativeDetector {
 
-        public WiggleTouchDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public WiggleTouchDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
         }
 
         @Override
@@ -915,15 +1180,25 @@ public class ModForceTouch extends XposedModule {
                 mRelativeDetector.setMultipleForceTouch(false);
                 mRelativeDetector.setCancelByMultiTouch(mSettings.singleTouchMode);
                 mRelativeDetector.setLongClickable(mSettings.wiggleTouchActionLongPress.type != ActionInfo.TYPE_NONE);
-                mRelativeDetector.setType(RelativeDetector.TYPE_WIGGLE);
+                mRelativeDetector.setType(mSettings.slopeTrigger ?
+                        RelativeDetector.TYPE_SLOPE : RelativeDetector.TYPE_WIGGLE);
+                mRelativeDetector.setSlope(FTD.getSlope(mSettings.wiggleTouchMagnification),
+                        FTD.SLOPE_DURATION_IN_MILLIS);
                 mRelativeDetector.setRewind(false);
+                mRelativeDetector.setProcessHistory(mSettings.processHistory);
+                mRelativeDetector.setBaselineSamples(mSettings.baselineSamples);
                 mRelativeDetector.allowUnknownType(mSettings.allowUnknownInputType);
             }
         }
 
         @Override
-        protected boolean dispatchTouchEvent(MotionEvent event) {
-            return mSettings.wiggleTouchEnable && mRelativeDetector.onTouchEvent(event);
+        public boolean isEnabled() {
+            return mSettings.wiggleTouchEnable;
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+            return mRelativeDetector.onTouchEvent(event, frame);
         }
 
         @Override
@@ -938,22 +1213,24 @@ public class ModForceTouch extends XposedModule {
 
         @Override
         public boolean onForceTap(float x, float y) {
-            performAction(mSettings.wiggleTouchActionTap, x, y, "wiggle tap");
+            performAction(mArea.getTapAction(x, y, mSettings.wiggleTouchActionTap), x, y,
+                    "wiggle tap");
             return true;
         }
 
         @Override
         public boolean onForceLongPress(float x, float y) {
             performHapticFeedback();
-            performAction(mSettings.wiggleTouchActionLongPress, x, y, "wiggle long press");
+            performAction(mArea.getLongPressAction(x, y, mSettings.wiggleTouchActionLongPress),
+                    x, y, "wiggle long press");
             return true;
         }
     }
 
     private static class ScratchTouchDetector extends BaseRelativeDetector {
 
-        public ScratchTouchDetector(ViewGroup targetView, FTD.Settings settings) {
-            super(targetView, settings);
+        public ScratchTouchDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
         }
 
         @Override
@@ -973,15 +1250,25 @@ public class ModForceTouch extends XposedModule {
                 mRelativeDetector.setMultipleForceTouch(false);
                 mRelativeDetector.setCancelByMultiTouch(mSettings.singleTouchMode);
                 mRelativeDetector.setLongClickable(mSettings.scratchTouchActionLongPress.type != ActionInfo.TYPE_NONE);
-                mRelativeDetector.setType(RelativeDetector.TYPE_SCRATCH);
+                mRelativeDetector.setType(mSettings.slopeTrigger ?
+                        RelativeDetector.TYPE_SLOPE : RelativeDetector.TYPE_SCRATCH);
+                mRelativeDetector.setSlope(FTD.getSlope(mSettings.scratchTouchMagnification),
+                        FTD.SLOPE_DURATION_IN_MILLIS);
                 mRelativeDetector.setRewind(false);
+                mRelativeDetector.setProcessHistory(mSettings.processHistory);
+                mRelativeDetector.setBaselineSamples(mSettings.baselineSamples);
                 mRelativeDetector.allowUnknownType(mSettings.allowUnknownInputType);
             }
         }
 
         @Override
-        protected boolean dispatchTouchEvent(MotionEvent event) {
-            return mSettings.scratchTouchEnable && mRelativeDetector.onTouchEvent(event);
+        public boolean isEnabled() {
+            return mSettings.scratchTouchEnable;
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+            return mRelativeDetector.onTouchEvent(event, frame);
         }
 
         @Override
@@ -1003,7 +1290,67 @@ public class ModForceTouch extends XposedModule {
         public boolean onForceLongPress(float x, float y) {
             performHapticFeedback();
             startRipple(x, y);
-            performAction(mSettings.scratchTouchActionLongPress, x, y, "scratch long press");
+            performAction(mArea.getLongPressAction(x, y, mSettings.scratchTouchActionLongPress),
+                    x, y, "scratch long press");
+            return true;
+        }
+    }
+
+    /**
+     * Gestures defined by the user in the settings, see {@link GestureTable}.
+     * The spec is compiled once per settings and actions are resolved to tool actions by
+     * their names.
+     */
+    private static class CustomGestureDetector extends Detector
+            implements GestureAutomatonDetector.Callback {
+        private static final GestureTable EMPTY_TABLE = GestureTable.compile("");
+
+        private final GestureAutomatonDetector mDetector;
+        private String mSpec = "";
+        private ActionInfo.Record[] mActions = new ActionInfo.Record[0];
+
+        public CustomGestureDetector(Context context, FTD.Settings settings) {
+            super(context, settings);
+
+            mDetector = new GestureAutomatonDetector(EMPTY_TABLE, this);
+            onSettingsLoaded(settings);
+        }
+
+        @Override
+        public void onSettingsLoaded() {
+            if (mDetector == null || mSpec.equals(mSettings.customGestures)) {
+                return;
+            }
+            mSpec = mSettings.customGestures;
+            GestureTable table = EMPTY_TABLE;
+            try {
+                table = GestureTable.compile(mSpec);
+            } catch (IllegalArgumentException e) {
+                logE(e);
+            }
+            final ActionInfo.Record[] actions = new ActionInfo.Record[table.getGestureCount()];
+            for (int i = 0; i < actions.length; ++i) {
+                actions[i] = FTD.getToolActionRecord(table.getAction(i), table.getName(i));
+            }
+            mActions = actions;
+            mDetector.setTable(table);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return mActions.length > 0;
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event, TouchFrame frame) {
+            return mDetector.onTouchEvent(event, frame);
+        }
+
+        @Override
+        public boolean onGesture(int gesture, float x, float y) {
+            performHapticFeedback();
+            startRipple(x, y);
+            performAction(mActions[gesture], x, y, mDetector.getTable().getName(gesture));
             return true;
         }
     }
@@ -20,13 +20,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.graphics.Rect;
 import android.os.Build;
 import android.support.annotation.Nullable;
 import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewGroup;
 import android.view.WindowManager;
 
 import com.google.common.collect.Lists;
@@ -34,12 +32,12 @@ import com.google.common.collect.Lists;
 import java.util.List;
 
 import de.robv.android.xposed.XC_MethodHook;
-import de.robv.android.xposed.XC_MethodReplacement;
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedHelpers;
 import jp.tkgktyk.lib.ForceTouchDetector;
 import jp.tkgktyk.lib.ForceTouchScreenHelper;
 import jp.tkgktyk.lib.RelativeDetector;
+import jp.tkgktyk.lib.core.WeakIdentityRegistry;
 import jp.tkgktyk.xposed.forcetouchdetector.app.util.ActionInfo;
 
 /**
@@ -49,9 +47,11 @@ public class ModForceTouchScreen extends XposedModule {
     private static final String CLASS_DECOR_VIEW = "com.android.internal.policy.impl.PhoneWindow$DecorView";
     private static final String CLASS_DECOR_VIEW_M = "com.android.internal.policy.PhoneWindow$DecorView";
     private static final String CLASS_POPUP_WINDOW = "android.widget.PopupWindow";
-    private static final String CLASS_POPUP_VIEW_CONTAINER = "android.widget.PopupWindow$PopupViewContainer";
-    private static final String FIELD_DETECTORS = FTD.NAME + "_forceTouchDetectors";
-    private static final String FIELD_SETTINGS_CHANGED_RECEIVER = FTD.NAME + "_settingsChangedReceiver";
+
+    // looked up on every event, keyed by root views of this process
+    private static final WeakIdentityRegistry<List<Detector>> sDetectors = new WeakIdentityRegistry<>();
+    private static final WeakIdentityRegistry<BroadcastReceiver> sSettingsChangedReceivers =
+            new WeakIdentityRegistry<>();
 
     private static XSharedPreferences mPrefs;
 
@@ -65,9 +65,9 @@ public class ModForceTouchScreen extends XposedModule {
     }
 
     private static void install() {
-        final XC_MethodReplacement dispatchTouchEvent = new XC_MethodReplacement() {
+        final RootDispatchHook dispatchTouchEvent = new RootDispatchHook() {
             @Override
-            protected Object replaceHookedMethod(MethodHookParam methodHookParam) throws Throwable {
+            protected boolean dispatchTouchEvent(MethodHookParam methodHookParam) {
                 boolean handled = false;
                 try {
                     View container = (View) methodHookParam.thisObject;
@@ -78,12 +78,10 @@ public class ModForceTouchScreen extends XposedModule {
                             handled = handled || ftd.dispatchTouchEvent(event, methodHookParam);
                         }
                     }
-                    if (!handled) {
-                        handled = (Boolean) invokeOriginalMethod(methodHookParam);
-                    }
                 } catch (Throwable t) {
                     logE(t);
-                    handled = (Boolean) invokeOriginalMethod(methodHookParam);
+                    // fall back to the original method
+                    handled = false;
                 }
                 return handled;
             }
@@ -94,33 +92,43 @@ public class ModForceTouchScreen extends XposedModule {
                     return;
                 }
                 try {
-                    install(target);
-                    registerReceiver(target);
+                    if (install(target)) {
+                        registerReceiver(target);
+                    }
                 } catch (Throwable t) {
                     logE(t);
                 }
             }
 
-            private void install(View target) {
+            /**
+             * @return false if the window is left unhooked
+             */
+            private boolean install(View target) {
                 List<Detector> detectors = getDetectors(target);
                 if (detectors != null) {
-                    return;
+                    return true;
                 }
                 Context context = target.getContext();
+                String packageName = context.getPackageName();
                 mPrefs.reload();
-                FTD.Settings settings = new FTD.Settings(context, mPrefs);
+                FTD.Settings settings = FTD.loadSettings(context, mPrefs, packageName);
                 settings.blacklist.add(FTD.PACKAGE_NAME);
-                String packageName = context.getPackageName();
                 if (settings.blacklist.contains(packageName)) {
                     // blacklist
                     logD("ignore: " + packageName);
-                    return;
+                    return false;
+                }
+                if (!settings.forceTouchScreenEnable && !settings.scratchTouchEnable) {
+                    // the profile disables all, leave the window unhooked
+                    logD("pass through: " + packageName);
+                    return false;
                 }
                 detectors = Lists.newArrayList();
                 detectors.add(new ForceTouchScreen(target, settings));
                 detectors.add(new ScratchTouchDetector(target, settings));
-                XposedHelpers.setAdditionalInstanceField(target,
-                        FIELD_DETECTORS, detectors);
+                sDetectors.put(target, detectors);
+                dispatchTouchEvent.hook(target.getClass());
+                return true;
             }
 
             private void registerReceiver(final View target) {
@@ -131,16 +139,21 @@ public class ModForceTouchScreen extends XposedModule {
                         if (detectors == null) {
                             return;
                         }
-                        logD(target.getContext().getPackageName() + ": reload settings");
+                        String packageName = target.getContext().getPackageName();
+                        logD(packageName + ": reload settings");
                         FTD.Settings settings = (FTD.Settings) intent
                                 .getSerializableExtra(FTD.EXTRA_SETTINGS);
+                        if (settings.hasAppProfile(packageName)) {
+                            // the broadcast has only global settings
+                            mPrefs.reload();
+                            settings = FTD.loadSettings(context, mPrefs, packageName);
+                        }
                         for (Detector detector : detectors) {
                             detector.onSettingsLoaded(settings);
                         }
                     }
                 };
-                XposedHelpers.setAdditionalInstanceField(target,
-                        FIELD_SETTINGS_CHANGED_RECEIVER, settingsChangedReceiver);
+                sSettingsChangedReceivers.put(target, settingsChangedReceiver);
                 target.getContext().registerReceiver(settingsChangedReceiver,
                         new IntentFilter(FTD.ACTION_SETTINGS_CHANGED));
             }
@@ -160,8 +173,7 @@ public class ModForceTouchScreen extends XposedModule {
 
             private void unregisterReceiver(View target) {
                 BroadcastReceiver settingsChangedReceiver =
-                        (BroadcastReceiver) XposedHelpers.getAdditionalInstanceField(target,
-                                FIELD_SETTINGS_CHANGED_RECEIVER);
+                        sSettingsChangedReceivers.remove(target);
                 if (settingsChangedReceiver != null) {
                     target.getContext().unregisterReceiver(settingsChangedReceiver);
                 }
@@ -173,25 +185,14 @@ public class ModForceTouchScreen extends XposedModule {
                     for (Detector detector : detectors) {
                         detector.onDestroy();
                     }
-                    XposedHelpers.removeAdditionalInstanceField(target, FIELD_DETECTORS);
+                    sDetectors.remove(target);
                 }
             }
         }
 
-        Class<?> classDecorView;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            XposedHelpers.findAndHookMethod(ViewGroup.class, "dispatchTouchEvent",
-                    MotionEvent.class, dispatchTouchEvent);
-            classDecorView = XposedHelpers.findClass(CLASS_DECOR_VIEW_M, null);
-        } else {
-            classDecorView = XposedHelpers.findClass(CLASS_DECOR_VIEW, null);
-            XposedHelpers.findAndHookMethod(classDecorView, "dispatchTouchEvent",
-                    MotionEvent.class, dispatchTouchEvent);
-            final Class<?> classPopupViewContainer = XposedHelpers
-                    .findClass(CLASS_POPUP_VIEW_CONTAINER, null);
-            XposedHelpers.findAndHookMethod(classPopupViewContainer, "dispatchTouchEvent",
-                    MotionEvent.class, dispatchTouchEvent);
-        }
+        final Class<?> classDecorView = XposedHelpers.findClass(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? CLASS_DECOR_VIEW_M : CLASS_DECOR_VIEW,
+                null);
         XposedHelpers.findAndHookMethod(classDecorView, "onAttachedToWindow",
                 new Installer() {
                     @Override
@@ -225,13 +226,13 @@ public class ModForceTouchScreen extends XposedModule {
     }
 
     private static List<Detector> getDetectors(View decorView) {
-        return (List<Detector>) XposedHelpers.getAdditionalInstanceField(decorView, FIELD_DETECTORS);
+        return sDetectors.get(decorView);
     }
 
     private static View getPopupView(XC_MethodHook.MethodHookParam param) {
         return (View) XposedHelpers.getObjectField(param.thisObject,
                 Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ?
-                        "mBackgroundView" : "mPopupView");
+                        "mDecorView" : "mPopupView");
     }
 
     public static abstract class Detector {
@@ -239,14 +240,17 @@ public class ModForceTouchScreen extends XposedModule {
         protected FTD.Settings mSettings;
 
         private XC_MethodHook.MethodHookParam mMethodHookParam;
+        private final DetectionArea mArea;
 
         public Detector(View targetView, FTD.Settings settings) {
             mTargetView = targetView;
             mSettings = settings;
+            mArea = new DetectionArea(targetView, settings);
         }
 
         public final void onSettingsLoaded(FTD.Settings settings) {
             mSettings = settings;
+            mArea.onSettingsLoaded(settings);
             onSettingsLoaded();
         }
 
@@ -260,24 +264,23 @@ public class ModForceTouchScreen extends XposedModule {
                     ForceTouchScreenHelper.getSize(event, index);
         }
 
+        protected float getMethodParameter(MotionEvent event, int index, int pos) {
+            return mSettings.detectorMethod == FTD.METHOD_PRESSURE ?
+                    ForceTouchScreenHelper.getHistoricalPressure(event, index, pos) :
+                    ForceTouchScreenHelper.getHistoricalSize(event, index, pos);
+        }
+
         protected Context getContext() {
             return mTargetView.getContext();
         }
 
         protected boolean isInDetectionArea(float x, float y) {
-            int ix = Math.round(x);
-            int iy = Math.round(y);
-            Rect area = mSettings.detectionArea.getRect(mTargetView.getWidth(), mTargetView.getHeight());
-            Rect mirroredArea = mSettings.detectionAreaMirror ?
-                    mSettings.detectionArea.getMirroredRect(mTargetView.getWidth(), mTargetView.getHeight()) :
-                    null;
-            // touch area
-            boolean contains = area.contains(ix, iy) ||
-                    (mirroredArea != null && mirroredArea.contains(ix, iy));
-            if (mSettings.detectionAreaReverse) {
-                contains = !contains;
-            }
-            return contains;
+            return mArea.isInDetectionArea(x, y);
+        }
+
+        protected ActionInfo.Record getLongPressAction(float x, float y,
+                                                       ActionInfo.Record defaultAction) {
+            return mArea.getLongPressAction(x, y, defaultAction);
         }
 
         final public boolean dispatchTouchEvent(MotionEvent event,
@@ -340,8 +343,12 @@ public class ModForceTouchScreen extends XposedModule {
             mForceTouchScreenHelper.setWindowTimeInMillis(window);
             mForceTouchScreenHelper.setWindowDelayInMillis(delay);
             mForceTouchScreenHelper.setMagnification(mSettings.wiggleTouchMagnification);
-            mForceTouchScreenHelper.setType(ForceTouchScreenHelper.TYPE_WIGGLE);
+            mForceTouchScreenHelper.setType(mSettings.slopeTrigger ?
+                    ForceTouchScreenHelper.TYPE_SLOPE : ForceTouchScreenHelper.TYPE_WIGGLE);
+            mForceTouchScreenHelper.setSlope(FTD.getSlope(mSettings.wiggleTouchMagnification),
+                    FTD.SLOPE_DURATION_IN_MILLIS);
             mForceTouchScreenHelper.setRewind(false);
+            mForceTouchScreenHelper.setProcessHistory(mSettings.processHistory);
             mForceTouchScreenHelper.allowUnknownType(mSettings.allowUnknownInputType);
             mForceTouchScreenHelper.setCancelByMultiTouch(mSettings.singleTouchMode);
         }
@@ -355,9 +362,11 @@ public class ModForceTouchScreen extends XposedModule {
 
         @Override
         protected boolean dispatchTouchEvent(MotionEvent event) {
-            return mSettings.forceTouchScreenEnable ?
-                    mForceTouchScreenHelper.onTouchEvent(event) :
-                    performOriginalOnTouchEvent(event);
+            if (!mSettings.forceTouchScreenEnable) {
+                // the original runs natively after the hook
+                return false;
+            }
+            return mForceTouchScreenHelper.onTouchEvent(event);
         }
 
         @Override
@@ -400,6 +409,11 @@ public class ModForceTouchScreen extends XposedModule {
         public float getParameter(MotionEvent event, int index) {
             return getMethodParameter(event, index);
         }
+
+        @Override
+        public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+            return getMethodParameter(event, index, pos);
+        }
     }
 
     private static class ScratchTouchDetector extends Detector
@@ -431,8 +445,13 @@ public class ModForceTouchScreen extends XposedModule {
                 mRelativeDetector.setMultipleForceTouch(false);
                 mRelativeDetector.setCancelByMultiTouch(mSettings.singleTouchMode);
                 mRelativeDetector.setLongClickable(mSettings.scratchTouchActionLongPress.type != ActionInfo.TYPE_NONE);
-                mRelativeDetector.setType(RelativeDetector.TYPE_SCRATCH);
+                mRelativeDetector.setType(mSettings.slopeTrigger ?
+                        RelativeDetector.TYPE_SLOPE : RelativeDetector.TYPE_SCRATCH);
+                mRelativeDetector.setSlope(FTD.getSlope(mSettings.scratchTouchMagnification),
+                        FTD.SLOPE_DURATION_IN_MILLIS);
                 mRelativeDetector.setRewind(false);
+                mRelativeDetector.setProcessHistory(mSettings.processHistory);
+                mRelativeDetector.setBaselineSamples(mSettings.baselineSamples);
                 mRelativeDetector.allowUnknownType(mSettings.allowUnknownInputType);
             }
         }
@@ -456,6 +475,11 @@ public class ModForceTouchScreen extends XposedModule {
             return getMethodParameter(event, index);
         }
 
+        @Override
+        public float getHistoricalParameter(MotionEvent event, int index, int pos) {
+            return getMethodParameter(event, index, pos);
+        }
+
         @Override
         public boolean onAbsoluteTouch(float x, float y, float parameter) {
             // never reach
@@ -479,7 +503,7 @@ public class ModForceTouchScreen extends XposedModule {
         @Override
         public boolean onForceLongPress(float x, float y) {
             performHapticFeedback();
-            performAction(mSettings.scratchTouchActionLongPress, x, y);
+            performAction(getLongPressAction(x, y, mSettings.scratchTouchActionLongPress), x, y);
             return true;
         }
 
@@ -21,11 +21,13 @@ import android.app.Instrumentation;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.os.Build;
 import android.os.Process;
 import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import android.view.KeyEvent;
 import android.view.inputmethod.InputMethodManager;
 
@@ -54,43 +56,47 @@ public class ModInternal extends XposedModule {
             try {
                 final String action = intent.getAction();
                 logD(action);
+                final LatencyTrace trace = LatencyTrace.fromIntent(intent);
+                if (trace != null) {
+                    trace.mark(LatencyTrace.STAGE_RECEIVE);
+                }
                 //
                 // Key Action
                 //
                 if (action.equals(FTD.ACTION_BACK)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_BACK);
+                    sendKeyEvent(KeyEvent.KEYCODE_BACK, trace);
                 } else if (action.equals(FTD.ACTION_HOME)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_HOME);
+                    sendKeyEvent(KeyEvent.KEYCODE_HOME, trace);
                 } else if (action.equals(FTD.ACTION_RECENTS)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_APP_SWITCH);
+                    sendKeyEvent(KeyEvent.KEYCODE_APP_SWITCH, trace);
                 } else if (action.equals(FTD.ACTION_FORWARD)) {
-                    sendKeyEventAlt(KeyEvent.KEYCODE_DPAD_RIGHT);
+                    sendKeyEventAlt(KeyEvent.KEYCODE_DPAD_RIGHT, trace);
                 } else if (action.equals(FTD.ACTION_REFRESH)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_F5);
+                    sendKeyEvent(KeyEvent.KEYCODE_F5, trace);
                 } else if (action.equals(FTD.ACTION_SCROLL_UP_GLOBAL)) {
-                    scrollUp();
+                    scrollUp(trace);
                 } else if (action.equals(FTD.ACTION_SCROLL_DOWN_GLOBAL)) {
-                    scrollDown();
+                    scrollDown(trace);
                 } else if (action.equals(FTD.ACTION_VOLUME_UP)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_VOLUME_UP);
+                    sendKeyEvent(KeyEvent.KEYCODE_VOLUME_UP, trace);
                 } else if (action.equals(FTD.ACTION_VOLUME_DOWN)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_VOLUME_DOWN);
+                    sendKeyEvent(KeyEvent.KEYCODE_VOLUME_DOWN, trace);
                 } else if (action.equals(FTD.ACTION_SCREENSHOT)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_SYSRQ);
+                    sendKeyEvent(KeyEvent.KEYCODE_SYSRQ, trace);
                 } else if (action.equals(FTD.ACTION_LOCK_SCREEN)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_POWER);
+                    sendKeyEvent(KeyEvent.KEYCODE_POWER, trace);
                 } else if (action.equals(FTD.ACTION_LAST_APP)) {
                     // TODO: not work
-                    sendKeyEventAlt(KeyEvent.KEYCODE_TAB);
+                    sendKeyEventAlt(KeyEvent.KEYCODE_TAB, trace);
                 } else if (action.equals(FTD.ACTION_MENU)) {
-                    sendKeyEvent(KeyEvent.KEYCODE_MENU);
+                    sendKeyEvent(KeyEvent.KEYCODE_MENU, trace);
                 } else if (action.equals(FTD.ACTION_BRIGHTNESS_UP)) {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                        sendKeyEvent(KeyEvent.KEYCODE_BRIGHTNESS_UP);
+                        sendKeyEvent(KeyEvent.KEYCODE_BRIGHTNESS_UP, trace);
                     }
                 } else if (action.equals(FTD.ACTION_BRIGHTNESS_DOWN)) {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                        sendKeyEvent(KeyEvent.KEYCODE_BRIGHTNESS_DOWN);
+                        sendKeyEvent(KeyEvent.KEYCODE_BRIGHTNESS_DOWN, trace);
                     }
 
                     //
@@ -99,37 +105,52 @@ public class ModInternal extends XposedModule {
                 } else if (action.equals(FTD.ACTION_NOTIFICATIONS)) {
                     Object statusBarManager = XposedHelpers.callMethod(mPhoneWindowManager, "getStatusBarService");
                     XposedHelpers.callMethod(statusBarManager, "expandNotificationsPanel");
+                    finish(trace);
                 } else if (action.equals(FTD.ACTION_QUICK_SETTINGS)) {
                     Object statusBarManager = XposedHelpers.callMethod(mPhoneWindowManager, "getStatusBarService");
                     XposedHelpers.callMethod(statusBarManager, "expandSettingsPanel");
+                    finish(trace);
 
                     //
                     // Other function
                     //
                 } else if (action.equals(FTD.ACTION_KILL)) {
                     killForegroundApp(context);
+                    finish(trace);
                 } else if (action.equals(FTD.ACTION_POWER_MENU)) {
                     showPowerMenu();
+                    finish(trace);
                 } else if (action.equals(FTD.ACTION_SELECT_KEYBOARD)) {
                     InputMethodManager imeManager = (InputMethodManager) context.getSystemService(Context.INPUT_METHOD_SERVICE);
                     imeManager.showInputMethodPicker();
+                    finish(trace);
                 }
             } catch (Throwable t) {
                 logE(t);
             }
         }
 
-        private void sendKeyEvent(final int code) {
+        /**
+         * Call when the action is completed, key events are injected on their own threads.
+         */
+        private void finish(@Nullable LatencyTrace trace) {
+            if (trace != null) {
+                trace.finish();
+            }
+        }
+
+        private void sendKeyEvent(final int code, @Nullable final LatencyTrace trace) {
             new Thread() {
                 @Override
                 public void run() {
                     Instrumentation ist = new Instrumentation();
                     ist.sendKeyDownUpSync(code);
+                    finish(trace);
                 }
             }.start();
         }
 
-        private void sendKeyEventAlt(final int code) {
+        private void sendKeyEventAlt(final int code, @Nullable final LatencyTrace trace) {
             new Thread() {
                 @Override
                 public void run() {
@@ -150,11 +171,12 @@ public class ModInternal extends XposedModule {
                     eventTime = SystemClock.uptimeMillis() + 100;
                     alt = KeyEvent.changeTimeRepeat(alt, eventTime, 0);
                     ist.sendKeySync(alt);
+                    finish(trace);
                 }
             }.start();
         }
 
-        private void scrollUp() {
+        private void scrollUp(@Nullable final LatencyTrace trace) {
             new Thread() {
                 @Override
                 public void run() {
@@ -163,11 +185,12 @@ public class ModInternal extends XposedModule {
                     sendKeyEvent(instrumentation, KeyEvent.KEYCODE_PAGE_UP, 10);
                     sendKeyEvent(instrumentation, KeyEvent.KEYCODE_DPAD_DOWN, 1); // workaround to focus
                     sendKeyEvent(instrumentation, KeyEvent.KEYCODE_DPAD_UP, 100);
+                    finish(trace);
                 }
             }.start();
         }
 
-        private void scrollDown() {
+        private void scrollDown(@Nullable final LatencyTrace trace) {
             new Thread() {
                 @Override
                 public void run() {
@@ -176,6 +199,7 @@ public class ModInternal extends XposedModule {
                     sendKeyEvent(instrumentation, KeyEvent.KEYCODE_PAGE_DOWN, 10);
                     sendKeyEvent(instrumentation, KeyEvent.KEYCODE_DPAD_UP, 1); // workaround to focus
                     sendKeyEvent(instrumentation, KeyEvent.KEYCODE_DPAD_DOWN, 100);
+                    finish(trace);
                 }
             }.start();
         }
@@ -256,7 +280,25 @@ public class ModInternal extends XposedModule {
             mPhoneWindowManager = param.thisObject;
             Context context = (Context) XposedHelpers
                     .getObjectField(mPhoneWindowManager, "mContext");
+            // latency traces of broadcast actions are finished here
             context.registerReceiver(mActionReceiver, FTD.INTERNAL_ACTION_FILTER);
+            FTD.Settings settings = new FTD.Settings(null, mPrefs);
+            if (settings.globalDetectorEnable && !settings.forceTouchScreenEnable) {
+                try {
+                    GlobalInputFilter.install(context, param.args[1], settings);
+                } catch (Throwable t) {
+                    logE(t);
+                }
+            }
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    context.sendBroadcast(new Intent(FTD.ACTION_STATS)
+                            .setPackage(FTD.PACKAGE_NAME)
+                            .putExtra(FTD.EXTRA_STATS,
+                                    HookStats.snapshot(context.getPackageName())));
+                }
+            }, new IntentFilter(FTD.ACTION_REQUEST_STATS), FTD.PERMISSION_REQUEST_STATS, null);
         }
     };
 
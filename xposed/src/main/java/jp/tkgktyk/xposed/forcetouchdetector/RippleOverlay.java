@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.annotation.TargetApi;
+import android.graphics.drawable.GradientDrawable;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Feedback ripple of a window. The ripple is a drawable in the overlay of the root view,
+ * it is added once and only invalidated while animating, so showing it causes no measure
+ * or layout. Before JB MR2, which has no overlay, a view is added while animating.
+ * Nothing is allocated until the first ripple, most windows never show it.
+ */
+public class RippleOverlay {
+    private static final int RIPPLE_SIZE = 5;
+    private static final float START_SCALE = 0.0f;
+    private static final float START_ALPHA = 0.7f;
+    private static final int DURATION = 300; // default
+
+    private final ViewGroup mTargetView;
+    private int mSize;
+    private GradientDrawable mDrawable;
+    private ValueAnimator mAnimator;
+    private float mX;
+    private float mY;
+    private boolean mAdded;
+    // only for the legacy path
+    private View mRippleView;
+
+    public RippleOverlay(ViewGroup targetView) {
+        mTargetView = targetView;
+    }
+
+    private void setUp() {
+        mSize = mTargetView.getResources().getDimensionPixelSize(android.R.dimen.app_icon_size) *
+                RIPPLE_SIZE;
+        mDrawable = new GradientDrawable();
+        mDrawable.setShape(GradientDrawable.OVAL);
+        mDrawable.setAlpha(0);
+        mAnimator = ValueAnimator.ofFloat(0.0f, 1.0f);
+        mAnimator.setDuration(DURATION);
+        mAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                update(animation.getAnimatedFraction());
+            }
+        });
+        mAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                update(1.0f);
+                if (mRippleView != null && mRippleView.getParent() != null) {
+                    mTargetView.removeView(mRippleView);
+                }
+            }
+        });
+    }
+
+    public void start(float x, float y, int color) {
+        if (mAnimator == null) {
+            setUp();
+        }
+        mAnimator.cancel();
+        mX = x;
+        mY = y;
+        mDrawable.setColor(color);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            addToOverlay();
+        } else {
+            addView();
+        }
+        update(0.0f);
+        mAnimator.start();
+    }
+
+    public void cancel() {
+        if (mAnimator != null) {
+            mAnimator.cancel();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void addToOverlay() {
+        if (!mAdded) {
+            mTargetView.getOverlay().add(mDrawable);
+            mAdded = true;
+        }
+    }
+
+    private void addView() {
+        if (mRippleView == null) {
+            mRippleView = new View(mTargetView.getContext());
+            mRippleView.setLayoutParams(new ViewGroup.LayoutParams(mSize, mSize));
+            mDrawable.setAlpha(255);
+            mRippleView.setBackground(mDrawable);
+        }
+        if (mRippleView.getParent() == null) {
+            mTargetView.addView(mRippleView);
+        }
+    }
+
+    private void update(float fraction) {
+        final float scale = START_SCALE + (1.0f - START_SCALE) * fraction;
+        final float alpha = START_ALPHA * (1.0f - fraction);
+        if (mRippleView == null) {
+            final int radius = Math.round(mSize * scale / 2.0f);
+            final int x = Math.round(mX);
+            final int y = Math.round(mY);
+            mDrawable.setBounds(x - radius, y - radius, x + radius, y + radius);
+            mDrawable.setAlpha(Math.round(alpha * 255));
+            mDrawable.invalidateSelf();
+        } else {
+            mRippleView.setTranslationX(mX - mSize / 2.0f);
+            mRippleView.setTranslationY(mY - mSize / 2.0f);
+            mRippleView.setScaleX(scale);
+            mRippleView.setScaleY(scale);
+            mRippleView.setAlpha(alpha);
+        }
+    }
+}
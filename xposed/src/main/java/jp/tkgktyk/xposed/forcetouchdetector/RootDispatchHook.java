@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.forcetouchdetector;
+
+import android.view.MotionEvent;
+import android.view.ViewGroup;
+
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import jp.tkgktyk.lib.core.RootClassFilter;
+
+/**
+ * Hook of dispatchTouchEvent for root containers like DecorView and popup windows.
+ * <p>
+ * It runs before the original method and sets a result only when detectors consume the
+ * event. Events which are not intercepted, almost all of them, run the original method
+ * natively instead of through XposedBridge#invokeOriginalMethod, and only intercepted
+ * strokes pay for reflective dispatch of cancels and replays.
+ * <p>
+ * Classes are hooked when a root of them is installed. A class which declares
+ * dispatchTouchEvent is hooked on its own method, so nested views never enter the hook.
+ * Otherwise the inherited method, at worst ViewGroup's, has to be hooked and every nested
+ * ViewGroup enters it. Those return to the original method by comparing classes before
+ * any lookup of detectors.
+ */
+abstract class RootDispatchHook extends XC_MethodHook {
+    private final RootClassFilter mInheritedRoots = new RootClassFilter();
+    // guarded by this
+    private final Set<Class<?>> mRootClasses = new HashSet<>();
+    private final Set<Member> mHookedMethods = new HashSet<>();
+
+    /**
+     * Make instances of the class enter {@link #dispatchTouchEvent(MethodHookParam)}.
+     * Nothing happens if the class is already hooked.
+     */
+    public synchronized void hook(Class<?> rootClass) {
+        if (!mRootClasses.add(rootClass)) {
+            return;
+        }
+        Method method = findDispatchTouchEvent(rootClass);
+        if (method.getDeclaringClass() != rootClass) {
+            mInheritedRoots.add(method, rootClass);
+        }
+        if (mHookedMethods.add(method)) {
+            XposedBridge.hookMethod(method, this);
+        }
+    }
+
+    private static Method findDispatchTouchEvent(Class<?> rootClass) {
+        for (Class<?> c = rootClass; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod("dispatchTouchEvent", MotionEvent.class);
+            } catch (NoSuchMethodException e) {
+                // inherited
+            }
+        }
+        // never reach for a ViewGroup
+        throw new IllegalArgumentException(rootClass.getName() + " is not a " +
+                ViewGroup.class.getSimpleName());
+    }
+
+    @Override
+    protected final void beforeHookedMethod(MethodHookParam methodHookParam) throws Throwable {
+        final Member method = methodHookParam.method;
+        final Class<?> receiverClass = methodHookParam.thisObject.getClass();
+        if (method.getDeclaringClass() != receiverClass &&
+                !mInheritedRoots.contains(method, receiverClass)) {
+            // nested view, or a root calling super.dispatchTouchEvent
+            return;
+        }
+        if (dispatchTouchEvent(methodHookParam)) {
+            methodHookParam.setResult(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Called only for instances of hooked root classes.
+     *
+     * @return true if the event is consumed, the original method is skipped
+     */
+    protected abstract boolean dispatchTouchEvent(MethodHookParam methodHookParam);
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.forcetouchdetector.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import jp.tkgktyk.lib.core.ThresholdCalibrator;
+import jp.tkgktyk.xposed.forcetouchdetector.FTD;
+
+/**
+ * Saves percentiles of ordinary touches sent by hooked processes, which read them back
+ * through the preferences when they load settings. Senders are other apps, so the values
+ * are only checked and never trusted beyond a threshold.
+ */
+public class CalibrationReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final int detectorMethod = intent.getIntExtra(FTD.EXTRA_DETECTOR_METHOD, -1);
+        final float[] calibration = intent.getFloatArrayExtra(FTD.EXTRA_CALIBRATION);
+        if (detectorMethod != FTD.METHOD_SIZE && detectorMethod != FTD.METHOD_PRESSURE) {
+            return;
+        }
+        if (calibration == null || calibration.length != 3 || !new ThresholdCalibrator()
+                .setPrior(calibration[0], calibration[1], calibration[2])) {
+            return;
+        }
+        FTD.getSharedPreferences(context)
+                .edit()
+                .putString(FTD.getCalibrationKey(detectorMethod),
+                        FTD.toCalibrationPreference(calibration))
+                .apply();
+    }
+}
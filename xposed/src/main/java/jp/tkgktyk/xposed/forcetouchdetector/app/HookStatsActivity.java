@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.MenuItem;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import butterknife.Bind;
+import butterknife.ButterKnife;
+import jp.tkgktyk.lib.core.LogLinearHistogram;
+import jp.tkgktyk.xposed.forcetouchdetector.FTD;
+import jp.tkgktyk.xposed.forcetouchdetector.HookStats;
+import jp.tkgktyk.xposed.forcetouchdetector.LatencyTrace;
+import jp.tkgktyk.xposed.forcetouchdetector.R;
+
+/**
+ * Overhead of the hook in each running app, pulled from the processes when it is shown.
+ */
+public class HookStatsActivity extends AppCompatActivity {
+    @Bind(R.id.toolbar)
+    Toolbar mToolbar;
+    @Bind(R.id.list)
+    ListView mListView;
+    @Bind(R.id.empty)
+    TextView mEmptyText;
+
+    private ArrayAdapter<String> mAdapter;
+    // sorted by package name, a package may run several processes
+    private final TreeMap<String, HookStats.Snapshot[]> mSnapshots = new TreeMap<>();
+
+    private final BroadcastReceiver mStatsReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            HookStats.Snapshot snapshot = (HookStats.Snapshot) intent
+                    .getSerializableExtra(FTD.EXTRA_STATS);
+            if (snapshot == null || (snapshot.events == 0 && snapshot.latencies.isEmpty())) {
+                return;
+            }
+            HookStats.Snapshot[] snapshots = mSnapshots.get(snapshot.packageName);
+            if (snapshots == null) {
+                snapshots = new HookStats.Snapshot[]{snapshot};
+            } else {
+                HookStats.Snapshot[] added = new HookStats.Snapshot[snapshots.length + 1];
+                System.arraycopy(snapshots, 0, added, 0, snapshots.length);
+                added[snapshots.length] = snapshot;
+                snapshots = added;
+            }
+            mSnapshots.put(snapshot.packageName, snapshots);
+            updateList();
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_hook_stats);
+        ButterKnife.bind(this);
+        setSupportActionBar(mToolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        mAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1);
+        mListView.setAdapter(mAdapter);
+        mListView.setEmptyView(mEmptyText);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mSnapshots.clear();
+        updateList();
+        registerReceiver(mStatsReceiver, new IntentFilter(FTD.ACTION_STATS));
+        sendBroadcast(new Intent(FTD.ACTION_REQUEST_STATS));
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        unregisterReceiver(mStatsReceiver);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case android.R.id.home:
+                onBackPressed();
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+        return true;
+    }
+
+    private void updateList() {
+        mAdapter.setNotifyOnChange(false);
+        mAdapter.clear();
+        for (HookStats.Snapshot[] snapshots : mSnapshots.values()) {
+            mAdapter.add(format(snapshots));
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private String format(HookStats.Snapshot[] snapshots) {
+        long events = 0;
+        long intercepted = 0;
+        long[] detections = new long[HookStats.DETECTOR_COUNT];
+        LogLinearHistogram hook = new LogLinearHistogram();
+        LogLinearHistogram[] detectors = new LogLinearHistogram[HookStats.DETECTOR_COUNT];
+        for (int i = 0; i < HookStats.DETECTOR_COUNT; ++i) {
+            detectors[i] = new LogLinearHistogram();
+        }
+        TreeMap<String, LogLinearHistogram[]> latencies = new TreeMap<>();
+        for (HookStats.Snapshot snapshot : snapshots) {
+            for (String type : snapshot.latencies.keySet()) {
+                LogLinearHistogram[] histograms = latencies.get(type);
+                if (histograms == null) {
+                    histograms = new LogLinearHistogram[LatencyTrace.INTERVAL_COUNT];
+                    for (int i = 0; i < LatencyTrace.INTERVAL_COUNT; ++i) {
+                        histograms[i] = new LogLinearHistogram();
+                    }
+                    latencies.put(type, histograms);
+                }
+                for (int i = 0; i < LatencyTrace.INTERVAL_COUNT; ++i) {
+                    histograms[i].add(snapshot.getLatency(type, i));
+                }
+            }
+            events += snapshot.events;
+            intercepted += snapshot.intercepted;
+            hook.add(snapshot.getHook());
+            for (int i = 0; i < HookStats.DETECTOR_COUNT; ++i) {
+                detections[i] += snapshot.detections[i];
+                detectors[i].add(snapshot.getDetector(i));
+            }
+        }
+
+        StringBuilder text = new StringBuilder(snapshots[0].packageName);
+        if (events > 0) {
+            text.append('\n').append(getString(R.string.hook_stats_events_d2, events, intercepted));
+            text.append('\n').append(formatLatency(getString(R.string.hook_stats_hook), hook));
+        }
+        for (int i = 0; i < HookStats.DETECTOR_COUNT; ++i) {
+            if (detectors[i].getTotalCount() == 0) {
+                continue;
+            }
+            text.append('\n').append(formatLatency(HookStats.DETECTOR_NAMES[i], detectors[i]))
+                    .append(getString(R.string.hook_stats_detections_d1, detections[i]));
+        }
+        for (Map.Entry<String, LogLinearHistogram[]> entry : latencies.entrySet()) {
+            LogLinearHistogram[] histograms = entry.getValue();
+            text.append('\n').append(getString(R.string.hook_stats_action_s1_d1,
+                    entry.getKey(), histograms[LatencyTrace.INTERVAL_COUNT - 1].getTotalCount()));
+            for (int i = 0; i < LatencyTrace.INTERVAL_COUNT; ++i) {
+                if (histograms[i].getTotalCount() == 0) {
+                    continue;
+                }
+                text.append('\n').append(getString(R.string.hook_stats_trace_s1_f2,
+                        LatencyTrace.INTERVAL_NAMES[i],
+                        histograms[i].getValueAtQuantile(0.5) / 1000000.0f,
+                        histograms[i].getValueAtQuantile(0.99) / 1000000.0f));
+            }
+        }
+        return text.toString();
+    }
+
+    private String formatLatency(String name, LogLinearHistogram histogram) {
+        return getString(R.string.hook_stats_latency_s1_f2, name,
+                histogram.getValueAtQuantile(0.5) / 1000.0f,
+                histogram.getValueAtQuantile(0.99) / 1000.0f);
+    }
+}
@@ -27,6 +27,7 @@ import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.preference.EditTextPreference;
 import android.preference.Preference;
 import android.preference.PreferenceCategory;
 import android.provider.Settings;
@@ -38,13 +39,17 @@ import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import jp.tkgktyk.lib.BaseSettingsActivity;
+import jp.tkgktyk.lib.core.GestureTable;
 import jp.tkgktyk.xposed.forcetouchdetector.BuildConfig;
 import jp.tkgktyk.xposed.forcetouchdetector.FTD;
 import jp.tkgktyk.xposed.forcetouchdetector.R;
 import jp.tkgktyk.xposed.forcetouchdetector.app.util.ActionInfo;
+import jp.tkgktyk.xposed.forcetouchdetector.app.util.AppProfile;
 
 
 public class SettingsActivity extends BaseSettingsActivity {
@@ -249,7 +254,65 @@ public class SettingsActivity extends BaseSettingsActivity {
             openActivity(R.string.key_detection_area, AreaActivity.class);
             showTextSummary(R.string.key_detection_sensitivity);
             showTextSummary(R.string.key_detection_window, R.string.unit_millisecond);
+            showTextSummary(R.string.key_baseline_samples);
             showTextSummary(R.string.key_extra_long_press_timeout, R.string.unit_millisecond);
+            EditTextPreference customGestures =
+                    (EditTextPreference) findPreference(R.string.key_custom_gestures);
+            customGestures.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    GestureTable table;
+                    try {
+                        table = GestureTable.compile(Strings.nullToEmpty((String) newValue));
+                    } catch (IllegalArgumentException e) {
+                        MyApp.showToast(e.getMessage());
+                        return false;
+                    }
+                    for (int i = 0; i < table.getGestureCount(); ++i) {
+                        String action = table.getAction(i);
+                        if (action != null && !FTD.isToolAction(action)) {
+                            MyApp.showToast(getString(R.string.not_found) + ": " + action);
+                            return false;
+                        }
+                    }
+                    preference.setSummary(getString(R.string.summary_custom_gestures_d1,
+                            table.getGestureCount()));
+                    return true;
+                }
+            });
+            customGestures.getOnPreferenceChangeListener()
+                    .onPreferenceChange(customGestures, customGestures.getText());
+            EditTextPreference appProfiles =
+                    (EditTextPreference) findPreference(R.string.key_app_profiles);
+            appProfiles.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    List<AppProfile> profiles;
+                    try {
+                        profiles = AppProfile.parse(Strings.nullToEmpty((String) newValue));
+                    } catch (IllegalArgumentException e) {
+                        MyApp.showToast(e.getMessage());
+                        return false;
+                    }
+                    for (AppProfile profile : profiles) {
+                        for (Map.Entry<String, String> value : profile.getValues().entrySet()) {
+                            String action = value.getValue();
+                            if (AppProfile.isActionKey(value.getKey()) &&
+                                    !action.equals(AppProfile.NO_ACTION) &&
+                                    !FTD.isToolAction(action)) {
+                                MyApp.showToast(getString(R.string.not_found) + ": " + action);
+                                return false;
+                            }
+                        }
+                    }
+                    preference.setSummary(getString(R.string.summary_app_profiles_d1,
+                            profiles.size()));
+                    return true;
+                }
+            });
+            appProfiles.getOnPreferenceChangeListener()
+                    .onPreferenceChange(appProfiles, appProfiles.getText());
+            openActivity(R.string.key_hook_stats, HookStatsActivity.class);
             openActivityForResult(R.string.key_blacklist, AppSelectActivity.class,
                     REQUEST_BLACKLIST, new ExtraPutter() {
                         @Override
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector.app.util;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of an app which replace the global ones.
+ * Profiles are written one app per line:
+ * <pre>
+ * # comment
+ * com.example.game off
+ * com.example.reader force_touch_threshold=1.3 wiggle_touch_enable=false
+ * com.example.browser force_touch_action_flick_left=BACK
+ * </pre>
+ * A name is the preference key without "key_". Values of actions are tool action names
+ * like custom gestures, or "none". "off" disables all detectors, the app doesn't pay for
+ * the module at all.
+ */
+public class AppProfile {
+    public static final String OFF = "off";
+    public static final String NO_ACTION = "none";
+
+    private static final String PREFIX_KEY = "key_";
+    private static final String[] OFF_KEYS = {
+            "key_force_touch_enable",
+            "key_knuckle_touch_enable",
+            "key_wiggle_touch_enable",
+            "key_scratch_touch_enable",
+            "key_force_touch_screen_enable",
+    };
+
+    public final String packageName;
+    private final HashMap<String, String> mValues = new HashMap<>();
+
+    private AppProfile(String packageName) {
+        this.packageName = packageName;
+    }
+
+    /**
+     * @return values by preference key
+     */
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(mValues);
+    }
+
+    public static boolean isActionKey(String key) {
+        return key.contains("_action_");
+    }
+
+    /**
+     * @throws IllegalArgumentException with the line number
+     */
+    public static ArrayList<AppProfile> parse(String spec) {
+        ArrayList<AppProfile> profiles = new ArrayList<>();
+        if (Strings.isNullOrEmpty(spec)) {
+            return profiles;
+        }
+        String[] lines = spec.split("\n");
+        for (int i = 0; i < lines.length; ++i) {
+            String line = lines[i];
+            final int comment = line.indexOf('#');
+            if (comment != -1) {
+                line = line.substring(0, comment);
+            }
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].isEmpty()) {
+                continue;
+            }
+            AppProfile profile = new AppProfile(tokens[0]);
+            for (int t = 1; t < tokens.length; ++t) {
+                String token = tokens[t];
+                if (token.equals(OFF)) {
+                    for (String key : OFF_KEYS) {
+                        profile.mValues.put(key, Boolean.FALSE.toString());
+                    }
+                    profile.mValues.put("key_custom_gestures", "");
+                    continue;
+                }
+                final int equal = token.indexOf('=');
+                if (equal <= 0) {
+                    throw new IllegalArgumentException("line " + (i + 1) + ": " + token);
+                }
+                profile.mValues.put(PREFIX_KEY + token.substring(0, equal),
+                        token.substring(equal + 1));
+            }
+            profiles.add(profile);
+        }
+        return profiles;
+    }
+
+    @Nullable
+    public static AppProfile find(List<AppProfile> profiles, String packageName) {
+        for (AppProfile profile : profiles) {
+            if (profile.packageName.equals(packageName)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param toolActionConverter makes a preference string of an action from a tool action
+     *                            name, or null for no action
+     * @return preferences which read values of this profile first
+     */
+    public SharedPreferences apply(SharedPreferences prefs,
+                                   ProfilePreferences.ActionConverter toolActionConverter) {
+        return new ProfilePreferences(prefs, mValues, toolActionConverter);
+    }
+}
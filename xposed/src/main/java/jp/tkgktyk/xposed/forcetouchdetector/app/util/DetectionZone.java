@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.tkgktyk.xposed.forcetouchdetector.app.util;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named part of the screen whose actions replace the ones of each detector.
+ * Actions of {@link ActionInfo#TYPE_NONE} fall back to the detector's.
+ */
+public class DetectionZone implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public String name = "";
+    public ScaleRect area = new ScaleRect();
+    public boolean mirror;
+    public ActionInfo.Record actionTap = new ActionInfo.Record();
+    public ActionInfo.Record actionLongPress = new ActionInfo.Record();
+
+    public static String toStringForPreference(List<DetectionZone> zones) {
+        return new Gson().toJson(zones);
+    }
+
+    public static ArrayList<DetectionZone> fromPreference(String stringFromPreference) {
+        if (Strings.isNullOrEmpty(stringFromPreference)) {
+            return new ArrayList<>();
+        }
+        ArrayList<DetectionZone> zones = new Gson().fromJson(stringFromPreference,
+                new TypeToken<ArrayList<DetectionZone>>() {
+                }.getType());
+        return zones != null ? zones : new ArrayList<DetectionZone>();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Takagi Katsuyuki
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jp.tkgktyk.xposed.forcetouchdetector.app.util;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only preferences which replace values of the base with an {@link AppProfile}.
+ */
+public class ProfilePreferences implements SharedPreferences {
+    public interface ActionConverter {
+        /**
+         * @param name tool action name, null for no action
+         * @return action record for preference
+         */
+        String toPreference(@Nullable String name);
+    }
+
+    private final SharedPreferences mBase;
+    private final Map<String, String> mValues;
+    private final ActionConverter mActionConverter;
+
+    ProfilePreferences(SharedPreferences base, Map<String, String> values,
+                       ActionConverter actionConverter) {
+        mBase = base;
+        mValues = values;
+        mActionConverter = actionConverter;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        HashMap<String, Object> all = new HashMap<>(mBase.getAll());
+        for (String key : mValues.keySet()) {
+            all.put(key, getString(key, null));
+        }
+        return all;
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        String value = mValues.get(key);
+        if (value == null) {
+            return mBase.getString(key, defValue);
+        }
+        if (AppProfile.isActionKey(key)) {
+            return mActionConverter.toPreference(
+                    value.equals(AppProfile.NO_ACTION) ? null : value);
+        }
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        return mBase.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        String value = mValues.get(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                // use the base
+            }
+        }
+        return mBase.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        String value = mValues.get(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                // use the base
+            }
+        }
+        return mBase.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        String value = mValues.get(key);
+        if (value != null) {
+            try {
+                return Float.parseFloat(value);
+            } catch (NumberFormatException e) {
+                // use the base
+            }
+        }
+        return mBase.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        String value = mValues.get(key);
+        if (value != null) {
+            return Boolean.parseBoolean(value);
+        }
+        return mBase.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key) || mBase.contains(key);
+    }
+
+    /**
+     * Changes are dropped, the profile is read-only.
+     */
+    @Override
+    public Editor edit() {
+        return new NullEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        // never changes
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        // never changes
+    }
+
+    private static class NullEditor implements Editor {
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return false;
+        }
+
+        @Override
+        public void apply() {
+        }
+    }
+}